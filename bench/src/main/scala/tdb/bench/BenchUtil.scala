@@ -0,0 +1,34 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import scala.concurrent.ExecutionContext
+
+import tdb.Context
+import tdb.worker.WorkerInfo
+
+object BenchUtil {
+  implicit val ec = ExecutionContext.global
+
+  // A Context that isn't attached to a Task, for benchmarking the parts of the
+  // system that only touch local state (the DDG, Ordering, Memoizer, etc.)
+  def newContext(): Context =
+    new Context(1, 1, null, null, null)
+
+  // A WorkerInfo for constructing stores and datastores outside of a Worker.
+  def workerInfo(storeType: String = "memory", cacheSize: Int = 10000) =
+    WorkerInfo(1, "bench", "127.0.0.1", 0, 0, storeType, "", cacheSize, 1, 1)
+}
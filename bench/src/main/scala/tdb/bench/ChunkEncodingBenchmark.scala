@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.io.File
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import scala.io.Source
+import scala.util.Random
+
+import tdb.datastore.{ChunkEncoding, MemoryUsage}
+
+object ChunkEncodingBenchmark {
+  // Looks for one of the repo's data files, whether JMH was started from the
+  // root or from the bench directory.
+  def dataFile(name: String): Seq[String] = {
+    val paths = Seq(name, "../" + name, "core/" + name, "../core/" + name)
+    paths.find(new File(_).exists()) match {
+      case Some(path) => Source.fromFile(path).getLines().toVector
+      case None => throw new IllegalStateException("Couldn't find " + name)
+    }
+  }
+
+  // Wordcount style input: lines of text made of words drawn from words.txt.
+  def wordsChunk(chunkSize: Int): Vector[(Any, Any)] = {
+    val words = dataFile("words.txt")
+    val random = new Random(0)
+    Vector.tabulate(chunkSize) {
+      case i =>
+        val line = Seq.fill(8) { words(random.nextInt(words.size)) }
+        ("line" + i, line.mkString(" "))
+    }
+  }
+
+  // Graph style input: edges from graph100.txt, keyed by their source.
+  def graphChunk(chunkSize: Int): Vector[(Any, Any)] = {
+    val edges = dataFile("graph100.txt").map(_.split("\\s+"))
+    Vector.tabulate(chunkSize) {
+      case i =>
+        val edge = edges(i % edges.size)
+        (edge(0), edge(1))
+    }
+  }
+}
+
+// Measures the cost of encoding and decoding one chunk with each of the
+// ListConf.chunkEncodings. The size of the encoded chunk relative to the
+// plain Vector, as computed by MemoryUsage, is printed during setup.
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class ChunkEncodingBenchmark {
+  @Param(Array("none", "compact", "deflate"))
+  var encoding: String = _
+
+  @Param(Array("words", "graph"))
+  var data: String = _
+
+  @Param(Array("1000"))
+  var chunkSize: Int = _
+
+  var chunk: Vector[(Any, Any)] = _
+
+  var encoded: Any = _
+
+  @Setup(Level.Trial)
+  def setup() {
+    chunk =
+      if (data == "words") {
+        ChunkEncodingBenchmark.wordsChunk(chunkSize)
+      } else {
+        ChunkEncodingBenchmark.graphChunk(chunkSize)
+      }
+    encoded = ChunkEncoding.encode(chunk, encoding)
+
+    val rawSize = MemoryUsage.getSize(chunk)
+    val encodedSize = MemoryUsage.getSize(encoded)
+    println("\n" + data + "/" + encoding + ": " + rawSize + " -> " +
+            encodedSize + " bytes, ratio " +
+            "%.2f".format(rawSize.toDouble / encodedSize))
+  }
+
+  @Benchmark
+  def encode(): Any = ChunkEncoding.encode(chunk, encoding)
+
+  @Benchmark
+  def decode(): Any = ChunkEncoding.decode(encoded)
+}
@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+import tdb.{Changeable, Context, Memoizer, Mod}
+import tdb.ddg.Timestamp
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class DDGBenchmark {
+  @Param(Array("10000"))
+  var mods: Int = _
+
+  // The number of reads of each mod.
+  @Param(Array("1", "16"))
+  var readers: Int = _
+
+  var c: Context = _
+
+  var modArray: Array[Mod[Any]] = _
+
+  var i = 0
+
+  private val reader = (value: Any) => null.asInstanceOf[Changeable[Any]]
+
+  @Setup(Level.Iteration)
+  def setup() {
+    c = BenchUtil.newContext()
+    modArray = Array.tabulate(mods) {
+      case j => new Mod[Any](c.newModId())
+    }
+
+    for (r <- 0 until readers; mod <- modArray) {
+      c.ddg.addRead(mod, null, reader, c)
+    }
+    i = 0
+  }
+
+  @Benchmark
+  def addRead(): Timestamp = {
+    i = (i + 1) % mods
+    c.ddg.addRead(modArray(i), null, reader, c)
+  }
+
+  @Benchmark
+  def modUpdated() {
+    i = (i + 1) % mods
+    c.ddg.modUpdated(modArray(i).id)
+
+    // Reset the state so that every call does the same amount of work.
+    c.ddg.updated.clear()
+    for (timestamp <- c.ddg.reads(modArray(i).id)) {
+      timestamp.node.updated = false
+    }
+  }
+}
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class MemoizerBenchmark {
+  @Param(Array("10000"))
+  var entries: Int = _
+
+  var c: Context = _
+
+  var memo: Memoizer[Any] = _
+
+  // The start timestamp of each memo entry.
+  var memoStarts: Array[Timestamp] = _
+
+  var i = 0
+
+  @Setup(Level.Iteration)
+  def setup() {
+    c = BenchUtil.newContext()
+    memo = new Memoizer[Any]()(c)
+
+    memoStarts = new Array[Timestamp](entries)
+    for (j <- 0 until entries) {
+      val last = c.ddg.ordering.base.previous.base.previous
+      memo(j) { j }
+      memoStarts(j) = last.getNext()
+    }
+    i = 0
+  }
+
+  // Every call adds a new entry, as in the initial run.
+  @Benchmark
+  def miss(): Any = {
+    c.initialRun = true
+    i += 1
+    memo(-i) { i }
+  }
+
+  // Matches an existing entry during change propagation. The reexecution
+  // interval is reset before each call so that the match doesn't splice
+  // anything out of the DDG.
+  @Benchmark
+  def hit(): Any = {
+    c.initialRun = false
+    i = (i + 1) % entries
+    c.reexecutionStart = memoStarts(i)
+    c.reexecutionEnd = Timestamp.MAX_TIMESTAMP
+    memo(i) { -1 }
+  }
+}
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import akka.actor.{ActorRef, ActorSystem}
+import akka.pattern.ask
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import scala.concurrent.Await
+
+import tdb.{Context, Mod}
+import tdb.Constants._
+import tdb.datastore.DatastoreActor
+import tdb.messages.CreateModMessage
+
+// Compares reading a mod from a datastore in the same JVM directly with going
+// through the datastore's actor.
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class LocalReadBenchmark {
+  @Param(Array("true", "false"))
+  var local: Boolean = _
+
+  var system: ActorSystem = _
+
+  var c: Context = _
+
+  var mod: Mod[String] = _
+
+  @Setup(Level.Trial)
+  def setup() {
+    import BenchUtil.ec
+    system = ActorSystem("bench")
+
+    val datastoreId = 1
+    val datastoreRef = system.actorOf(
+      DatastoreActor.props(BenchUtil.workerInfo(), datastoreId))
+
+    c = new Context(2, datastoreId, null, null, null)
+    c.resolver.tasks(datastoreId) = datastoreRef
+    c.useLocalDatastores = local
+
+    mod = Await.result(
+      (datastoreRef ? CreateModMessage("value")).mapTo[Mod[String]],
+      DURATION)
+  }
+
+  @TearDown(Level.Trial)
+  def tearDown() {
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  @Benchmark
+  def read(): Any = c.readId(mod.id)
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+import tdb.list.Hasher
+import tdb.util.{HashRange, ObjHasher}
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class HasherBenchmark {
+  @Param(Array("16", "256"))
+  var partitions: Int = _
+
+  @Param(Array("1000"))
+  var batchSize: Int = _
+
+  var objHasher: ObjHasher[Int] = _
+
+  var hasher: Hasher = _
+
+  var batch: Seq[(String, Int)] = _
+
+  var i = 0
+
+  @Setup(Level.Trial)
+  def setup() {
+    objHasher = ObjHasher.makeHasher(
+      new HashRange(0, partitions, partitions), 0)
+    hasher = new Hasher(2, partitions)
+    batch = (0 until batchSize).map {
+      case j => ("word" + j, j)
+    }
+  }
+
+  @Benchmark
+  def hashAll(): Any = {
+    objHasher.hashAll(batch)
+  }
+
+  @Benchmark
+  def hash(): Int = {
+    i += 1
+    hasher.hash(i)
+  }
+}
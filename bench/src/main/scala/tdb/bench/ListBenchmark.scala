@@ -0,0 +1,66 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import scala.concurrent.Await
+import scala.concurrent.duration._
+
+import tdb.datastore.{Datastore, DoubleChunkListModifier}
+import tdb.list.ListConf
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+class DoubleChunkListModifierBenchmark {
+  @Param(Array("1", "100"))
+  var chunkSize: Int = _
+
+  @Param(Array("10000"))
+  var keys: Int = _
+
+  var modifier: DoubleChunkListModifier = _
+
+  var i = 0
+
+  @Setup(Level.Iteration)
+  def setup() {
+    import BenchUtil.ec
+    val datastore = new Datastore(BenchUtil.workerInfo(), null, 2, false)
+    val conf = ListConf(chunkSize = chunkSize, partitions = 1)
+    modifier = new DoubleChunkListModifier(datastore, 2, conf)
+
+    for (j <- 0 until keys) {
+      modifier.put(j, j)
+    }
+    i = 0
+  }
+
+  // Updates the value of an existing key, which rewrites its chunk.
+  @Benchmark
+  def update(): Any = {
+    i = (i + 7919) % keys
+    Await.result(modifier.put(i, -i), 10.seconds)
+  }
+
+  // Appends a new key to the end of the list.
+  @Benchmark
+  def append(): Any = {
+    i += 1
+    Await.result(modifier.put(keys + i, i), 10.seconds)
+  }
+}
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import org.openjdk.jmh.infra.Blackhole
+
+import tdb.ddg.{ModNode, Ordering, Timestamp}
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class OrderingBenchmark {
+  @Param(Array("1000", "100000"))
+  var size: Int = _
+
+  var ordering: Ordering = _
+
+  var timestamps: Array[Timestamp] = _
+
+  var i = 0
+
+  // ModNodes with no mods can be spliced out without touching a Context.
+  private def newNode() = new ModNode(-1, -1)
+
+  @Setup(Level.Iteration)
+  def setup() {
+    ordering = new Ordering()
+    timestamps = new Array[Timestamp](size)
+    for (j <- 0 until size) {
+      timestamps(j) = ordering.append(newNode())
+    }
+    i = 0
+  }
+
+  @Benchmark
+  def append(): Timestamp = {
+    ordering.append(newNode())
+  }
+
+  // Inserts after a random existing timestamp, which exercises sublist splits
+  // and relabeling.
+  @Benchmark
+  def after(): Timestamp = {
+    i = (i + 7919) % size
+    ordering.after(timestamps(i), newNode())
+  }
+
+  // Inserts a timestamp and immediately splices it out again, which is the
+  // pattern followed by a reexecuted read that creates a single node.
+  @Benchmark
+  def afterAndSplice() {
+    i = (i + 7919) % (size - 1)
+    val start = ordering.after(timestamps(i), newNode())
+    ordering.splice(start, timestamps(i + 1), null)
+  }
+
+  @Benchmark
+  def compare(bh: Blackhole) {
+    i = (i + 7919) % (size - 1)
+    val one = timestamps(i)
+    val two = timestamps(size - 1 - i)
+    bh.consume(one < two)
+    bh.consume(one >= two)
+  }
+}
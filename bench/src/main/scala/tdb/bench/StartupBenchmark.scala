@@ -0,0 +1,63 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+
+import tdb.Mutator
+import tdb.list.{ListConf, ListInput}
+import tdb.master.MasterConnector
+
+// Measures how long it takes for a new list to be ready for input as the
+// number of partitions grows, i.e. for the master to create a datastore for
+// every partition.
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+class StartupBenchmark {
+  @Param(Array("1", "16", "64", "256"))
+  var partitions: Int = _
+
+  var connector: MasterConnector = _
+
+  var mutator: Mutator = _
+
+  @Setup(Level.Trial)
+  def setup() {
+    connector = MasterConnector()
+  }
+
+  @TearDown(Level.Trial)
+  def tearDown() {
+    connector.shutdown()
+  }
+
+  @Setup(Level.Invocation)
+  def createMutator() {
+    mutator = new Mutator(connector)
+  }
+
+  // Ending the session frees the partitions created by the invocation.
+  @TearDown(Level.Invocation)
+  def shutdownMutator() {
+    mutator.shutdown()
+  }
+
+  @Benchmark
+  def createList(): ListInput[Int, Int] =
+    mutator.createList[Int, Int](ListConf(partitions = partitions))
+}
@@ -0,0 +1,112 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.bench
+
+import java.util.concurrent.TimeUnit
+import org.openjdk.jmh.annotations._
+import scala.collection.mutable
+import scala.concurrent.{Await, ExecutionContext, Future}
+import scala.concurrent.duration._
+
+import tdb.datastore.{CachedStore, Table}
+import tdb.util.HashRange
+import tdb.worker.WorkerInfo
+
+// An in-memory Table, so that the benchmark measures CachedStore's own
+// overhead (futures and LRU maintenance) rather than a database.
+class MapTable(val hashRange: HashRange) extends Table {
+  private val values = mutable.Map[Any, Any]()
+
+  def put(key: Any, value: Any) = synchronized { values(key) = value }
+
+  def get(key: Any): Any = synchronized { values(key) }
+
+  def delete(key: Any) = synchronized { values -= key }
+
+  def contains(key: Any): Boolean = synchronized { values.contains(key) }
+
+  def count(): Int = values.size
+
+  def processKeys(process: Iterable[Any] => Unit) = process(values.keys)
+
+  def foreach(process: (Any, Any) => Unit) =
+    values.foreach { case (key, value) => process(key, value) }
+
+  def close() {}
+}
+
+class MapStore(val workerInfo: WorkerInfo)
+    (implicit val ec: ExecutionContext) extends CachedStore {
+  private var nextTableId = 0
+
+  def createTable
+      (name: String,
+       keyType: String,
+       valueType: String,
+       range: HashRange,
+       dropIfExists: Boolean): Int = {
+    val id = nextTableId
+    nextTableId += 1
+    tables(id) = new MapTable(range)
+    id
+  }
+}
+
+@State(Scope.Thread)
+@BenchmarkMode(Array(Mode.AverageTime))
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+class CachedStoreBenchmark {
+  // The cache size, in MB. With 1MB the working set doesn't fit, so most puts
+  // cause an eviction.
+  @Param(Array("1", "1000"))
+  var cacheSize: Int = _
+
+  @Param(Array("100000"))
+  var keys: Int = _
+
+  var store: MapStore = _
+
+  var tableId: Int = _
+
+  var values: Array[String] = _
+
+  var i = 0
+
+  @Setup(Level.Iteration)
+  def setup() {
+    import BenchUtil.ec
+    store = new MapStore(BenchUtil.workerInfo(cacheSize = cacheSize))
+    tableId = store.createTable("bench", "ModId", "Any", null, false)
+    values = Array.tabulate(keys) { case j => "value" + j * 31 }
+
+    for (j <- 0 until keys) {
+      store.put(tableId, j.toLong, values(j))
+    }
+    i = 0
+  }
+
+  @Benchmark
+  def put(): Any = {
+    i = (i + 1) % keys
+    Await.result(store.put(tableId, i.toLong, values(i)), 10.seconds)
+  }
+
+  @Benchmark
+  def get(): Any = {
+    i = (i + 7919) % keys
+    Await.result(store.get(tableId, i.toLong), 10.seconds)
+  }
+}
@@ -18,15 +18,34 @@ package tdb
 import akka.actor.ActorRef
 import akka.event.LoggingAdapter
 import akka.pattern.ask
+import java.util.concurrent.atomic.{AtomicInteger, AtomicLong}
 import scala.collection.mutable.{Buffer, Map, Set}
 import scala.concurrent.{Await, ExecutionContext, Future}
 
 import tdb.Constants._
+import tdb.datastore.Datastore
 import tdb.ddg._
 import tdb.list._
 import tdb.messages._
+import tdb.stats.{Metrics, TraceEvent, Tracer}
 import tdb.worker.Task
 
+// The position in the trace that a Context is currently executing at. Each
+// region being reexecuted during parallel propagation has its own.
+class Cursor {
+  var reexecutionStart: Timestamp = _
+
+  var reexecutionEnd: Timestamp = _
+
+  var currentTime: Timestamp = _
+
+  var currentModId: ModId = _
+
+  var currentModId2: ModId = _
+
+  var pure: Timestamp = _
+}
+
 class Context
     (val taskId: TaskId,
      val mainDatastoreId: TaskId,
@@ -37,31 +56,71 @@ class Context
 
   val resolver = new Resolver(masterRef)
 
+  private val mainCursor = new Cursor()
+
+  // The cursors of the regions being reexecuted by parallel propagation, for
+  // the threads that are running them.
+  private val regionCursor = new ThreadLocal[Cursor]()
+
+  // The number of parallel reexecutions in progress, including nested ones.
+  private val parallelRegions = new AtomicInteger(0)
+
+  private def cursor: Cursor =
+    if (parallelRegions.get() == 0) {
+      mainCursor
+    } else {
+      val region = regionCursor.get()
+      if (region == null) mainCursor else region
+    }
+
   val ddg = new DDG(this)
 
   var initialRun = true
 
+  // If set, change propagation reexecutes readers with disjoint time
+  // intervals in parallel. This should only be set by computations whose
+  // readers don't have side effects other than through the TDB API.
+  var parallelPropagation = false
+
   // Contains a list of mods that have been updated since the last run of change
   // propagation, to determine when memo matches can be made.
   val updatedMods = Set[ModId]()
 
   // The timestamp of the read currently being reexecuting during change
   // propagation.
-  var reexecutionStart: Timestamp = _
+  def reexecutionStart = cursor.reexecutionStart
+
+  def reexecutionStart_=(t: Timestamp) { cursor.reexecutionStart = t }
 
   // The timestamp of the node immediately after the end of the read being
   // reexecuted.
-  var reexecutionEnd: Timestamp = _
+  def reexecutionEnd = cursor.reexecutionEnd
+
+  def reexecutionEnd_=(t: Timestamp) { cursor.reexecutionEnd = t }
 
-  var currentTime: Timestamp = ddg.ordering.base.next.base
+  def currentTime = cursor.currentTime
+
+  def currentTime_=(t: Timestamp) { cursor.currentTime = t }
+
+  currentTime = ddg.ordering.base.next.base
 
   // The mod created by the most recent (in scope) call to mod. This is
   // what a call to write will write to.
-  var currentModId: ModId = _
+  def currentModId = cursor.currentModId
+
+  def currentModId_=(modId: ModId) { cursor.currentModId = modId }
 
   // The second mod created by the most recent call to mod2, if there
   // is one.
-  var currentModId2: ModId = _
+  def currentModId2 = cursor.currentModId2
+
+  def currentModId2_=(modId: ModId) { cursor.currentModId2 = modId }
+
+  // The timestamp of the PureNode whose body is currently executing, if any.
+  // Reads, gets, and puts are recorded in it instead of in their own nodes.
+  def pure = cursor.pure
+
+  def pure_=(t: Timestamp) { cursor.pure = t }
 
   private var nextModId: Int = 0
 
@@ -73,30 +132,74 @@ class Context
 
   val bufs = Map[InputId, TraceableBuffer[Any, Any, Any]]()
 
-  var nextNodeId = 0
+  private var nextNodeId = 0
 
   private var nextTaskName = 0
 
-  def uniqueName() = {
+  // Events recorded by change propagation while Tracer.enabled is set. Access
+  // must be synchronized, since they're collected by the Task actor.
+  val traceEvents = Buffer[TraceEvent]()
+
+  // Running totals used to attribute work to the trace event for each
+  // reexecuted node. Remote wait is in microseconds. These are updated by
+  // every region during parallel propagation, so events for nodes that
+  // overlap with other regions include some of their work.
+  val remoteWait = new AtomicLong(0)
+
+  val memoMatches = new AtomicInteger(0)
+
+  val splicedNodes = new AtomicInteger(0)
+
+  // If true, mods in datastores in this JVM are accessed directly rather than
+  // by messaging the datastore's actor.
+  var useLocalDatastores = true
+
+  def uniqueName() = synchronized {
     nextTaskName += 1
     taskId + "-" + nextTaskName
   }
 
-  def newModId(): ModId = {
+  def newModId(): ModId = synchronized {
     val newModId = createModId(mainDatastoreId, taskId, nextModId)
     nextModId += 1
 
     newModId
   }
 
+  def newNodeId(): NodeId = synchronized {
+    val nodeId = nextNodeId
+    nextNodeId += 1
+
+    nodeId
+  }
+
   def read[T](mod: Mod[T], taskRef: ActorRef = null): T = {
     readId(mod.id, taskRef).asInstanceOf[T]
   }
 
   def readId(modId: ModId, taskRef: ActorRef = null): Any = {
+    val start = Metrics.start()
+    val traceStart = if (Tracer.enabled) Tracer.now() else 0
     val datastoreId = getDatastoreId(modId)
-    val future = resolver.resolve(datastoreId) ? GetModMessage(modId, taskRef)
+    val datastore = getLocalDatastore(datastoreId)
+    val localFuture =
+      if (datastore != null) {
+        datastore.getModLocal(modId, taskRef)
+      } else {
+        null
+      }
+    val future =
+      if (localFuture != null) {
+        localFuture
+      } else {
+        resolver.resolve(datastoreId) ? GetModMessage(modId, taskRef)
+      }
     val ret = Await.result(future, DURATION)
+    Metrics.modReads.record(start)
+
+    if (traceStart != 0) {
+      remoteWait.addAndGet(Tracer.now() - traceStart)
+    }
 
     ret match {
       case NullMessage => null
@@ -105,16 +208,43 @@ class Context
   }
 
   def update[T](modId: ModId, value: T) {
-    val message = PutMessage("mods", modId, value, taskRef)
     val datastoreId = getDatastoreId(modId)
-    val future = resolver.resolve(datastoreId) ? message
+    val datastore = getLocalDatastore(datastoreId)
+
+    val fingerprint =
+      if (datastore != null) Datastore.fingerprint(value) else 0
+
+    // If the value didn't change there's nothing to write and no reader in
+    // this task needs to be reexecuted. Remote datastores do the same check
+    // before notifying other tasks, but we don't wait for their answer here.
+    if (!initialRun && datastore != null &&
+        datastore.isUnchanged(modId, value, fingerprint)) {
+      Metrics.writeCutoffs.increment()
+      return
+    }
+
+    val localFuture =
+      if (datastore != null) {
+        datastore.updateModLocal(modId, value, taskRef, fingerprint)
+      } else {
+        null
+      }
+    val future =
+      if (localFuture != null) {
+        localFuture
+      } else {
+        val message = PutMessage("mods", modId, value, taskRef)
+        resolver.resolve(datastoreId) ? message
+      }
 
     if (!initialRun) {
-      pending += future
+      ddg.synchronized {
+        pending += future
 
-      if (ddg.reads.contains(modId)) {
-        updatedMods += modId
-        ddg.modUpdated(modId)
+        if (ddg.reads.contains(modId)) {
+          updatedMods += modId
+          ddg.modUpdated(modId)
+        }
       }
     }
   }
@@ -122,91 +252,390 @@ class Context
   def remove[T](modId: ModId) {
     ddg.modRemoved(modId)
     val datastoreId = getDatastoreId(modId)
-    val future = (resolver.resolve(datastoreId) ?
-      RemoveModsMessage(Buffer(modId), taskRef))
-    Await.result(future, DURATION)
+    val datastore = getLocalDatastore(datastoreId)
+    val localFuture =
+      if (datastore != null) {
+        datastore.removeModsLocal(Buffer(modId), taskRef)
+      } else {
+        null
+      }
+    val future =
+      if (localFuture != null) {
+        localFuture
+      } else {
+        (resolver.resolve(datastoreId) ?
+          RemoveModsMessage(Buffer(modId), taskRef))
+      }
+
+    // Removals happen during splices, which hold the DDG lock. While regions
+    // are being reexecuted in parallel the other region threads may be
+    // blocked on that lock, so we can't wait for the removal here - it's
+    // collected with the other pending writes instead.
+    if (parallelRegions.get() > 0) {
+      ddg.synchronized {
+        pending += future
+      }
+    } else {
+      Await.result(future, DURATION)
+    }
+  }
+
+  // Called when a ParNode created with clearOnSplice, or one inside a task
+  // that's being cleared, is spliced out. Nothing will propagate the task
+  // again, so its trace is spliced as well, to undo its puts.
+  def clearTask(taskId: TaskId) {
+    val future = resolver.send(taskId, ClearTaskMessage)
+
+    ddg.synchronized {
+      pending += future
+    }
   }
 
+  private def getLocalDatastore(datastoreId: TaskId): Datastore =
+    if (useLocalDatastores) {
+      Datastore.getLocal(datastoreId)
+    } else {
+      null
+    }
+
   def propagate(start: Timestamp = Timestamp.MIN_TIMESTAMP,
                 end: Timestamp = Timestamp.MAX_TIMESTAMP): Future[Boolean] = {
+    // Calls made by the memoizer while reexecuting a parallel region continue
+    // from that region's cursor.
+    val parentCursor = cursor
+
     Future {
-      var option = ddg.updated.find((timestamp: Timestamp) =>
-        timestamp > start && timestamp < end)
+      val oldCursor = regionCursor.get()
+      regionCursor.set(parentCursor)
+
+      val propagateStart = Metrics.start()
+      val tracing = Tracer.enabled
+      val traceStart = if (tracing) Tracer.now() else 0
+      val oldSpliced = splicedNodes.get()
+      val oldMemoMatches = memoMatches.get()
+      val oldRemoteWait = remoteWait.get()
+      var option = nextUpdated(start, end)
       while (!option.isEmpty) {
-        val timestamp = option.get
-        val node = timestamp.node
-        ddg.updated -= timestamp
-
-        node match {
-          case node: ReexecutableNode =>
-            if (node.updated) {
-              val oldStart = reexecutionStart
-              reexecutionStart = timestamp.getNext()
-              val oldEnd = reexecutionEnd
-              reexecutionEnd = timestamp.end
-              val oldCurrentModId = currentModId
-              currentModId = node.currentModId
-              val oldCurrentModId2 = currentModId2
-              currentModId2 = node.currentModId2
-
-              val oldCurrentTime = currentTime
-              currentTime = timestamp
-
-              node.updated = false
-
-              node match {
-                case getNode: GetNode =>
-                  val newValue = getNode.input.get(getNode.key, taskRef)
-                  getNode.getter(newValue)
-                case readNode: ReadNode =>
-                  val newValue = readId(readNode.modId)
-                  readNode.reader(newValue)
-                case readNode: Read2Node =>
-                  val newValue1 = readId(readNode.modId1)
-                  val newValue2 = readId(readNode.modId2)
-                  readNode.reader(newValue1, newValue2)
-                case readNode: Read3Node =>
-                  val newValue1 = readId(readNode.modId1)
-                  val newValue2 = readId(readNode.modId2)
-                  val newValue3 = readId(readNode.modId3)
-                  readNode.reader(newValue1, newValue2, newValue3)
-                case getNode: GetFromNode =>
-                  val newValue = getNode.traceable.get(getNode.parameters, -1, taskRef)
-                  getNode.getter(newValue)
+        val regions =
+          if (parallelPropagation && start == Timestamp.MIN_TIMESTAMP) {
+            claimIndependentRegions(end)
+          } else {
+            Buffer[Timestamp]()
+          }
+
+        if (regions.size > 1) {
+          reexecuteInParallel(regions, tracing)
+        } else {
+          val timestamp = option.get
+          ddg.synchronized {
+            ddg.updated -= timestamp
+          }
+
+          timestamp.node match {
+            case node: ReexecutableNode =>
+              reexecute(timestamp, node, tracing)
+            case parNode: ParNode =>
+              if (parNode.updated) {
+                val parStart = if (tracing) Tracer.now() else 0
+                Await.result(Future.sequence(pending), DURATION)
+                pending.clear()
+
+                // Only the sides that were pebbled have anything to
+                // propagate. If both were, they're propagated concurrently.
+                val (pebble1, pebble2) = ddg.synchronized {
+                  val pebbles = (parNode.pebble1, parNode.pebble2)
+                  parNode.pebble1 = false
+                  parNode.pebble2 = false
+                  parNode.updated = false
+                  pebbles
+                }
+
+                val futures = Buffer[Future[Any]]()
+                if (pebble1) {
+                  futures += resolver.send(parNode.taskId1, PropagateTaskMessage)
+                }
+                if (pebble2) {
+                  futures += resolver.send(parNode.taskId2, PropagateTaskMessage)
+                }
+
+                Await.result(Future.sequence(futures), DURATION)
+
+                if (tracing) {
+                  val wait = Tracer.now() - parStart
+                  remoteWait.addAndGet(wait)
+                  trace("par", "ParNode", parStart, wait, 0, 0)
+                }
               }
+            case node: Node => ???
+          }
+        }
+
+        option = nextUpdated(start, end)
+      }
 
-              if (reexecutionStart < reexecutionEnd) {
-                ddg.ordering.splice(reexecutionStart, reexecutionEnd, this)
+      Metrics.propagations.record(propagateStart)
+
+      // Nested calls made by the memoizer are already covered by the event
+      // for the node that they're under.
+      if (tracing && start == Timestamp.MIN_TIMESTAMP) {
+        trace("propagate",
+              "propagate",
+              traceStart,
+              remoteWait.get() - oldRemoteWait,
+              memoMatches.get() - oldMemoMatches,
+              splicedNodes.get() - oldSpliced)
+      }
+
+      if (oldCursor == null) {
+        regionCursor.remove()
+      } else {
+        regionCursor.set(oldCursor)
+      }
+
+      true
+    }
+  }
+
+  // Brings the part of the trace that the owners' mods depend on up to date,
+  // where path holds the owners' ancestors. Reads only depend on earlier
+  // writes, and the two sides of a par don't read each other's mods, so
+  // that's everything before the last ParNode leading to them, and at that
+  // ParNode only the sides leading to them. Anything else that's pebbled is
+  // left for a later propagation.
+  def propagateToward
+      (owners: Iterable[TaskId],
+       path: Iterable[TaskId]): Future[Boolean] = {
+    val toward = owners.toSet ++ path
+
+    def lastPar() = ddg.synchronized {
+      val timestamps = toward.toBuffer.flatMap(ddg.pars.get)
+        .filter(!_.node.asInstanceOf[ParNode].spliced)
+      timestamps.reduceOption((a, b) => if (a > b) a else b)
+    }
+
+    lastPar() match {
+      case None =>
+        // The owners aren't below this task any more.
+        propagate()
+      case Some(cut) =>
+        propagate(end = cut).map { case _ =>
+          Await.result(Future.sequence(pending), DURATION)
+          pending.clear()
+
+          if (!lastPar().exists(_ eq cut)) {
+            // Reexecuting the ParNode's ancestors replaced it.
+            Await.result(propagate(), DURATION)
+          } else {
+            val parNode = cut.node.asInstanceOf[ParNode]
+            val sides = ddg.synchronized {
+              val sides = Buffer[TaskId]()
+              if (parNode.pebble1 && toward.contains(parNode.taskId1)) {
+                parNode.pebble1 = false
+                sides += parNode.taskId1
+              }
+              if (parNode.pebble2 && toward.contains(parNode.taskId2)) {
+                parNode.pebble2 = false
+                sides += parNode.taskId2
               }
 
-              reexecutionStart = oldStart
-              reexecutionEnd = oldEnd
-              currentModId = oldCurrentModId
-              currentModId2 = oldCurrentModId2
-              currentTime = oldCurrentTime
+              if (!parNode.pebble1 && !parNode.pebble2) {
+                parNode.updated = false
+                ddg.updated -= cut
+              }
+              sides
             }
-          case parNode: ParNode =>
-            if (parNode.updated) {
-              Await.result(Future.sequence(pending), DURATION)
-              pending.clear()
 
-              val future1 = resolver.send(parNode.taskId1, PropagateTaskMessage)
-              val future2 = resolver.send(parNode.taskId2, PropagateTaskMessage)
+            val message = PropagateTowardMessage(owners, path)
+            val futures = sides.map(resolver.send(_, message))
+            Await.result(Future.sequence(futures), DURATION)
+          }
 
-              parNode.pebble1 = false
-              parNode.pebble2 = false
+          true
+        }
+    }
+  }
 
-              Await.result(future1, DURATION)
-              Await.result(future2, DURATION)
+  private def nextUpdated(start: Timestamp, end: Timestamp) =
+    ddg.synchronized {
+      ddg.updated.find((timestamp: Timestamp) =>
+        timestamp > start && timestamp < end)
+    }
+
+  // Returns the updated nodes before end, in timestamp order, that aren't
+  // nested inside an earlier one, up to the first node that can't be
+  // reexecuted in place (i.e. a ParNode), which is left to run by itself so
+  // that the order of propagation relative to it is preserved. If there's
+  // more than one, they're removed from the updated set. Timestamps are only
+  // compared while holding the DDG lock, since regions that are running
+  // renumber the sublists.
+  private def claimIndependentRegions
+      (end: Timestamp): Buffer[Timestamp] = ddg.synchronized {
+    val regions = Buffer[Timestamp]()
+    var lastEnd: Timestamp = null
+
+    val iterator = ddg.updated.iterator
+    var done = false
+    while (!done && iterator.hasNext) {
+      val timestamp = iterator.next()
+      timestamp.node match {
+        case node: ReexecutableNode if timestamp < end =>
+          if (node.updated && (lastEnd == null || timestamp >= lastEnd)) {
+            regions += timestamp
+            lastEnd = timestamp.end
+          }
+        case _ =>
+          done = true
+      }
+    }
+
+    if (regions.size > 1) {
+      ddg.updated --= regions
+    }
+
+    regions
+  }
+
+  // Reexecutes nodes whose intervals are disjoint concurrently, each with its
+  // own cursor. Modifications to the DDG are serialized by its lock.
+  private def reexecuteInParallel(regions: Buffer[Timestamp], tracing: Boolean) {
+    parallelRegions.incrementAndGet()
+    try {
+      val futures = regions.map {
+        case timestamp => Future {
+          regionCursor.set(new Cursor())
+          try {
+            val node = timestamp.node.asInstanceOf[ReexecutableNode]
+            reexecute(timestamp, node, tracing)
+          } finally {
+            regionCursor.remove()
+          }
+        }
+      }
+
+      Await.result(Future.sequence(futures), DURATION)
+    } finally {
+      parallelRegions.decrementAndGet()
+    }
+  }
+
+  private def reexecute
+      (timestamp: Timestamp,
+       node: ReexecutableNode,
+       tracing: Boolean) {
+    if (node.updated) {
+      val oldStart = reexecutionStart
+      reexecutionStart = timestamp.getNext()
+      val oldEnd = reexecutionEnd
+      reexecutionEnd = timestamp.end
+      val oldCurrentModId = currentModId
+      currentModId = node.currentModId
+      val oldCurrentModId2 = currentModId2
+      currentModId2 = node.currentModId2
+
+      val oldCurrentTime = currentTime
+      currentTime = timestamp
+
+      node.updated = false
+
+      val reexecutionTime = Metrics.start()
+      val nodeStart = if (tracing) Tracer.now() else 0
+      val nodeSpliced = splicedNodes.get()
+      val nodeMemoMatches = memoMatches.get()
+      val nodeRemoteWait = remoteWait.get()
+      node match {
+        case getNode: GetNode =>
+          val newValue = getNode.input.get(getNode.key, taskRef)
+          if (tracing) {
+            remoteWait.addAndGet(Tracer.now() - nodeStart)
+          }
+          getNode.getter(newValue)
+        case readNode: ReadNode =>
+          val newValue = readId(readNode.modId)
+          readNode.reader(newValue)
+        case readNode: Read2Node =>
+          val newValue1 = readId(readNode.modId1)
+          val newValue2 = readId(readNode.modId2)
+          readNode.reader(newValue1, newValue2)
+        case readNode: Read3Node =>
+          val newValue1 = readId(readNode.modId1)
+          val newValue2 = readId(readNode.modId2)
+          val newValue3 = readId(readNode.modId3)
+          readNode.reader(newValue1, newValue2, newValue3)
+        case getNode: GetFromNode =>
+          val newValue = getNode.traceable.get(getNode.parameters, -1, taskRef)
+          if (tracing) {
+            remoteWait.addAndGet(Tracer.now() - nodeStart)
+          }
+          getNode.getter(newValue)
+        case pureNode: PureNode =>
+          // The body records its inputs and outputs again as it runs, so the
+          // old ones are dropped here. As with splicing, the old puts are
+          // only removed after the new ones have been made.
+          val oldPuts = pureNode.puts
+          pureNode.puts = Buffer()
+          ddg.removePureInputs(timestamp)
+
+          val oldPure = pure
+          pure = timestamp
+          pureNode.body()
+          pure = oldPure
+
+          ddg.synchronized {
+            for ((input, values) <- oldPuts) {
+              buffers(input).removeAll(values)
             }
-          case node: Node => ???
+          }
+      }
+
+      ddg.synchronized {
+        if (reexecutionStart < reexecutionEnd) {
+          ddg.ordering.splice(reexecutionStart, reexecutionEnd, this)
         }
+      }
 
-        option = ddg.updated.find((timestamp: Timestamp) =>
-          timestamp > start && timestamp < end)
+      if (Metrics.enabled) {
+        Metrics.reexecutions(node.getClass).record(reexecutionTime)
       }
 
-      true
+      if (tracing) {
+        val closure = node match {
+          case getNode: GetNode => getNode.getter
+          case getNode: GetFromNode => getNode.getter
+          case readNode: ReadNode => readNode.reader
+          case readNode: Read2Node => readNode.reader
+          case readNode: Read3Node => readNode.reader
+          case pureNode: PureNode => pureNode.body
+        }
+
+        trace(Tracer.closureName(closure),
+              node.getClass.getSimpleName,
+              nodeStart,
+              remoteWait.get() - nodeRemoteWait,
+              memoMatches.get() - nodeMemoMatches,
+              splicedNodes.get() - nodeSpliced)
+      }
+
+      reexecutionStart = oldStart
+      reexecutionEnd = oldEnd
+      currentModId = oldCurrentModId
+      currentModId2 = oldCurrentModId2
+      currentTime = oldCurrentTime
+    }
+  }
+
+  private def trace
+      (name: String,
+       category: String,
+       start: Long,
+       remoteWait: Long,
+       memoMatches: Int,
+       spliced: Int) {
+    val event = TraceEvent(
+      name, category, taskId, mainDatastoreId, start, Tracer.now() - start,
+      remoteWait, memoMatches, spliced)
+
+    traceEvents.synchronized {
+      traceEvents += event
     }
   }
 }
@@ -21,6 +21,7 @@ import scala.concurrent.{Await, Future}
 import tdb.Constants._
 import tdb.ddg.{MemoNode, Timestamp}
 import tdb.master.Master
+import tdb.stats.Metrics
 
 class Memoizer[T](implicit c: Context) {
   private val memoTable = Map[Seq[Any], ArrayBuffer[Timestamp]]()
@@ -28,38 +29,48 @@ class Memoizer[T](implicit c: Context) {
   import c.ec
 
   def apply(signature: Any*)(func: => T): T = {
-    var found = false
+    assert(c.pure == null, "memo can't be called inside of TDB.pure")
+    var found: Timestamp = null
     var ret = null.asInstanceOf[T]
-    if (!c.initialRun && !updated(signature) && memoTable.contains(signature)) {
-      // Search through the memo entries matching this signature to see if
-      // there's one in the right time range.
-      for (timestamp <- memoTable(signature)) {
-        val memoNode = timestamp.node.asInstanceOf[MemoNode]
 
-        if (!found && timestamp >= c.reexecutionStart &&
-            timestamp < c.reexecutionEnd) {
-
-          found = true
-
-          if (c.reexecutionStart < timestamp) {
-            c.ddg.ordering.splice(c.reexecutionStart, timestamp, c)
+    // The DDG lock is held while searching and splicing, but not while
+    // propagating, since that happens on another thread.
+    c.ddg.synchronized {
+      if (!c.initialRun && !updated(signature) &&
+          memoTable.contains(signature)) {
+        // Search through the memo entries matching this signature to see if
+        // there's one in the right time range.
+        for (timestamp <- memoTable(signature)) {
+          if (found == null && timestamp >= c.reexecutionStart &&
+              timestamp < c.reexecutionEnd) {
+            found = timestamp
+            c.memoMatches.incrementAndGet()
+
+            if (c.reexecutionStart < timestamp) {
+              c.ddg.ordering.splice(c.reexecutionStart, timestamp, c)
+            }
+
+            // This ensures that we won't match anything under the currently
+            // reexecuting read that comes before this memo node, since then
+            // the timestamps would be out of order.
+            c.reexecutionStart = timestamp.end.getNext()
+            c.currentTime = timestamp.end
           }
-
-          // This ensures that we won't match anything under the currently
-          // reexecuting read that comes before this memo node, since then
-          // the timestamps would be out of order.
-          c.reexecutionStart = timestamp.end.getNext()
-          c.currentTime = timestamp.end
-
-          ret = memoNode.value.asInstanceOf[T]
-
-          val future = c.propagate(timestamp, timestamp.end)
-          Await.result(future, DURATION)
         }
       }
     }
 
-    if (!found) {
+    if (found != null) {
+      Metrics.memoHits.increment()
+
+      val memoNode = found.node.asInstanceOf[MemoNode]
+      ret = memoNode.value.asInstanceOf[T]
+
+      val future = c.propagate(found, found.end)
+      Await.result(future, DURATION)
+    } else {
+      Metrics.memoMisses.increment()
+
       val timestamp = c.ddg.addMemo(signature, this, c)
       val memoNode = timestamp.node.asInstanceOf[MemoNode]
 
@@ -70,10 +81,12 @@ class Memoizer[T](implicit c: Context) {
       timestamp.end = c.ddg.nextTimestamp(memoNode, c)
       memoNode.value = value
 
-      if (memoTable.contains(signature)) {
-        memoTable(signature) += timestamp
-      } else {
-        memoTable += (signature -> ArrayBuffer(timestamp))
+      c.ddg.synchronized {
+        if (memoTable.contains(signature)) {
+          memoTable(signature) += timestamp
+        } else {
+          memoTable += (signature -> ArrayBuffer(timestamp))
+        }
       }
 
       ret = value
@@ -26,7 +26,10 @@ import tdb.Constants._
 import tdb.ddg.DDG
 import tdb.master.MasterConnector
 import tdb.messages._
+import tdb.list.{AdjustableList, AggregatorInput, AggregatorListConf}
 import tdb.list.{ListConf, ListInput}
+import tdb.list.WindowedInput
+import tdb.stats.{TraceEvent, Tracer}
 import tdb.util.OS
 
 class Mutator(_connector: MasterConnector = null) {
@@ -57,8 +60,40 @@ class Mutator(_connector: MasterConnector = null) {
     futures += (masterRef ? message)
   }
 
+  // The epoch that reads are pinned to, or -2 if they aren't pinned.
+  @volatile private var pinnedEpoch = -2
+
+  // Pins reads from this mutator, including those made by toBuffer, to the
+  // state of the computation at the end of the last completed run or
+  // propagation, so that they remain consistent while further propagations
+  // are running. Returns the pinned epoch.
+  def pin(): Int = {
+    unpin()
+    val future = masterRef ? PinEpochMessage
+    pinnedEpoch = Await.result(future.mapTo[Int], DURATION)
+    pinnedEpoch
+  }
+
+  // Allows the old values kept for the pinned epoch to be garbage collected.
+  def unpin() {
+    if (pinnedEpoch != -2) {
+      Await.result(masterRef ? UnpinEpochMessage(pinnedEpoch), DURATION)
+      pinnedEpoch = -2
+    }
+  }
+
+  private[tdb] def pinned: Int = pinnedEpoch
+
   def read[T](mod: Mod[T]): T = {
-    val future = masterRef ? GetModMessage(mod.id, null)
+    demand(mod.id)
+
+    val message =
+      if (pinnedEpoch == -2) {
+        GetModMessage(mod.id, null)
+      } else {
+        GetModVersionMessage(mod.id, pinnedEpoch)
+      }
+    val future = masterRef ? message
     val ret = Await.result(future, DURATION)
 
     (ret match {
@@ -67,14 +102,49 @@ class Mutator(_connector: MasterConnector = null) {
     }).asInstanceOf[T]
   }
 
+  // Returns an iterator over the contents of list that has the datastores
+  // walk each partition and send back batches of about batchSize elements,
+  // instead of reading one mod at a time like toBuffer.
+  def export[T, U]
+      (list: AdjustableList[T, U], batchSize: Int = 1000): Iterator[(T, U)] =
+    list.export(this, batchSize)
+
+  // Writes the contents of list to fileName, one tab separated key and value
+  // per line, and returns the number of elements written.
+  def exportToFile[T, U]
+      (list: AdjustableList[T, U],
+       fileName: String,
+       batchSize: Int = 1000): Int = {
+    val output = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(fileName), "utf-8"))
+
+    var count = 0
+    for ((key, value) <- export(list, batchSize)) {
+      output.write(key + "\t" + value + "\n")
+      count += 1
+    }
+    output.close()
+
+    count
+  }
+
   def createList[T, U](conf: ListConf = ListConf()): ListInput[T, U] = {
-    val future = masterRef ? CreateListMessage(conf, -1)
+    val future = masterRef ? CreateListMessage(conf, -1, id)
     Await.result(future.mapTo[ListInput[T, U]], DURATION)
   }
 
+  // Creates an aggregated list holding a sliding window over timestamped
+  // values. See WindowedInput.
+  def createWindowedList[T, U]
+      (conf: AggregatorListConf, size: Long, slide: Long): WindowedInput[T, U] = {
+    val input = createList[T, U](conf).asInstanceOf[AggregatorInput[T, U]]
+    new WindowedInput(input, size, slide)
+  }
+
   def run[T](adjust: Adjustable[T]): T = {
     Await.result(Future.sequence(futures), DURATION)
     futures.clear()
+    demand()
 
     val future = masterRef ? RunMutatorMessage(adjust, id)
     Await.result(future, DURATION).asInstanceOf[T]
@@ -83,22 +153,61 @@ class Mutator(_connector: MasterConnector = null) {
   def propagate() {
     Await.result(Future.sequence(futures), DURATION)
     futures.clear()
+    demand()
 
     val future = masterRef ? PropagateMutatorMessage(id)
     Await.result(future, DURATION)
   }
 
+  // True if propagateLazily has been called since the last time this mutator
+  // found the computation to be up to date.
+  @volatile private var lazyPending = false
+
+  // Applies the updates made since the last run or propagation without
+  // reexecuting anything, so that the DDG is only pebbled. Reading a mod
+  // created with TDB.mod reexecutes only the part of the computation that it
+  // depends on, while other reads, e.g. of lists, reexecute all of it. The
+  // rest is reexecuted in the background after catchUpMillis. Several lazy
+  // propagations before a read are reexecuted together.
+  def propagateLazily(catchUpMillis: Long = 1000) {
+    Await.result(Future.sequence(futures), DURATION)
+    futures.clear()
+
+    val message = PropagateLazilyMessage(id, catchUpMillis)
+    Await.result(masterRef ? message, DURATION)
+    lazyPending = true
+  }
+
+  // Waits until modId is up to date, or, if it's -1, until any lazy
+  // propagation has finished, starting the propagation if necessary.
+  private[tdb] def demand(modId: ModId = -1) {
+    if (lazyPending) {
+      val future = masterRef ? DemandPropagationMessage(id, modId)
+      lazyPending = !Await.result(future.mapTo[Boolean], DURATION)
+    }
+  }
+
+  // Waits for the updates applied by propagateLazily to be caught up in the
+  // background, without starting the propagation early.
+  def awaitCatchUp() {
+    Await.result(masterRef ? AwaitCatchUpMessage(id), DURATION)
+    lazyPending = false
+  }
+
   def awaitReady() {
     Await.result(Future.sequence(futures), DURATION)
     futures.clear()
   }
 
   def getDDG(): DDG  = {
+    demand()
     val ddgFuture = masterRef ? GetMutatorDDGMessage(id)
     Await.result(ddgFuture, DURATION).asInstanceOf[DDG]
   }
 
   def printDDGDots(fileName: String) {
+    demand()
+
     val output = new BufferedWriter(new OutputStreamWriter(
       new FileOutputStream(fileName), "utf-8"))
     output.write("digraph {\n")
@@ -109,7 +218,43 @@ class Mutator(_connector: MasterConnector = null) {
     output.close()
   }
 
+  // Moves list partitions onto the workers that the master's consistent hash
+  // ring currently assigns them to, e.g. after new workers have registered.
+  // Returns the number of partitions moved. This should not be called while a
+  // run or change propagation is in progress.
+  def rebalance(): Int = {
+    Await.result((masterRef ? RebalanceMessage).mapTo[Int], DURATION)
+  }
+
+  // Turns recording of change propagation trace events on or off on every
+  // worker.
+  def setTracing(enabled: Boolean) {
+    Await.result(masterRef ? SetTracingMessage(enabled), DURATION)
+  }
+
+  // Returns, and clears, the events recorded by all tasks since the last call,
+  // ordered by start time.
+  def getTrace(): Buffer[TraceEvent] = {
+    val future = masterRef ? GetTraceMessage()
+    Await.result(future.mapTo[Buffer[TraceEvent]], DURATION)
+  }
+
+  // Writes the trace in the Chrome trace event format, which can be viewed in
+  // chrome://tracing, and returns a summary of the most expensive readers.
+  def writeTrace(fileName: String): String = {
+    val events = getTrace()
+
+    val output = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(fileName), "utf-8"))
+    Tracer.writeChromeTrace(events, output)
+    output.close()
+
+    Tracer.summary(events)
+  }
+
   def shutdown() {
+    demand()
+    unpin()
     Await.result(masterRef ? ShutdownMutatorMessage(id), DURATION)
 
     if (_connector == null) {
@@ -26,6 +26,7 @@ import scala.util.{Failure, Success}
 
 import tdb.Constants._
 import tdb.messages._
+import tdb.stats.Metrics
 
 class Resolver(masterRef: ActorRef) extends Serializable {
   val tasks = mutable.Map[TaskId, ActorRef]()
@@ -47,10 +48,12 @@ class Resolver(masterRef: ActorRef) extends Serializable {
       (onComplete: => Unit)
       (implicit ec: ExecutionContext) {
     val taskRef = resolve(taskId)
+    val start = Metrics.start()
     val f = ask(taskRef, message)(Timeout(TIME * round, MILLISECONDS))
 
     f.onComplete {
       case Success(f) =>
+        Metrics.remoteAsks.record(start)
         onComplete
       case Failure(e) =>
         println("Sending failed to " + taskRef)
@@ -74,10 +77,12 @@ class Resolver(masterRef: ActorRef) extends Serializable {
       (taskId: TaskId, message: Any, round: Int, promise: Promise[Any])
       (implicit ec: ExecutionContext) {
     val taskRef = resolve(taskId)
+    val start = Metrics.start()
     val f = ask(taskRef, message)(Timeout(TIME * round, MILLISECONDS))
 
     f.onComplete {
       case Success(v) =>
+        Metrics.remoteAsks.record(start)
         promise.success(v)
       case Failure(e) =>
         if (round < MAX_RETRIES) {
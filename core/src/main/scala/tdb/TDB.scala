@@ -42,42 +42,207 @@ object TDB {
 
   def put[T, U](input: ListInput[T, U], key: T, value: U)
       (implicit c: Context) {
+    if (c.pure != null) {
+      putPure(input, Iterable((key, value)), c)
+      return
+    }
+
     val anyInput = input.asInstanceOf[ListInput[Any, Any]]
     val timestamp = c.ddg.addPut(anyInput, key, value, c)
 
-    if (!c.buffers.contains(anyInput)) {
-      c.buffers(anyInput) = anyInput.getBuffer()
+    c.ddg.synchronized {
+      if (!c.buffers.contains(anyInput)) {
+        c.buffers(anyInput) = anyInput.getBuffer()
+      }
+      c.buffers(anyInput).putAll(Iterable((key, value)))
     }
-    c.buffers(anyInput).putAll(Iterable((key, value)))
 
     timestamp.end = c.ddg.nextTimestamp(timestamp.node, c)
   }
 
   def putAll[T, U](input: ListInput[T, U], values: Iterable[(T, U)])
       (implicit c: Context) {
+    if (c.pure != null) {
+      putPure(input, values, c)
+      return
+    }
+
     val anyInput = input.asInstanceOf[ListInput[Any, Any]]
     val timestamp = c.ddg.addPutAll(anyInput, values, c)
 
-    if (!c.buffers.contains(anyInput)) {
-      c.buffers(anyInput) = anyInput.getBuffer()
+    c.ddg.synchronized {
+      if (!c.buffers.contains(anyInput)) {
+        c.buffers(anyInput) = anyInput.getBuffer()
+      }
+      c.buffers(anyInput).putAll(values)
     }
-    c.buffers(anyInput).putAll(values)
 
     timestamp.end = c.ddg.nextTimestamp(timestamp.node, c)
   }
 
+  // Puts values on behalf of the PureNode that is currently executing, which
+  // keeps them so that they can be removed when it's reexecuted or spliced.
+  private def putPure[T, U]
+      (input: ListInput[T, U], values: Iterable[(T, U)], c: Context) {
+    val anyInput = input.asInstanceOf[ListInput[Any, Any]]
+    val anyValues = values.asInstanceOf[Iterable[(Any, Any)]]
+
+    c.ddg.synchronized {
+      c.pure.node.asInstanceOf[PureNode].puts += ((anyInput, anyValues))
+
+      if (!c.buffers.contains(anyInput)) {
+        c.buffers(anyInput) = anyInput.getBuffer()
+      }
+      c.buffers(anyInput).putAll(anyValues)
+    }
+  }
+
+  // Runs body as a single unit of the trace. Only the mods and keys that it
+  // reads and the values that it puts are recorded, in one PureNode, and the
+  // whole body is reexecuted if any of those inputs change. This gives up
+  // reuse inside of body in exchange for a smaller DDG and a faster initial
+  // run, so it's meant for short blocks with many reads or puts that are
+  // cheap to redo together, e.g. the per-key work of a map.
+  //
+  // body may read, get, write, and put, but may not create mods, pars, or
+  // memo entries. As with a reader, its return value is only used the first
+  // time it runs. Nested calls to pure are part of the outermost one.
+  def pure[T](body: => T)(implicit c: Context): T = {
+    if (c.pure != null) {
+      body
+    } else {
+      val timestamp = c.ddg.addPure(() => body, c)
+
+      c.pure = timestamp
+      val ret = body
+      c.pure = null
+
+      timestamp.end = c.ddg.nextTimestamp(timestamp.node, c)
+
+      ret
+    }
+  }
+
+  // Adds value to each of targets in a Double aggregated list, e.g. to send a
+  // vertex's contribution along its out edges, without creating a tuple per
+  // edge.
+  def putEdges(input: ListInput[Int, Double], targets: Array[Int], value: Double)
+      (implicit c: Context) {
+    putAll(input, new EdgeContributions(targets, value))
+  }
+
+  // Computes a fixpoint over input by propagating deltas. init is called for
+  // each pair in input to put the key's starting value, if any, to the result
+  // and the first round's deltas, which are summed per key. Each following
+  // round adds every key's delta from the previous round to the result and,
+  // if the delta's magnitude is greater than tolerance, passes it to step to
+  // put the key's contributions to the next round. Contributions whose
+  // magnitude is at most epsilon are dropped, as with
+  // AggregatedDoubleColumn(epsilon). Iteration stops after a round with no
+  // deltas above tolerance, or after maxRounds steps, so the number of rounds
+  // can change during propagation. If pure is set, each key's work in a round
+  // is traced as one PureNode.
+  def iterate[T, U]
+      (input: AdjustableList[T, U],
+       tolerance: Double,
+       maxRounds: Int,
+       pure: Boolean = false,
+       epsilon: Double = 0)
+      (init: ((T, U), ListInput[T, Double], ListInput[T, Double], Context)
+         => Unit)
+      (step: ((T, U), Double, ListInput[T, Double], Context) => Unit)
+      (implicit c: Context): ListInput[T, Double] = {
+    val result = createList[T, Double](
+      AggregatorListConf(valueType = AggregatedDoubleColumn()))
+    val conf = AggregatorListConf(valueType = AggregatedDoubleColumn(epsilon))
+    // The number of keys that took a step in each round.
+    val active = createList[Int, Int](
+      AggregatorListConf(valueType = AggregatedIntColumn()))
+
+    def each(f: ((T, U), Context) => Unit)(implicit c: Context) {
+      input.foreach {
+        case (pair, c) if pure => TDB.pure { f(pair, c) }(c)
+        case (pair, c) => f(pair, c)
+      }
+    }
+
+    def accumulate(deltas: ListInput[T, Double])(implicit c: Context) {
+      each {
+        case (pair, c) =>
+          get(deltas, pair._1) {
+            case delta =>
+              if (delta != 0) {
+                put(result, pair._1, delta)(c)
+              }
+          }(c)
+      }
+    }
+
+    def round(i: Int, deltas: ListInput[T, Double])(implicit c: Context) {
+      if (i > maxRounds) {
+        accumulate(deltas)
+      } else {
+        val next = createList[T, Double](conf)
+
+        each {
+          case (pair, c) =>
+            get(deltas, pair._1) {
+              case delta =>
+                if (delta.abs > tolerance) {
+                  put(active, i, 1)(c)
+                  step(pair, delta, next, c)
+                }
+            }(c)
+        }
+
+        // The next round runs in its own task, since the task reading active
+        // must be free to receive updates while this one is propagating. The
+        // read only reexecutes when the round's deltas appear or disappear.
+        // The round's deltas are added to the result alongside it. If the
+        // round is removed, both tasks are cleared to undo their puts.
+        schedulePar(
+          c => accumulate(deltas)(c), -1, "",
+          c => {
+            val hasDeltas = mod {
+              get(active, i) {
+                case count => write(count > 0)(c)
+              }(c)
+
+              new Changeable[Boolean](c.currentModId)
+            }(c)
+
+            readAny(hasDeltas) {
+              case true => round(i + 1, next)(c)
+              case false =>
+            }(c)
+          }, -1, "",
+          clearOnSplice = true)
+      }
+    }
+
+    val first = createList[T, Double](conf)
+    input.foreach {
+      case (pair, c) => init(pair, result, first, c)
+    }
+    round(1, first)
+
+    result
+  }
 
   def putIn[T]
       (traceable: Traceable[T, _, _], parameters: T)
       (implicit c: Context) {
+    assert(c.pure == null, "putIn can't be called inside of TDB.pure")
     val anyTraceable = traceable.asInstanceOf[Traceable[Any, Any, Any]]
     val timestamp = c.ddg.addPutIn(
       anyTraceable, parameters.asInstanceOf[Any], c)
 
-    if (!c.bufs.contains(traceable.inputId)) {
-      c.bufs(traceable.inputId) = anyTraceable.getTraceableBuffer()
+    c.ddg.synchronized {
+      if (!c.bufs.contains(traceable.inputId)) {
+        c.bufs(traceable.inputId) = anyTraceable.getTraceableBuffer()
+      }
+      c.bufs(traceable.inputId).putIn(parameters)
     }
-    c.bufs(traceable.inputId).putIn(parameters)
 
     timestamp.end = c.ddg.nextTimestamp(timestamp.node, c)
   }
@@ -85,6 +250,13 @@ object TDB {
   def get[T, U](input: ListInput[T, U], key: T)
       (getter: U => Unit)
       (implicit c: Context): Unit = {
+    if (c.pure != null) {
+      c.ddg.addPureGet(
+        c.pure, input.asInstanceOf[ListInput[Any, Any]], key)
+      getter(input.get(key, c.taskRef))
+      return
+    }
+
     val timestamp =
       c.ddg.addGet(
         input.asInstanceOf[ListInput[Any, Any]],
@@ -103,17 +275,20 @@ object TDB {
       (traceable: Traceable[_, T, U], parameters: T)
       (getter: U => Unit)
       (implicit c: Context) {
+    assert(c.pure == null, "getFrom can't be called inside of TDB.pure")
     val getNode = new GetFromNode(
       traceable.asInstanceOf[Traceable[Any, Any, Any]],
       parameters.asInstanceOf[Any],
       getter.asInstanceOf[Any => Unit])
     val timestamp = c.ddg.nextTimestamp(getNode, c)
-    c.ddg.nodes(c.nextNodeId) = timestamp
+    val nodeId = c.newNodeId()
+    c.ddg.synchronized {
+      c.ddg.nodes(nodeId) = timestamp
+    }
 
-    val value = traceable.get(parameters, c.nextNodeId, c.taskRef)
+    val value = traceable.get(parameters, nodeId, c.taskRef)
     getter(value)
 
-    c.nextNodeId += 1
     timestamp.end = c.ddg.nextTimestamp(timestamp.node, c)
   }
 
@@ -122,6 +297,11 @@ object TDB {
       (implicit c: Context): Changeable[U] = {
     val value = c.read(mod, c.taskRef)
 
+    if (c.pure != null) {
+      c.ddg.addPureRead(c.pure, mod.id)
+      return reader(value)
+    }
+
     val timestamp = c.ddg.addRead(
       mod.asInstanceOf[Mod[Any]],
       value,
@@ -142,6 +322,12 @@ object TDB {
       (implicit c: Context) {
     val value = c.read(mod, c.taskRef)
 
+    if (c.pure != null) {
+      c.ddg.addPureRead(c.pure, mod.id)
+      reader(value)
+      return
+    }
+
     val timestamp = c.ddg.addRead(
       mod.asInstanceOf[Mod[Any]],
       value,
@@ -160,6 +346,11 @@ object TDB {
       (implicit c: Context): (Changeable[U], Changeable[V]) = {
     val value = c.read(mod, c.taskRef)
 
+    if (c.pure != null) {
+      c.ddg.addPureRead(c.pure, mod.id)
+      return reader(value)
+    }
+
     val timestamp = c.ddg.addRead(
       mod.asInstanceOf[Mod[Any]],
       value,
@@ -182,6 +373,12 @@ object TDB {
     val value1 = c.read(mod1, c.taskRef)
     val value2 = c.read(mod2, c.taskRef)
 
+    if (c.pure != null) {
+      c.ddg.addPureRead(c.pure, mod1.id)
+      c.ddg.addPureRead(c.pure, mod2.id)
+      return reader(value1, value2)
+    }
+
     val timestamp = c.ddg.addRead2(
       mod1.asInstanceOf[Mod[Any]],
       mod2.asInstanceOf[Mod[Any]],
@@ -206,6 +403,13 @@ object TDB {
     val value2 = c.read(mod2, c.taskRef)
     val value3 = c.read(mod3, c.taskRef)
 
+    if (c.pure != null) {
+      c.ddg.addPureRead(c.pure, mod1.id)
+      c.ddg.addPureRead(c.pure, mod2.id)
+      c.ddg.addPureRead(c.pure, mod3.id)
+      return reader(value1, value2, value3)
+    }
+
     val timestamp = c.ddg.addRead3(
       mod1.asInstanceOf[Mod[Any]],
       mod2.asInstanceOf[Mod[Any]],
@@ -236,6 +440,7 @@ object TDB {
       (initializer: => Changeable[T],
        mod1: Mod[T],
        c: Context): Mod[T] = {
+    assert(c.pure == null, "mod can't be called inside of TDB.pure")
     val oldCurrentModId = c.currentModId
 
     c.currentModId = mod1.id
@@ -298,6 +503,17 @@ object TDB {
       (one: Context => T, datastoreId1: TaskId = -1, name1: String = "")
       (two: Context => U, datastoreId2: TaskId = -1, name2: String = "")
       (implicit c: Context): (T, U) = {
+    schedulePar(one, datastoreId1, name1, two, datastoreId2, name2)(c)
+  }
+
+  // If clearOnSplice is set, the tasks are cleared when the ParNode is spliced
+  // out, rather than left in place to be reused.
+  private def schedulePar[T, U]
+      (one: Context => T, datastoreId1: TaskId, name1: String,
+       two: Context => U, datastoreId2: TaskId, name2: String,
+       clearOnSplice: Boolean = false)
+      (implicit c: Context): (T, U) = {
+    assert(c.pure == null, "par can't be called inside of TDB.pure")
     val adjust1 = new Adjustable[T] {
       def run(implicit c: Context) = {
         one(c)
@@ -321,7 +537,7 @@ object TDB {
     val (taskId2, twoRet) = Await.result(
       future2.mapTo[(TaskId, U)], DURATION)
 
-    val parNode = c.ddg.addPar(taskId1, taskId2, c)
+    val parNode = c.ddg.addPar(taskId1, taskId2, c, clearOnSplice)
 
     (oneRet, twoRet)
   }
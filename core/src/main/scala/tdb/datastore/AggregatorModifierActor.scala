@@ -78,7 +78,7 @@ class AggregatorModifierActor
         futures += store.put(tableId, key, value)
       }
 
-      futures += dependencies.informDependents(conf.inputId, key)
+      dependencies.informDependents(conf.inputId, key)
     }
 
     Future.sequence(futures)
@@ -105,17 +105,39 @@ class AggregatorModifierActor
       sender ! toBuffer()
 
     case PutMessage(table: String, key: Any, value: Any, taskRef) =>
-      put(key, value) pipeTo sender
+      val futures = mutable.Buffer[Future[Any]]()
+      futures += put(key, value)
+      futures += dependencies.flush()
+      Future.sequence(futures) pipeTo sender
 
     case PutAllMessage(values: Iterable[(Any, Any)]) =>
-      val futures = values.map {
-        case (key, value) => put(key, value)
+      val futures = mutable.Buffer[Future[Any]]()
+      for ((key, value) <- values) {
+        futures += put(key, value)
+      }
+      futures += dependencies.flush()
+
+      Future.sequence(futures) pipeTo sender
+
+    case PutDoublesMessage(keys: Array[Int], values: Array[Double]) =>
+      val futures = mutable.Buffer[Future[Any]]()
+      var i = 0
+      while (i < keys.length) {
+        futures += put(keys(i), values(i))
+        i += 1
       }
+      futures += dependencies.flush()
 
       Future.sequence(futures) pipeTo sender
 
     case GetMessage(key: Any, taskRef: ActorRef) =>
-      store.get(tableId, key) pipeTo sender
+      // Keys that haven't been put, or whose values were aggregated back to
+      // the initial value, read as null.
+      if (store.contains(tableId, key)) {
+        store.get(tableId, key) pipeTo sender
+      } else {
+        sender ! NullMessage
+      }
       dependencies.addKeyDependency(conf.inputId, key, taskRef)
 
     case "ping" => sender ! "done"
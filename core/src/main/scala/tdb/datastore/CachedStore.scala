@@ -23,13 +23,14 @@ import com.sleepycat.persist.model.{Entity, PrimaryKey, SecondaryKey}
 import com.sleepycat.persist.model.Relationship
 import java.io._
 import scala.collection.mutable.{Buffer, Map}
-import scala.concurrent.{ExecutionContext, Future}
+import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.util.{Failure, Success}
 
 import tdb.datastore._
 import tdb.messages._
 import tdb.Mod
-import tdb.Constants.ModId
+import tdb.Constants._
+import tdb.stats.Metrics
 import tdb.util._
 import tdb.worker.WorkerInfo
 
@@ -44,6 +45,10 @@ class LRUNode(
 trait CachedStore extends KVStore {
   protected val tables = Map[Int, Table]()
 
+  // Writes go through a WriteBehindTable for each table, so that they reach
+  // the database in batches. See WorkerInfo.writeBatchSize.
+  private val buffers = Map[Int, WriteBehindTable]()
+
   // LRU cache
   private val values = Map[Any, LRUNode]()
   private val tail = new LRUNode(null, null, -1, null, null)
@@ -62,25 +67,29 @@ trait CachedStore extends KVStore {
 
   def ec: ExecutionContext
 
+  private def buffer(id: Int): WriteBehindTable =
+    buffers.getOrElseUpdate(id, new WriteBehindTable(
+      tables(id), workerInfo.writeBatchSize, workerInfo.writeDelay)(ec))
+
   def load(id: Int, fileName: String) {
-    val table = tables(id)
+    val table = buffer(id)
     val file = new File(fileName)
     val fileSize = file.length()
 
     val process = (key: String, value: String) => {
       if (table.hashRange.fallsInside(key)) {
-        table.put(key, value)
+        Await.result(table.write(key, value), DURATION)
       }
+      ()
     }
 
     FileUtil.readKeyValueFile(
       fileName, fileSize, 0, fileSize, process)
+    Await.result(table.flush(), DURATION)
   }
 
   def put(id: Int, key: Any, value: Any): Future[Any] = {
-    val future = Future {
-      tables(id).put(key, value)
-    }(ec)
+    val future = buffer(id).write(key, value)
 
     cacheSize += MemoryUsage.getSize(value)
     if (values.contains(key)) {
@@ -116,14 +125,83 @@ trait CachedStore extends KVStore {
     future
   }
 
+  // Each value goes through the WriteBehindTable like any other put. Only the
+  // puts that filled its buffer have to wait for a batch to be written.
+  def putAll(id: Int, values: Iterable[(Any, Any)]): Future[Any] = {
+    val futures = Buffer[Future[Any]]()
+    for ((key, value) <- values) {
+      val future = put(id, key, value)
+      if (!future.isCompleted) {
+        futures += future
+      }
+    }
+
+    Future.sequence(futures)(implicitly, ec)
+  }
+
   def get(id: Int, key: Any) = {
     if (values.contains(key)) {
-      val value = values(key).value
-      Future { value }(ec)
+      Metrics.cacheHits.increment()
+      Future.successful(values(key).value)
+    } else {
+      Metrics.cacheMisses.increment()
+      val store = buffer(id)
+      val start = Metrics.start()
+      Future {
+        val value = store.get(key)
+        Metrics.storeGets.record(start)
+        value
+      }(ec)
+    }
+  }
+
+  // Reads that miss the cache are ordered before any later flush of the table,
+  // see WriteBehindTable.getCurrent.
+  override def getCurrent(id: Int, key: Any) =
+    if (values.contains(key)) {
+      get(id, key)
+    } else {
+      Metrics.cacheMisses.increment()
+      buffer(id).getCurrent(key)
+    }
+
+  // Values that are in the cache are returned directly, and the rest are
+  // fetched from the table with a single getAll.
+  def getAll(id: Int, keys: Iterable[Any]): Future[Vector[(Any, Any)]] = {
+    val misses = Buffer[Any]()
+    for (key <- keys) {
+      if (!values.contains(key)) {
+        misses += key
+      }
+    }
+
+    if (misses.size == 0) {
+      Metrics.cacheHits.add(keys.size)
+      Future.successful(keys.map(key => (key, values(key).value)).toVector)
     } else {
-      val store = tables(id)
+      Metrics.cacheHits.add(keys.size - misses.size)
+      Metrics.cacheMisses.add(misses.size)
+
+      val cached = Map[Any, Any]()
+      for (key <- keys if values.contains(key)) {
+        cached(key) = values(key).value
+      }
+
+      val store = buffer(id)
+      val start = Metrics.start()
       Future {
-        store.get(key)
+        val fetched = store.getAll(misses).toMap
+        Metrics.storeGets.record(start)
+
+        val builder = Vector.newBuilder[(Any, Any)]
+        for (key <- keys) {
+          if (cached.contains(key)) {
+            builder += ((key, cached(key)))
+          } else {
+            builder += ((key, fetched(key)))
+          }
+        }
+        builder.result()
       }(ec)
     }
   }
@@ -133,29 +211,29 @@ trait CachedStore extends KVStore {
       values -= key
     }
 
-    tables(id).delete(key)
+    buffer(id).delete(key)
   }
 
   def contains(id: Int, key: Any): Boolean = {
-    tables(id).contains(key)
+    buffer(id).contains(key)
   }
 
   def count(id: Int): Int = {
-    tables(id).count()
+    buffer(id).count()
   }
 
   def close() = {
     for ((id, table) <- tables) {
-      table.close()
+      buffer(id).close()
     }
   }
 
   def processKeys(id: Int, process: Iterable[Any] => Unit) {
-    tables(id).processKeys(process)
+    buffer(id).processKeys(process)
   }
 
   def foreach(id: Int)(process: (Any, Any) => Unit) {
-    tables(id).foreach(process)
+    buffer(id).foreach(process)
   }
 
   def hashRange(id: Int) = {
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.datastore
+
+import java.io._
+import java.util.zip.{DeflaterOutputStream, InflaterInputStream}
+import scala.collection.mutable
+
+// Compact representations of the chunks stored by DoubleChunkListModifier,
+// selected with ListConf.chunkEncoding:
+//   "none"    - chunks are stored as Vectors of tuples.
+//   "compact" - keys and values are stored in separate columns, with Ints,
+//               Longs and Doubles in primitive arrays and Strings either
+//               dictionary encoded, if they repeat, or packed into one String.
+//   "deflate" - the compact columns, additionally deflated.
+//   "csr"     - for graphs stored as Int keys with Array[Int] adjacency lists,
+//               the vertices and the concatenation of their edges in two
+//               Int arrays (compressed sparse row form). Falls back to
+//               "compact" for chunks of other types.
+// Encoded chunks are decoded back into Vectors by Datastore.getMod, so readers
+// never see them.
+object ChunkEncoding {
+  def encode(chunk: Vector[(Any, Any)], encoding: String): Any =
+    encoding match {
+      case "none" => chunk
+      case "compact" =>
+        new CompactChunk(
+          Column(chunk.map(_._1)), Column(chunk.map(_._2)))
+      case "deflate" =>
+        DeflatedChunk(encode(chunk, "compact").asInstanceOf[CompactChunk])
+      case "csr" =>
+        if (chunk.forall {
+              case (key, value) =>
+                key.isInstanceOf[Int] && value.isInstanceOf[Array[Int]]
+            }) {
+          CSRChunk(chunk.asInstanceOf[Vector[(Int, Array[Int])]])
+        } else {
+          encode(chunk, "compact")
+        }
+    }
+
+  // Returns value, decoded if it is an encoded chunk.
+  def decode(value: Any): Any =
+    value match {
+      case chunk: EncodedChunk => chunk.decode()
+      case x => x
+    }
+}
+
+trait EncodedChunk extends Serializable {
+  def decode(): Vector[(Any, Any)]
+
+  // An estimate of this chunk's size in memory, in bytes.
+  def footprint: Int
+}
+
+class CompactChunk(val keys: Column, val values: Column)
+    extends EncodedChunk {
+  def size = keys.size
+
+  def decode(): Vector[(Any, Any)] = {
+    val builder = Vector.newBuilder[(Any, Any)]
+    var i = 0
+    while (i < size) {
+      builder += ((keys(i), values(i)))
+      i += 1
+    }
+    builder.result()
+  }
+
+  def footprint: Int =
+    keys.footprint + values.footprint + MemoryUsage.objectOverhead
+}
+
+object DeflatedChunk {
+  def apply(chunk: CompactChunk): DeflatedChunk = {
+    val bytes = new ByteArrayOutputStream()
+    val output = new ObjectOutputStream(new DeflaterOutputStream(bytes))
+    output.writeObject(chunk)
+    output.close()
+
+    new DeflatedChunk(bytes.toByteArray)
+  }
+}
+
+class DeflatedChunk(val bytes: Array[Byte]) extends EncodedChunk {
+  def decode(): Vector[(Any, Any)] = {
+    val input = new ObjectInputStream(
+      new InflaterInputStream(new ByteArrayInputStream(bytes)))
+    val chunk = input.readObject().asInstanceOf[CompactChunk]
+    input.close()
+
+    chunk.decode()
+  }
+
+  def footprint: Int = bytes.length + MemoryUsage.objectOverhead
+}
+
+object CSRChunk {
+  def apply(chunk: Vector[(Int, Array[Int])]): CSRChunk = {
+    val vertices = new Array[Int](chunk.size)
+    val offsets = new Array[Int](chunk.size + 1)
+    val targets = new Array[Int](chunk.map(_._2.length).sum)
+
+    var i = 0
+    for ((vertex, edges) <- chunk) {
+      vertices(i) = vertex
+      System.arraycopy(edges, 0, targets, offsets(i), edges.length)
+      offsets(i + 1) = offsets(i) + edges.length
+      i += 1
+    }
+
+    new CSRChunk(vertices, offsets, targets)
+  }
+}
+
+// The edges of vertices(i) are targets(offsets(i)) until targets(offsets(i + 1)).
+class CSRChunk
+    (val vertices: Array[Int],
+     val offsets: Array[Int],
+     val targets: Array[Int]) extends EncodedChunk {
+  def size = vertices.length
+
+  def edges(i: Int): Array[Int] =
+    java.util.Arrays.copyOfRange(targets, offsets(i), offsets(i + 1))
+
+  def decode(): Vector[(Any, Any)] = {
+    val builder = Vector.newBuilder[(Any, Any)]
+    var i = 0
+    while (i < size) {
+      builder += ((vertices(i), edges(i)))
+      i += 1
+    }
+    builder.result()
+  }
+
+  def footprint: Int =
+    (vertices.length + offsets.length + targets.length) * 4 +
+    MemoryUsage.objectOverhead * 4
+}
+
+object Column {
+  // Picks the most compact column type that can hold all of the values.
+  def apply(values: Vector[Any]): Column =
+    if (values.forall(_.isInstanceOf[Int])) {
+      new IntColumn(values.map(_.asInstanceOf[Int]).toArray)
+    } else if (values.forall(_.isInstanceOf[Long])) {
+      new LongColumn(values.map(_.asInstanceOf[Long]).toArray)
+    } else if (values.forall(_.isInstanceOf[Double])) {
+      new DoubleColumn(values.map(_.asInstanceOf[Double]).toArray)
+    } else if (values.forall(_.isInstanceOf[String])) {
+      val strings = values.map(_.asInstanceOf[String])
+      val dictionary = mutable.LinkedHashMap[String, Int]()
+      for (s <- strings) {
+        dictionary.getOrElseUpdate(s, dictionary.size)
+      }
+
+      if (dictionary.size * 2 <= strings.size) {
+        new DictionaryColumn(
+          dictionary.keys.toArray, strings.map(dictionary(_)).toArray)
+      } else {
+        new StringColumn(strings)
+      }
+    } else {
+      new ObjectColumn(values.toArray)
+    }
+}
+
+sealed trait Column extends Serializable {
+  def size: Int
+
+  def apply(i: Int): Any
+
+  // An estimate of this column's size in memory, in bytes.
+  def footprint: Int
+}
+
+class IntColumn(values: Array[Int]) extends Column {
+  def size = values.length
+
+  def apply(i: Int) = values(i)
+
+  def footprint = values.length * 4 + MemoryUsage.objectOverhead
+}
+
+class LongColumn(values: Array[Long]) extends Column {
+  def size = values.length
+
+  def apply(i: Int) = values(i)
+
+  def footprint = values.length * 8 + MemoryUsage.objectOverhead
+}
+
+class DoubleColumn(values: Array[Double]) extends Column {
+  def size = values.length
+
+  def apply(i: Int) = values(i)
+
+  def footprint = values.length * 8 + MemoryUsage.objectOverhead
+}
+
+class DictionaryColumn(dictionary: Array[String], indexes: Array[Int])
+    extends Column {
+  def size = indexes.length
+
+  def apply(i: Int) = dictionary(indexes(i))
+
+  def footprint =
+    dictionary.map(MemoryUsage.getSize(_)).sum + indexes.length * 4 +
+    MemoryUsage.objectOverhead * 2
+}
+
+// Strings that are mostly distinct, concatenated so that they share a single
+// object header and char array.
+class StringColumn(values: Vector[String]) extends Column {
+  private val chars = values.mkString
+
+  private val ends = values.scanLeft(0)(_ + _.length).tail.toArray
+
+  def size = ends.length
+
+  def apply(i: Int) =
+    chars.substring(if (i == 0) 0 else ends(i - 1), ends(i))
+
+  def footprint =
+    MemoryUsage.getSize(chars) + ends.length * 4 + MemoryUsage.objectOverhead
+}
+
+class ObjectColumn(values: Array[Any]) extends Column {
+  def size = values.length
+
+  def apply(i: Int) = values(i)
+
+  def footprint =
+    values.map(MemoryUsage.getSize(_)).sum + MemoryUsage.objectOverhead
+}
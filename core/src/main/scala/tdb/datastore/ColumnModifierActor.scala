@@ -62,57 +62,81 @@ class ColumnModifierActor
 
   private val dependencies = mutable.Map[String, mutable.Map[Any, (NodeId, ActorRef)]]()
 
-  private def makeNewColumns(column: String, key: Any, value: Any) = {
+  // The value column should hold after value is put into it, if it held
+  // oldValue.
+  private def combine(column: String, oldValue: Any, value: Any): Any = {
+    conf.columns(column)._1 match {
+      case aggregatedColumn: AggregatedColumn =>
+        aggregatedColumn.aggregator(oldValue, value)
+      case _ => value
+    }
+  }
+
+  private def makeNewColumns
+      (key: Any, columnValues: collection.Map[String, Any], batch: ModBatch) = {
     val newColumns = mutable.Map[String, Mod[Any]]()
 
     for ((columnName, (columnType, defaultValue)) <- conf.columns) {
-      columnName match {
-        case "key" =>
-          newColumns("key") = datastore.createMod(key)
-          values(newColumns("key").id) = key
-        case name if name == column =>
-          newColumns(columnName) = datastore.createMod(value)
-          values(newColumns(columnName).id) = value
-        case _ =>
-          newColumns(columnName) = datastore.createMod(defaultValue)
-          values(newColumns(columnName).id) = defaultValue
+      val value = columnName match {
+        case "key" => key
+        case name => columnValues.getOrElse(name, defaultValue)
       }
+      newColumns(columnName) = batch.createMod(value)
+      values(newColumns(columnName).id) = value
     }
 
     newColumns
   }
 
-  private def appendIn(column: String, key: Any, value: Any): Future[_] = {
-    val newColumns = makeNewColumns(column, key, value)
-    val newTail = datastore.createMod[ColumnListNode[Any]](null)
-    val newNode = new ColumnListNode(key, newColumns, newTail)
+  // Appends a node for each row, a key and the values put into its columns,
+  // in order. All of the nodes' column mods and tails are written in a single
+  // batch. The nodes are built from the last back, so that each tail can be
+  // created holding the node after it, and only the current tail is updated.
+  private def appendIn
+      (rows: Iterable[(Any, collection.Map[String, Any])]): Future[_] = {
+    if (rows.isEmpty) {
+      Future.successful("done")
+    } else {
+      val batch = new ModBatch(
+        datastore, math.min(rows.size * (conf.columns.size + 1), 1024))
+      val newTail = batch.createMod[ColumnListNode[Any]](null)
+
+      var next = newTail
+      var node: ColumnListNode[Any] = null
+      for ((key, columnValues) <- rows.toBuffer.reverse) {
+        if (node != null) {
+          next = batch.createMod(node)
+          nodes(node.key) = next
+        }
+        node = new ColumnListNode(
+          key, makeNewColumns(key, columnValues, batch), next)
+      }
+
+      val futures = mutable.Buffer[Future[Any]]()
+      futures += batch.flush()
+      futures += datastore.updateMod(tailMod.id, node)
+
+      nodes(node.key) = tailMod
 
-    val future = datastore.updateMod(tailMod.id, newNode)
+      tailMod = newTail
 
-    nodes(key) = tailMod
+      Future.sequence(futures)
+    }
+  }
 
-    tailMod = newTail
+  // Updates the value of a column of a key that's already in the list.
+  private def updateIn(column: String, key: Any, value: Any) {
+    val node = datastore.read(nodes(key))
 
-    future
+    val columnMod = node.columns(column)
+    values(columnMod.id) = combine(column, values(columnMod.id), value)
   }
 
   private def putIn(column: String, key: Any, value: Any): Future[_] = {
     if (!nodes.contains(key)) {
-      appendIn(column, key, value)
+      appendIn(Iterable((key, Map(column -> value))))
     } else {
-      val node = datastore.read(nodes(key))
-
-      val columnMod = node.columns(column)
-      val columnType = conf.columns(column)._1
-      //val _value = datastore.read(columnMod)
-      //val newValue =
-      columnType match {
-        case aggregatedColumn: AggregatedColumn =>
-          values(columnMod.id) = aggregatedColumn.aggregator(values(columnMod.id), value)
-        case _ => values(columnMod.id) = value
-      }
-
-      //datastore.updateMod(columnMod.id, newValue)
+      updateIn(column, key, value)
       Future { "done" }
     }
   }
@@ -121,21 +145,45 @@ class ColumnModifierActor
     nodes.contains(key)
   }
 
+  // Applies the buffered puts. The keys that aren't in the list yet are
+  // appended together, see appendIn.
   private def flush(): Future[Any] = {
-    val futures = mutable.Buffer[Future[Any]]()
+    val updatedNodes = mutable.Map[ActorRef, mutable.Buffer[NodeId]]()
+    val newRows = mutable.LinkedHashMap[Any, mutable.Map[String, Any]]()
     for ((column, values) <- buffer) {
       for ((key, value) <- values) {
         if (dependencies.contains(column) && dependencies(column).contains(key)) {
           val (nodeId, taskRef) = dependencies(column)(key)
-          futures += (taskRef ? NodeUpdatedMessage(nodeId))
+          updatedNodes.getOrElseUpdate(taskRef, mutable.Buffer[NodeId]()) +=
+            nodeId
         }
 
         ColumnModifierActor.count -= 1
-        putIn(column, key, value)
+        if (nodes.contains(key)) {
+          updateIn(column, key, value)
+        } else {
+          // As if the key had been appended by the first of its puts.
+          newRows.get(key) match {
+            case None =>
+              newRows(key) = mutable.Map(column -> value)
+            case Some(columnValues) =>
+              columnValues(column) = combine(
+                column,
+                columnValues.getOrElse(column, conf.columns(column)._2),
+                value)
+          }
+        }
       }
     }
     buffer.clear()
 
+    val futures = mutable.Buffer[Future[Any]]()
+    futures += appendIn(newRows)
+    for ((taskRef, nodeIds) <- updatedNodes) {
+      futures += taskRef ? NodesUpdatedMessage(nodeIds)
+    }
+    futures += datastore.flushNotifications()
+
     Future.sequence(futures)
     //Future { "done" }
   }
@@ -191,9 +239,13 @@ class ColumnModifierActor
     case PutInMessage(column: String, key: Any, value: Any) =>
       if (dependencies.contains(column) && dependencies(column).contains(key)) {
         val (nodeId, taskRef) = dependencies(column)(key)
-        scala.concurrent.Await.result(taskRef ? NodeUpdatedMessage(nodeId), DURATION)
+        scala.concurrent.Await.result(
+          taskRef ? NodesUpdatedMessage(Iterable(nodeId)), DURATION)
       }
-      putIn(column, key, value) pipeTo sender
+      val futures = mutable.Buffer[Future[Any]]()
+      futures += putIn(column, key, value)
+      futures += datastore.flushNotifications()
+      Future.sequence(futures) pipeTo sender
 
     case PutAllInMessage(column: String, values: Iterable[(Any, Any)]) =>
       if (!buffer.contains(column)) {
@@ -216,7 +268,7 @@ class ColumnModifierActor
       if (!flushNotified && flushNodes.contains(column)) {
         val (flushNode, flushTask) = flushNodes(column)
         flushNotified = true
-        (flushTask ? NodeUpdatedMessage(flushNode)) pipeTo sender
+        (flushTask ? NodesUpdatedMessage(Iterable(flushNode))) pipeTo sender
       } else {
         sender ! "done"
       }
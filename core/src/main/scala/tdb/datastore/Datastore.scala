@@ -18,6 +18,8 @@ package tdb.datastore
 import akka.actor.ActorRef
 import akka.event.LoggingAdapter
 import akka.pattern.{ask, pipe}
+import java.util.concurrent.ConcurrentHashMap
+import scala.collection.mutable
 import scala.collection.mutable.{Buffer, Map}
 import scala.concurrent.{Await, ExecutionContext, Future}
 import scala.util.{Failure, Success}
@@ -25,14 +27,83 @@ import scala.util.{Failure, Success}
 import tdb.Constants._
 import tdb.messages._
 import tdb.Mod
-import tdb.stats.WorkerStats
+import tdb.list.{DoubleChunkListNode, DoubleListNode}
+import tdb.stats.{Metrics, WorkerStats}
 import tdb.worker.WorkerInfo
 import tdb.util._
 
+// The contents of a Datastore, used to move it to another worker.
+class DatastoreSnapshot
+    (val nextModId: Int,
+     val mods: Buffer[(Any, Any)],
+     val meta: Buffer[(Any, Any)],
+     val inputs: Buffer[(Any, Any)],
+     val inputFile: String,
+     val input: Buffer[(Any, Any)],
+     val chunks: Map[ModId, Iterable[Any]],
+     val dependencies: Map[ModId, Set[ActorRef]],
+     val modEpochs: Map[ModId, Int],
+     val versions: Map[ModId, List[(Int, Any)]]) extends java.io.Serializable
+
+object Datastore {
+  // The datastores that live in this JVM, which tasks may access directly
+  // instead of messaging their actors. See Context.readId.
+  private val local = new ConcurrentHashMap[TaskId, Datastore]()
+
+  def registerLocal(id: TaskId, datastore: Datastore) {
+    local.put(id, datastore)
+  }
+
+  def unregisterLocal(id: TaskId, datastore: Datastore) {
+    local.remove(id, datastore)
+  }
+
+  // Returns the datastore with the given id if it's in this JVM, else null.
+  def getLocal(id: TaskId): Datastore = local.get(id)
+
+  // The propagation epoch that writes in this JVM belong to. Epoch e is
+  // complete once the master has advanced past it, at which point readers
+  // may pin it with Mutator.pin.
+  @volatile var epoch = 0
+
+  // Called by the worker when the master finishes a run or propagation.
+  // Versions that aren't visible to any of the pinned epochs are dropped.
+  def advanceEpoch(newEpoch: Int, pinned: Iterable[Int]) {
+    epoch = newEpoch
+    for (datastore <- local.values().toArray(Array[Datastore]())) {
+      datastore.collectVersions(pinned)
+    }
+  }
+
+  // A hash of a mod's value used to detect writes that don't change it. Chunk
+  // Vectors are hashed element by element, which is still much cheaper than
+  // reading back and comparing the stored chunk.
+  def fingerprint(value: Any): Int =
+    if (value == null) 0 else value.##
+
+  // Returns true if value can't be changed in place. Only writes of such
+  // values are cut off, since the store may hold the very object that's being
+  // written, and a mutable one that was changed in place would compare equal
+  // to itself, as would its fingerprint if it's an Array.
+  def isImmutable(value: Any): Boolean =
+    value match {
+      case null => true
+      case _: String | _: java.lang.Number | _: java.lang.Boolean |
+           _: java.lang.Character | _: scala.runtime.BoxedUnit => true
+      case _: Mod[_] => true
+      case option: Option[_] => option.forall(isImmutable)
+      case tuple: Product if tuple.getClass.getName.startsWith("scala.Tuple") =>
+        tuple.productIterator.forall(isImmutable)
+      case iterable: scala.collection.immutable.Iterable[_] =>
+        iterable.forall(isImmutable)
+      case _ => false
+    }
+}
+
 class Datastore
     (val workerInfo: WorkerInfo,
      log: LoggingAdapter,
-     id: TaskId,
+     val id: TaskId,
      recovery: Boolean)
     (implicit ec: ExecutionContext) {
 
@@ -46,6 +117,32 @@ class Datastore
   // Maps ModIds to sets of ActorRefs representing tasks that read them.
   private val dependencies = Map[ModId, Set[ActorRef]]()
 
+  // The fingerprint of the last value written to each mod, so that updateMod
+  // can usually tell that a value has changed without reading the old one.
+  private val fingerprints = Map[ModId, Int]()
+
+  // Notifications that have been generated by updateMod and removeMods but
+  // not yet sent, grouped by the task they should be sent to. These are sent
+  // in a single message per task by flushNotifications.
+  private val updatedMods = Map[ActorRef, mutable.Set[ModId]]()
+
+  private val removedMods = Map[ActorRef, mutable.Set[ModId]]()
+
+  // The epoch in which each mod was last written.
+  private val modEpochs = Map[ModId, Int]()
+
+  // Values of mods that were overwritten or removed after the epoch they were
+  // written in completed, newest first, so that readers pinned to an earlier
+  // epoch can still see them. See getModVersion. The values may still be
+  // being read from the store.
+  private val versions = Map[ModId, List[(Int, Future[Any])]]()
+
+  // Set once this datastore has been snapshotted or closed. Tasks may still
+  // hold a reference to it from before it was unregistered, so the local
+  // methods return null after this and the caller falls back to messaging
+  // the datastore's actor, which forwards to its replacement.
+  private var retired = false
+
   val inputsId =
     store.createTable("inputs" + id, "ModId", "Any", null, !recovery)
 
@@ -53,32 +150,57 @@ class Datastore
 
   var inputTableId = -1
 
+  // The file that inputTableId was loaded from, if any.
+  var inputFile = ""
+
   val maxModIdStep = 10000
 
-  def getNewModId(): ModId = {
-    val modId = createModId(id, 0, nextModId)
-    nextModId += 1
+  def getNewModId(): ModId = createModId(id, 0, reserveModIds(1))
+
+  // Reserves count consecutive mod ids, returning the index of the first, to
+  // be passed to createModId. The highest id that may have been handed out is
+  // recorded in the meta table every maxModIdStep ids, so that recovery
+  // doesn't reuse them, but only once per call however many steps it covers.
+  def reserveModIds(count: Int): Int = synchronized {
+    val first = nextModId
+    nextModId += count
 
-    if (nextModId % maxModIdStep == 0) {
+    if (nextModId / maxModIdStep != first / maxModIdStep) {
       val info = Await.result(
         store.get(metaTableId, id).mapTo[ModifierInfo], DURATION)
-      val newInfo = new ModifierInfo(info.headId, nextModId + maxModIdStep)
-      Await.result(store.put(metaTableId, id, newInfo), DURATION)
+      val maxModId = (nextModId / maxModIdStep + 1) * maxModIdStep
+      Await.result(
+        store.put(metaTableId, id, new ModifierInfo(info.headId, maxModId)),
+        DURATION)
     }
 
-    modId
+    first
   }
 
-  def createMod[T](value: T): Mod[T] = {
+  def createMod[T](value: T): Mod[T] = synchronized {
     WorkerStats.modsCreated += 1
     val newModId = getNewModId()
     assert(!store.contains(modTableId, newModId))
     val future = store.put(modTableId, newModId, value)
+    fingerprints(newModId) = Datastore.fingerprint(value)
+    modEpochs(newModId) = Datastore.epoch
     scala.concurrent.Await.result(future, DURATION)
 
     new Mod(newModId)
   }
 
+  // Creates mods with the given ids, which must have been reserved with
+  // reserveModIds, and values in a single store operation. See ModBatch.
+  def createMods(mods: Iterable[(ModId, Any)]): Future[Any] = synchronized {
+    WorkerStats.modsCreated += mods.size
+    for ((modId, value) <- mods) {
+      fingerprints(modId) = Datastore.fingerprint(value)
+      modEpochs(modId) = Datastore.epoch
+    }
+
+    store.putAll(modTableId, mods)
+  }
+
   def read[T](mod: Mod[T]): T = {
     scala.concurrent.Await.result(getMod(mod.id, null), DURATION)
       .asInstanceOf[T]
@@ -89,35 +211,26 @@ class Datastore
       .asInstanceOf[T]
   }
 
-  def getMod(modId: ModId, taskRef: ActorRef): Future[_] = {
+  def getMod(modId: ModId, taskRef: ActorRef): Future[_] = synchronized {
     WorkerStats.datastoreReads += 1
     if (store.contains(inputsId, modId)) {
-      val promise = scala.concurrent.Promise[Any]
-
-      val key = Await.result(store.get(inputsId, modId), DURATION)
-
-      store.get(inputTableId, key).onComplete {
-        case Success(v) =>
-          promise.success(key, v)
-        case Failure(e) =>
-          e.printStackTrace()
+      val tableId = inputTableId
+      store.get(inputsId, modId).flatMap {
+        case key => store.get(tableId, key).map((key, _))
       }
-      promise.future
     } else if (chunks.contains(modId)) {
-      val futures = Buffer[Future[Any]]()
-      val keys = Map[Any, Future[Any]]()
-      for (id <- chunks(modId)) {
-        futures += Future {
-          (id, Await.result(store.get(inputTableId, id), DURATION))
-        }
-      }
-
-      Future {
-        val value = Await.result(Future.sequence(futures), DURATION)
-        value.toVector
-      }
+      store.getAll(inputTableId, chunks(modId))
     } else if (store.contains(modTableId, modId)) {
-      store.get(modTableId, modId)
+      val future = store.get(modTableId, modId)
+
+      // Chunks may be stored encoded, see ChunkEncoding. Avoid scheduling a
+      // callback for values that are already available.
+      future.value match {
+        case Some(Success(chunk: EncodedChunk)) =>
+          Future.successful(chunk.decode())
+        case Some(_) => future
+        case None => future.map(ChunkEncoding.decode(_))
+      }
     } else {
       println("?? " + id + " " + getDatastoreId(modId) + " " + modId + " " + this)
       ???
@@ -125,47 +238,235 @@ class Datastore
   }
 
   def updateMod[T]
-      (modId: ModId, value: T, task: ActorRef = null): Future[_] = {
+      (modId: ModId, value: T, task: ActorRef = null): Future[_] = synchronized {
+    val (future, readers) =
+      write(modId, value, task, Datastore.fingerprint(value))
+    for (taskRef <- readers) {
+      updatedMods.getOrElseUpdate(taskRef, mutable.Set[ModId]()) += modId
+    }
+
+    future
+  }
+
+  // Writes value to modId, unless it's unchanged, and returns the tasks other
+  // than task that read it and so need to be notified.
+  private def write
+      (modId: ModId,
+       value: Any,
+       task: ActorRef,
+       fingerprint: Int): (Future[_], Iterable[ActorRef]) = {
     WorkerStats.datastoreWrites += 1
-    val futures = Buffer[Future[Any]]()
 
-    if (!store.contains(modTableId, modId) ||
-        store.get(modTableId, modId) != value) {
-      futures += store.put(modTableId, modId, value)
+    if (isUnchanged(modId, value, fingerprint)) {
+      Metrics.writeCutoffs.increment()
+      (Future.successful("done"), Iterable())
+    } else {
+      saveVersion(modId)
+      val future = store.put(modTableId, modId, value)
+      fingerprints(modId) = fingerprint
+
+      val readers = dependencies.getOrElse(modId, Set[ActorRef]())
+      (future, readers.filter(_ != task))
+    }
+  }
+
+  // Returns true if value, whose fingerprint is given, is equal to the
+  // current value of modId and immutable, in which case writing it again
+  // doesn't need to notify any readers. The current value is only compared if
+  // it can be read without waiting, e.g. it's cached, otherwise the write
+  // just goes ahead.
+  def isUnchanged(modId: ModId, value: Any, fingerprint: Int): Boolean =
+    synchronized {
+      // Only read the old value if the fingerprints match, which should be
+      // rare unless the value really is the same.
+      !retired &&
+      fingerprints.get(modId) == Some(fingerprint) &&
+      Datastore.isImmutable(value) &&
+      store.contains(modTableId, modId) &&
+      store.get(modTableId, modId).value == Some(Success(value))
+    }
+
+  def removeMods
+      (modIds: Iterable[ModId], task: ActorRef): Future[Any] = synchronized {
+    for ((taskRef, removed) <- delete(modIds, task)) {
+      removedMods.getOrElseUpdate(taskRef, mutable.Set[ModId]()) ++= removed
+    }
+
+    Future.successful("done")
+  }
+
+  // Deletes the mods and returns the ones that each task other than task
+  // read, so that it can be notified.
+  private def delete
+      (modIds: Iterable[ModId],
+       task: ActorRef): Map[ActorRef, Buffer[ModId]] = {
+    val readers = Map[ActorRef, Buffer[ModId]]()
+    for (modId <- modIds) {
+      saveVersion(modId)
+      store.delete(modTableId, modId)
+      if (!versions.contains(modId)) {
+        modEpochs -= modId
+      }
+      fingerprints -= modId
 
       if (dependencies.contains(modId)) {
         for (taskRef <- dependencies(modId)) {
           if (task != taskRef) {
-            futures += (taskRef ? ModUpdatedMessage(modId)).mapTo[String]
+            readers.getOrElseUpdate(taskRef, Buffer[ModId]()) += modId
           }
         }
+
+        dependencies -= modId
       }
     }
 
-    Future.sequence(futures)
+    readers
   }
 
-  def removeMods(modIds: Iterable[ModId], task: ActorRef): Future[Any] = {
-    val futures = Buffer[Future[Any]]()
+  // Called before modId is overwritten or removed. If its current value was
+  // written in an epoch that has since completed, it's kept for readers that
+  // may have pinned that epoch.
+  private def saveVersion(modId: ModId) {
+    val epoch = Datastore.epoch
+    val modEpoch = modEpochs.getOrElse(modId, epoch)
+    if (modEpoch < epoch && store.contains(modTableId, modId)) {
+      // The read isn't waited for, but still returns the value from before
+      // the write that follows.
+      val value = store.getCurrent(modTableId, modId)
+      versions(modId) = (modEpoch, value) :: versions.getOrElse(modId, Nil)
+    }
+    modEpochs(modId) = epoch
+  }
 
-    for (modId <- modIds) {
-      store.delete(modTableId, modId)
+  // Returns the value modId had at the end of the given epoch, or null if it
+  // didn't exist yet.
+  def getModVersion(modId: ModId, epoch: Int): Future[_] = synchronized {
+    if (!modEpochs.contains(modId) || modEpochs(modId) <= epoch) {
+      // Mods that are never written after being created, including those
+      // backed by the input table, always have their current value.
+      getMod(modId, null)
+    } else {
+      versions.getOrElse(modId, Nil).find(_._1 <= epoch) match {
+        case Some((modEpoch, value)) =>
+          value.map(ChunkEncoding.decode(_))
+        case None =>
+          Future.successful(null)
+      }
+    }
+  }
 
-      if (dependencies.contains(modId)) {
-        for (taskRef <- dependencies(modId)) {
-          if (task != taskRef) {
-            futures += (taskRef ? ModRemovedMessage(modId))
+  // Walks the DoubleList or DoubleChunkList whose node is stored in nodeId,
+  // returning up to about batchSize elements and the id of the node to
+  // continue from, or -1 if the end of the list was reached. The walk reads
+  // other datastores in this JVM directly, but stops early at a node or value
+  // that lives elsewhere. If epoch isn't -2, mods are read as of that epoch,
+  // see getModVersion.
+  def exportList
+      (nodeId: ModId,
+       batchSize: Int,
+       epoch: Int): (Buffer[(Any, Any)], ModId) = {
+    val values = Buffer[(Any, Any)]()
+    var next = nodeId
+
+    var stopped = false
+    while (!stopped && next != -1 && values.size < batchSize) {
+      readLocal(next, epoch) match {
+        case Some(null) =>
+          next = -1
+
+        case Some(node: DoubleListNode[_, _]) =>
+          readLocal(node.valueMod.id, epoch) match {
+            case Some(value) =>
+              values += value.asInstanceOf[(Any, Any)]
+              next = node.nextMod.id
+            case None =>
+              stopped = true
+          }
+
+        case Some(node: DoubleChunkListNode[_, _]) =>
+          readLocal(node.chunkMod.id, epoch) match {
+            case Some(chunk) =>
+              values ++= chunk.asInstanceOf[Iterable[(Any, Any)]]
+              next = node.nextMod.id
+            case None =>
+              stopped = true
           }
+
+        case _ =>
+          stopped = true
+      }
+    }
+
+    (values, next)
+  }
+
+  private def readLocal(modId: ModId, epoch: Int): Option[Any] = {
+    val datastore = Datastore.getLocal(getDatastoreId(modId))
+    if (datastore == null) {
+      None
+    } else if (epoch == -2) {
+      Some(Await.result(datastore.getMod(modId, null), DURATION))
+    } else {
+      Some(Await.result(datastore.getModVersion(modId, epoch), DURATION))
+    }
+  }
+
+  // Drops saved versions that no reader can see anymore. A version written in
+  // epoch e and overwritten in epoch e' is only visible to pins in [e, e').
+  // The most recently completed epoch is always treated as pinned, since a
+  // reader may pin it at any time.
+  def collectVersions(pinned: Iterable[Int]): Unit = synchronized {
+    val visible = pinned.toSet + (Datastore.epoch - 1)
+
+    for ((modId, modVersions) <- versions.toBuffer) {
+      var next = modEpochs(modId)
+      val kept = modVersions.filter {
+        case (modEpoch, value) =>
+          val keep = visible.exists(pin => modEpoch <= pin && pin < next)
+          next = modEpoch
+          keep
+      }
+
+      if (kept.isEmpty) {
+        versions -= modId
+        if (!store.contains(modTableId, modId)) {
+          modEpochs -= modId
         }
+      } else {
+        versions(modId) = kept
+      }
+    }
+  }
 
-        dependencies -= modId
+  // Sends all of the notifications queued by updateMod and removeMods since the
+  // last flush, with at most one message of each kind per task. Should be
+  // called at the end of processing each message that modifies this datastore.
+  def flushNotifications(): Future[Any] = synchronized {
+    val futures = Buffer[Future[Any]]()
+
+    for ((taskRef, modIds) <- removedMods) {
+      // A mod that was updated and then removed in the same batch only needs
+      // the removal, which unmarks any readers anyway.
+      if (updatedMods.contains(taskRef)) {
+        updatedMods(taskRef) --= modIds
+      }
+
+      futures += taskRef ? ModsRemovedMessage(modIds.toBuffer)
+    }
+
+    for ((taskRef, modIds) <- updatedMods) {
+      if (modIds.size > 0) {
+        futures += taskRef ? ModsUpdatedMessage(modIds.toBuffer)
       }
     }
 
+    updatedMods.clear()
+    removedMods.clear()
+
     Future.sequence(futures)
   }
 
-  def addDependency(modId: ModId, taskRef: ActorRef) {
+  def addDependency(modId: ModId, taskRef: ActorRef): Unit = synchronized {
     if (dependencies.contains(modId)) {
       dependencies(modId) += taskRef
     } else {
@@ -173,7 +474,66 @@ class Datastore
     }
   }
 
+  // Equivalent to a GetModMessage sent to this datastore's actor, for use by
+  // tasks in the same JVM. Returns null if the datastore has been retired, in
+  // which case the message should be sent instead.
+  def getModLocal(modId: ModId, taskRef: ActorRef): Future[_] = synchronized {
+    if (retired) {
+      null
+    } else {
+      val future = getMod(modId, taskRef)
+
+      if (taskRef != null) {
+        addDependency(modId, taskRef)
+      }
+
+      future
+    }
+  }
+
+  // Equivalent to a PutMessage to the "mods" table, or null if retired. The
+  // readers of this mod are notified directly, rather than through
+  // flushNotifications, so that notifications queued by a modifier that's
+  // in the middle of processing a message aren't sent early.
+  def updateModLocal
+      (modId: ModId,
+       value: Any,
+       taskRef: ActorRef,
+       fingerprint: Int): Future[_] =
+    synchronized {
+      if (retired) {
+        null
+      } else {
+        val (future, readers) = write(modId, value, taskRef, fingerprint)
+        val futures = Buffer[Future[Any]](future)
+        for (reader <- readers) {
+          futures += reader ? ModsUpdatedMessage(Buffer(modId))
+        }
+        Future.sequence(futures)
+      }
+    }
+
+  // Equivalent to a RemoveModsMessage, or null if retired.
+  def removeModsLocal(modIds: Iterable[ModId], taskRef: ActorRef): Future[_] =
+    synchronized {
+      if (retired) {
+        null
+      } else {
+        val futures = Buffer[Future[Any]]()
+        for ((reader, removed) <- delete(modIds, taskRef)) {
+          // As in flushNotifications, the removal supersedes any queued
+          // update of the same mods.
+          if (updatedMods.contains(reader)) {
+            updatedMods(reader) --= removed
+          }
+          futures += reader ? ModsRemovedMessage(removed)
+        }
+        Future.sequence(futures)
+      }
+    }
+
   def loadPartitions(fileName: String, range: HashRange) {
+    inputFile = fileName
     inputTableId = store.createTable(fileName, "String", "String", range, false)
 
     if (store.hashRange(inputTableId) != range) {
@@ -190,10 +550,91 @@ class Datastore
     }
   }
 
+  // Copies out everything needed to recreate this datastore elsewhere. The
+  // caller is responsible for ensuring that no modifications are made to this
+  // datastore through its actor after the snapshot is taken, and the local
+  // methods stop accepting them.
+  def snapshot(): DatastoreSnapshot = synchronized {
+    retired = true
+
+    val copyTable = (tableId: Int) => {
+      val contents = Buffer[(Any, Any)]()
+      if (tableId != -1) {
+        store.foreach(tableId) {
+          case (key, value) => contents += ((key, value))
+        }
+      }
+      contents
+    }
+
+    // Saved versions may still be being read from the store, and futures
+    // can't be sent to another worker.
+    val resolvedVersions = Map[ModId, List[(Int, Any)]]()
+    for ((modId, modVersions) <- versions) {
+      resolvedVersions(modId) = modVersions.map {
+        case (modEpoch, value) => (modEpoch, Await.result(value, DURATION))
+      }
+    }
+
+    new DatastoreSnapshot(
+      nextModId,
+      copyTable(modTableId),
+      copyTable(metaTableId),
+      copyTable(inputsId),
+      inputFile,
+      copyTable(inputTableId),
+      chunks.clone(),
+      dependencies.clone(),
+      modEpochs.clone(),
+      resolvedVersions)
+  }
+
+  def restore(snapshot: DatastoreSnapshot, range: HashRange) {
+    val futures = Buffer[Future[Any]]()
+    for ((key, value) <- snapshot.mods) {
+      futures += store.put(modTableId, key, value)
+      fingerprints(key.asInstanceOf[ModId]) = Datastore.fingerprint(value)
+    }
+
+    for ((key, value) <- snapshot.meta) {
+      futures += store.put(metaTableId, key, value)
+    }
+
+    for ((key, value) <- snapshot.inputs) {
+      futures += store.put(inputsId, key, value)
+    }
+
+    if (snapshot.inputFile != "") {
+      inputFile = snapshot.inputFile
+      inputTableId = store.createTable(
+        inputFile, "String", "String", range, false)
+
+      for ((key, value) <- snapshot.input) {
+        futures += store.put(inputTableId, key, value)
+      }
+    }
+
+    Await.result(Future.sequence(futures), DURATION)
+
+    nextModId = snapshot.nextModId
+    chunks ++= snapshot.chunks
+    dependencies ++= snapshot.dependencies
+
+    modEpochs ++= snapshot.modEpochs
+    for ((modId, modVersions) <- snapshot.versions) {
+      versions(modId) = modVersions.map {
+        case (modEpoch, value) => (modEpoch, Future.successful(value))
+      }
+    }
+  }
+
   def processKeys(process: Iterable[Any] => Unit) =
     store.processKeys(inputTableId, process)
 
   def close() {
+    synchronized {
+      retired = true
+    }
     store.close()
   }
 }
@@ -40,6 +40,7 @@ class DatastoreActor(workerInfo: WorkerInfo, id: TaskId)
   import context.dispatcher
 
   private val datastore = new Datastore(workerInfo, log, id, false)
+  Datastore.registerLocal(id, datastore)
 
   def receive = {
     case CreateModMessage(value: Any) =>
@@ -74,15 +75,36 @@ class DatastoreActor(workerInfo: WorkerInfo, id: TaskId)
         case Failure(e) => e.printStackTrace()
       }
 
+    case GetModVersionMessage(modId: ModId, epoch: Int) =>
+      val respondTo = sender
+      datastore.getModVersion(modId, epoch).onComplete {
+        case Success(v) =>
+          if (v == null) {
+            respondTo ! NullMessage
+          } else {
+            respondTo ! v
+          }
+        case Failure(e) => e.printStackTrace()
+      }
+
+    case ExportListMessage(nodeId: ModId, batchSize: Int, epoch: Int) =>
+      sender ! datastore.exportList(nodeId, batchSize, epoch)
+
     case PutMessage(table, key, value, taskRef) =>
       if (table == "mods") {
-        datastore.updateMod(key.asInstanceOf[ModId], value, taskRef) pipeTo sender
+        val futures = Buffer[Future[Any]]()
+        futures += datastore.updateMod(key.asInstanceOf[ModId], value, taskRef)
+        futures += datastore.flushNotifications()
+        Future.sequence(futures) pipeTo sender
       } else {
         ???
       }
 
     case RemoveModsMessage(modIds: Iterable[ModId], taskRef: ActorRef) =>
-      datastore.removeMods(modIds, taskRef) pipeTo sender
+      val futures = Buffer[Future[Any]]()
+      futures += datastore.removeMods(modIds, taskRef)
+      futures += datastore.flushNotifications()
+      Future.sequence(futures) pipeTo sender
 
     case x =>
       log.warning("Datastore actor received unhandled message " +
@@ -90,6 +112,7 @@ class DatastoreActor(workerInfo: WorkerInfo, id: TaskId)
   }
 
   override def postStop() {
+    Datastore.unregisterLocal(id, datastore)
     datastore.close()
   }
 }
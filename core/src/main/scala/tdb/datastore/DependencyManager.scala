@@ -39,16 +39,35 @@ class DependencyManager(implicit ec: ExecutionContext) {
     }
   }
 
-  def informDependents(inputId: InputId, key: Any): Future[_] = {
+  // Keys that have been updated since the last call to flush, grouped by the
+  // task that should be informed.
+  private val updatedKeys =
+    mutable.Map[ActorRef, mutable.Map[InputId, mutable.Set[Any]]]()
+
+  def informDependents(inputId: InputId, key: Any) {
     if (keyDependencies.contains(inputId) &&
         keyDependencies(inputId).contains(key)) {
-      val futures = mutable.Buffer[Future[Any]]()
       for (taskRef <- keyDependencies(inputId)(key)) {
-        futures += taskRef ? KeyUpdatedMessage(inputId, key)
+        if (!updatedKeys.contains(taskRef)) {
+          updatedKeys(taskRef) = mutable.Map[InputId, mutable.Set[Any]]()
+        }
+
+        updatedKeys(taskRef).getOrElseUpdate(inputId, mutable.Set[Any]()) += key
+      }
+    }
+  }
+
+  // Sends a single KeysUpdatedMessage per task and input for all of the keys
+  // passed to informDependents since the last flush.
+  def flush(): Future[_] = {
+    val futures = mutable.Buffer[Future[Any]]()
+    for ((taskRef, inputs) <- updatedKeys) {
+      for ((inputId, keys) <- inputs) {
+        futures += taskRef ? KeysUpdatedMessage(inputId, keys.toBuffer)
       }
-      Future.sequence(futures)
-    } else {
-      Future { "done" }
     }
+    updatedKeys.clear()
+
+    Future.sequence(futures)
   }
 }
@@ -23,22 +23,58 @@ import tdb.Constants._
 import tdb.list._
 
 class DoubleChunkListModifier
-    (datastore: Datastore, datastoreId: TaskId, conf: ListConf)
+    (datastore: Datastore,
+     datastoreId: TaskId,
+     conf: ListConf,
+     recovery: Boolean = false)
     (implicit ec: ExecutionContext)
   extends Modifier {
 
   // Contains the last DoubleChunkListNode before the tail node. If the list is
   // empty, the contents of this mod will be null.
-  private var lastNodeMod = datastore.createMod[DoubleChunkListNode[Any, Any]](null)
+  private var lastNodeMod: Mod[DoubleChunkListNode[Any, Any]] = null
 
   val nodes = Map[Any, Mod[DoubleChunkListNode[Any, Any]]]()
   val previous = Map[Any, Mod[DoubleChunkListNode[Any, Any]]]()
 
-  val list = new DoubleChunkList[Any, Any](
-      lastNodeMod, conf, false, datastoreId)
+  val list =
+    if (!recovery) {
+      lastNodeMod = datastore.createMod[DoubleChunkListNode[Any, Any]](null)
 
-  val info  = new ModifierInfo(list.head.id, datastore.maxModIdStep)
-  Await.result(datastore.store.put(datastore.metaTableId, datastoreId, info), DURATION)
+      val info  = new ModifierInfo(lastNodeMod.id, datastore.maxModIdStep)
+      Await.result(datastore.store.put(datastore.metaTableId, datastoreId, info), DURATION)
+
+      new DoubleChunkList[Any, Any](lastNodeMod, conf, false, datastoreId)
+    } else {
+      val info = Await.result(
+        datastore.store.get(datastore.metaTableId, datastoreId).mapTo[ModifierInfo], DURATION)
+      datastore.nextModId = math.max(datastore.nextModId, info.maxModId)
+
+      // Rebuild the key to node mappings by walking the list.
+      val headMod = new Mod[DoubleChunkListNode[Any, Any]](info.headId)
+      var previousMod: Mod[DoubleChunkListNode[Any, Any]] = null
+      var nodeMod = headMod
+      var node = datastore.read(nodeMod)
+      while (node != null) {
+        for ((key, value) <- datastore.read(node.chunkMod)) {
+          nodes(key) = nodeMod
+          previous(key) = previousMod
+        }
+
+        previousMod = nodeMod
+        nodeMod = node.nextMod
+        node = datastore.read(nodeMod)
+      }
+
+      lastNodeMod =
+        if (previousMod == null) {
+          headMod
+        } else {
+          previousMod
+        }
+
+      new DoubleChunkList[Any, Any](headMod, conf, false, datastoreId)
+    }
 
   val duplicateKeys = Buffer[Any]()
 
@@ -53,18 +89,21 @@ class DoubleChunkListModifier
 
     var lastNode = datastore.read(lastNodeMod)
 
+    // The nodes are written together once they've all been created.
+    val batch = new ModBatch(datastore)
+
     val oldHead = datastore.read(list.head)
-    var tail = datastore.createMod(oldHead)
+    var tail = batch.createMod(oldHead)
     for (key <- keys) {
       chunk :+= key
       size += 1
 
       if (size >= conf.chunkSize) {
-        val chunkMod = new Mod[Vector[(Any, Any)]](datastore.getNewModId())
+        val chunkMod = new Mod[Vector[(Any, Any)]](batch.getNewModId())
         datastore.chunks(chunkMod.id) = chunk
         val newNode = new DoubleChunkListNode(chunkMod, tail, size)
 
-        tail = datastore.createMod(newNode)
+        tail = batch.createMod(newNode)
         for (k <- chunk) {
           nodes(k) = tail
         }
@@ -86,6 +125,7 @@ class DoubleChunkListModifier
         size  = 0
       }
     }
+    futures += batch.flush()
 
     if (size > 0) {
       for (k <- chunk) {
@@ -99,7 +139,7 @@ class DoubleChunkListModifier
         }
       }
 
-      val chunkMod = new Mod[Vector[(Any, Any)]](datastore.getNewModId())
+      val chunkMod = new Mod[Vector[(Any, Any)]](batch.getNewModId())
       datastore.chunks(chunkMod.id) = chunk
       futures += datastore.updateMod(
         list.head.id, new DoubleChunkListNode(chunkMod, tail, size))
@@ -142,7 +182,7 @@ class DoubleChunkListModifier
 
       previous(key) = null
 
-      val chunkMod = datastore.createMod(chunk)
+      val chunkMod = createChunk(chunk)
       val tailMod = datastore.createMod[DoubleChunkListNode[Any, Any]](null)
       val newNode = new DoubleChunkListNode(chunkMod, tailMod, size)
 
@@ -155,7 +195,7 @@ class DoubleChunkListModifier
 
       lastNodeMod = lastNode.nextMod
 
-      val chunkMod = datastore.createMod(chunk)
+      val chunkMod = createChunk(chunk)
       val tailMod = datastore.createMod[DoubleChunkListNode[Any, Any]](null)
       val newNode = new DoubleChunkListNode(
         chunkMod, tailMod, conf.chunkSizer(value))
@@ -170,7 +210,7 @@ class DoubleChunkListModifier
       val size = lastNode.size + conf.chunkSizer(value)
 
       previous(key) = previous(chunk.head._1)
-      val chunkMod = datastore.createMod(chunk)
+      val chunkMod = createChunk(chunk)
       val tailMod = datastore.createMod[DoubleChunkListNode[Any, Any]](null)
       val newNode = new DoubleChunkListNode(chunkMod, tailMod, size)
 
@@ -181,6 +221,16 @@ class DoubleChunkListModifier
 
   } //ensuring(isValid())
 
+  // Stores chunk in a new mod, encoded as specified by the ListConf.
+  private def createChunk
+      (chunk: Vector[(Any, Any)]): Mod[Vector[(Any, Any)]] =
+    if (conf.chunkEncoding == "none") {
+      datastore.createMod(chunk)
+    } else {
+      val encoded = ChunkEncoding.encode(chunk, conf.chunkEncoding)
+      new Mod[Vector[(Any, Any)]](datastore.createMod(encoded).id)
+    }
+
   private def calculateSize(chunk: Vector[(Any, Any)]) = {
     chunk.aggregate(0)(
       (sum: Int, pair: (Any, Any)) => sum + conf.chunkSizer(pair), _ + _)
@@ -205,7 +255,7 @@ class DoubleChunkListModifier
 
       val newSize = node.size + conf.chunkSizer(value) -
       conf.chunkSizer(oldValue)
-      val chunkMod = datastore.createMod(newChunk)
+      val chunkMod = createChunk(newChunk)
       val newNode = new DoubleChunkListNode(chunkMod, node.nextMod, newSize)
       datastore.updateMod(nodes(key).id, newNode)
     }
@@ -213,7 +263,10 @@ class DoubleChunkListModifier
 
   def putIn(column: String, key: Any, value: Any): Future[_] = ???
 
-  def get(key: Any): Any = ???
+  def get(key: Any): Any = {
+    val node = datastore.read(nodes(key))
+    datastore.read(node.chunkMod).find(_._1 == key).get._2
+  }
 
   def remove(key: Any, value: Any): Future[_] = {
     val node = datastore.read(nodes(key))
@@ -265,7 +318,7 @@ class DoubleChunkListModifier
         nextNode
       } else {
         val newSize = node.size - conf.chunkSizer(oldValue)
-        val chunkMod = datastore.createMod(newChunk)
+        val chunkMod = createChunk(newChunk)
         new DoubleChunkListNode(chunkMod, node.nextMod, newSize)
       }
 
@@ -327,5 +380,6 @@ class DoubleChunkListModifier
 
   def getAdjustableList() = list
 
-  def toBuffer(): Buffer[(Any, Any)] = ???
+  def toBuffer(): Buffer[(Any, Any)] =
+    datastore.exportList(list.head.id, Int.MaxValue, -2)._1
 }
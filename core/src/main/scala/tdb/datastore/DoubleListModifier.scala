@@ -74,7 +74,12 @@ class DoubleListModifier
         null
       else
         datastore.read(headNode.valueMod)._1
-    var tail = datastore.createMod(headNode)
+    // The nodes, and the keys of the inputs they point to, are each written
+    // together once they've all been created.
+    val batch = new ModBatch(datastore)
+    val inputs = Buffer[(Any, Any)]()
+
+    var tail = batch.createMod(headNode)
 
     if (headNode == null) {
       tailMod = tail
@@ -83,18 +88,22 @@ class DoubleListModifier
     for (key <- keys) {
       headKey = key.asInstanceOf[Any]
 
-      val valueMod = new Mod[(Any, Any)](datastore.getNewModId())
-      datastore.store.put(datastore.inputsId, valueMod.id, key)
+      val valueMod = new Mod[(Any, Any)](batch.getNewModId())
+      inputs += ((valueMod.id, key))
       headNode = new DoubleListNode(valueMod, tail)
-      tail = datastore.createMod(headNode)
+      tail = batch.createMod(headNode)
 
       nodes(headKey) = tail
     }
 
-    val future = datastore.updateMod(modList.head.id, headNode)
+    val futures = Buffer[Future[Any]]()
+    futures += datastore.store.putAll(datastore.inputsId, inputs)
+    futures += batch.flush()
+
+    futures += datastore.updateMod(modList.head.id, headNode)
     nodes(headKey) = modList.head
 
-    future
+    Future.sequence(futures)
   }
 
   private def append(key: Any, value: Any): Future[_] = {
@@ -125,7 +134,10 @@ class DoubleListModifier
 
   def putIn(column: String, key: Any, value: Any): Future[_] = ???
 
-  def get(key: Any): Any = ???
+  def get(key: Any): Any = {
+    val node = datastore.read(nodes(key))
+    datastore.read(node.valueMod)._2
+  }
 
   def remove(key: Any, value: Any): Future[_] = {
     val mod = nodes(key)
@@ -157,7 +169,8 @@ class DoubleListModifier
     modList
   }
 
-  def toBuffer(): Buffer[(Any, Any)] = ???
+  def toBuffer(): Buffer[(Any, Any)] =
+    datastore.exportList(modList.head.id, Int.MaxValue, -2)._1
 
   override def toString(): String = {
     val buf = new StringBuffer()
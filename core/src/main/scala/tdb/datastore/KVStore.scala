@@ -28,6 +28,7 @@ object KVStore {
     workerInfo.storeType  match {
       case "cassandra" => new CassandraStore(workerInfo)
       case "memory" => new MemoryStore()
+      case "offheap" => new OffHeapStore(workerInfo.cacheSize)
     }
 }
 
@@ -43,8 +44,19 @@ trait KVStore {
 
   def put(id: Int, key: Any, value: Any): Future[Any]
 
+  // Writes several values at once. The values are visible to gets as soon as
+  // this returns, and the future completes once they've all been written.
+  def putAll(id: Int, values: Iterable[(Any, Any)]): Future[Any]
+
   def get(id: Int, key: Any): Future[Any]
 
+  // Like get, but the future completes with the value key has when this is
+  // called, even if key is written again before then.
+  def getCurrent(id: Int, key: Any): Future[Any] = get(id, key)
+
+  // Fetches several values at once, paired with their keys in the order given.
+  def getAll(id: Int, keys: Iterable[Any]): Future[Vector[(Any, Any)]]
+
   def delete(id: Int, key: Any)
 
   def contains(id: Int, key: Any): Boolean
@@ -23,6 +23,7 @@ import scala.reflect.runtime.universe._
 
 import tdb.Constants.ModId
 import tdb.messages.NullMessage
+import tdb.stats.Metrics
 import tdb.util._
 
 class MemoryStore(implicit ec: ExecutionContext) extends KVStore {
@@ -61,17 +62,39 @@ class MemoryStore(implicit ec: ExecutionContext) extends KVStore {
   }
 
   def put(id: Int, key: Any, value: Any) = {
+    val start = Metrics.start()
     tables(id)(key) = value
+    Metrics.storePuts.record(start)
 
-    Future { "done" }
+    Future.successful("done")
+  }
+
+  def putAll(id: Int, values: Iterable[(Any, Any)]) = {
+    val start = Metrics.start()
+    tables(id) ++= values
+    Metrics.storePuts.record(start)
+
+    Future.successful("done")
   }
 
   def get(id: Int, key: Any) = {
+    val start = Metrics.start()
     val value = tables(id)(key)
+    Metrics.storeGets.record(start)
 
-    Future {
-      value
+    Future.successful(value)
+  }
+
+  def getAll(id: Int, keys: Iterable[Any]) = {
+    val start = Metrics.start()
+    val table = tables(id)
+    val builder = Vector.newBuilder[(Any, Any)]
+    for (key <- keys) {
+      builder += ((key, table(key)))
     }
+    Metrics.storeGets.record(start)
+
+    Future.successful(builder.result())
   }
 
   def delete(id: Int, key: Any) {
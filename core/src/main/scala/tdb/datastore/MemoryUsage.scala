@@ -67,7 +67,12 @@ object MemoryUsage {
         h.size * objectOverhead * 10
 
       case v: Vector[_] =>
-        v.map(getSize(_)).reduce(_ + _) + objectOverhead
+        v.map(getSize(_)).sum + objectOverhead
+
+      case chunk: EncodedChunk =>
+        chunk.footprint
+      case a: Array[Int] =>
+        a.length * 4 + objectOverhead
 
       // Nodes
       case node: tdb.list.DoubleListNode[_, _] =>
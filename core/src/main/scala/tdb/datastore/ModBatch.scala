@@ -0,0 +1,79 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.datastore
+
+import scala.collection.mutable.Buffer
+import scala.concurrent.{ExecutionContext, Future}
+
+import tdb.Constants._
+import tdb.Mod
+
+// Creates mods in bulk, e.g. while loading the initial contents of a list.
+// Ids are reserved from the datastore batchSize at a time, and values are
+// written batchSize at a time with a single Datastore.createMods, instead of
+// waiting for a put for every mod as Datastore.createMod does. Mods created
+// through a batch can't be read or updated until it has been flushed.
+class ModBatch(datastore: Datastore, batchSize: Int = 1024)
+    (implicit ec: ExecutionContext) {
+  private var nextIndex = 0
+
+  private var endIndex = 0
+
+  private var mods = Buffer[(ModId, Any)]()
+
+  private val futures = Buffer[Future[Any]]()
+
+  def getNewModId(): ModId = {
+    if (nextIndex == endIndex) {
+      nextIndex = datastore.reserveModIds(batchSize)
+      endIndex = nextIndex + batchSize
+    }
+
+    val modId = createModId(datastore.id, 0, nextIndex)
+    nextIndex += 1
+
+    modId
+  }
+
+  def createMod[T](value: T): Mod[T] = {
+    val modId = getNewModId()
+    mods += ((modId, value))
+
+    if (mods.size >= batchSize) {
+      write()
+    }
+
+    new Mod(modId)
+  }
+
+  private def write() {
+    if (mods.size > 0) {
+      futures += datastore.createMods(mods)
+      mods = Buffer[(ModId, Any)]()
+    }
+  }
+
+  // Writes any mods that haven't been yet. They may be read as soon as this
+  // returns, and the future completes when the store has finished writing
+  // all of the batch's mods.
+  def flush(): Future[Any] = {
+    write()
+
+    val future = Future.sequence(futures.toList)
+    futures.clear()
+    future
+  }
+}
@@ -33,6 +33,32 @@ trait Modifier {
 
   def remove(key: Any, value: Any): Future[_]
 
+  def contains(key: Any): Boolean
+
+  // For lists of adjacency arrays, i.e. with Int keys and Array[Int] values.
+  // Adds and removes the given (source, target) edges, rewriting the value of
+  // each affected source once.
+  def updateEdges
+      (added: Iterable[(Int, Int)],
+       removed: Iterable[(Int, Int)]): Iterable[Future[_]] = {
+    val addedBySource = added.groupBy(_._1)
+    val removedBySource = removed.groupBy(_._1)
+
+    for (source <- addedBySource.keySet ++ removedBySource.keySet) yield {
+      val oldEdges =
+        if (contains(source)) {
+          get(source).asInstanceOf[Array[Int]]
+        } else {
+          Array[Int]()
+        }
+
+      val removedTargets = removedBySource.getOrElse(source, Nil).map(_._2)
+      val addedTargets = addedBySource.getOrElse(source, Nil).map(_._2)
+
+      put(source, oldEdges.filterNot(removedTargets.toSet) ++ addedTargets)
+    }
+  }
+
   def getAdjustableList(): AdjustableList[Any, Any]
 
   def toBuffer(): Buffer[(Any, Any)]
@@ -34,10 +34,11 @@ object ModifierActor {
        datastoreId: TaskId,
        range: HashRange,
        masterRef: ActorRef,
-       recovery: Boolean): Props =
+       recovery: Boolean,
+       snapshot: DatastoreSnapshot = null): Props =
     Props(
       classOf[ModifierActor],
-      conf, workerInfo, datastoreId, range, masterRef, recovery)
+      conf, workerInfo, datastoreId, range, masterRef, recovery, snapshot)
 }
 
 class ModifierActor
@@ -46,13 +47,16 @@ class ModifierActor
      datastoreId: TaskId,
      range: HashRange,
      masterRef: ActorRef,
-     recovery: Boolean)
+     recovery: Boolean,
+     snapshot: DatastoreSnapshot)
   extends Actor with ActorLogging {
   import context.dispatcher
 
   private val datastore = new Datastore(workerInfo, log, datastoreId, recovery)
 
-  if (recovery && conf.file != "") {
+  if (snapshot != null) {
+    datastore.restore(snapshot, range)
+  } else if (recovery && conf.file != "") {
     datastore.inputTableId = datastore.store.createTable(
       conf.file, "String", "String", range, false)
   }
@@ -61,7 +65,35 @@ class ModifierActor
     if (conf.chunkSize == 1)
       new DoubleListModifier(datastore, datastoreId, recovery)
     else
-      new DoubleChunkListModifier(datastore, datastoreId, conf)
+      new DoubleChunkListModifier(datastore, datastoreId, conf, recovery)
+
+  Datastore.registerLocal(datastoreId, datastore)
+
+  // Messages received while this datastore is being migrated, which will be
+  // forwarded to the new datastore once it has been created.
+  private val migrationBuffer = mutable.Buffer[(Any, ActorRef)]()
+
+  private def migrating: Receive = {
+    case DatastoreMigratedMessage(newRef: ActorRef) =>
+      log.info("Datastore " + datastoreId + " migrated to " + newRef)
+      context.become(forwarding(newRef))
+
+      for ((message, from) <- migrationBuffer) {
+        newRef.tell(message, from)
+      }
+      migrationBuffer.clear()
+
+      sender ! "done"
+
+    case x =>
+      migrationBuffer += ((x, sender))
+  }
+
+  // Once migrated, this actor is left in place to forward messages from
+  // anyone with a stale ref, e.g. a Resolver that cached it.
+  private def forwarding(newRef: ActorRef): Receive = {
+    case x => newRef forward x
+  }
 
   def receive = {
     case CreateModMessage(value) =>
@@ -81,14 +113,33 @@ class ModifierActor
 
       datastore.addDependency(modId, taskRef)
 
+    case GetModVersionMessage(modId: ModId, epoch: Int) =>
+      val respondTo = sender
+      datastore.getModVersion(modId, epoch).onComplete {
+        case Success(v) =>
+          if (v == null) {
+            respondTo ! NullMessage
+          } else {
+            respondTo ! v
+          }
+        case Failure(e) => e.printStackTrace()
+      }
+
+    case ExportListMessage(nodeId: ModId, batchSize: Int, epoch: Int) =>
+      sender ! datastore.exportList(nodeId, batchSize, epoch)
+
     case RemoveModsMessage(modIds: Iterable[ModId], taskRef: ActorRef) =>
-      datastore.removeMods(modIds, taskRef) pipeTo sender
+      val futures = mutable.Buffer[Future[Any]]()
+      futures += datastore.removeMods(modIds, taskRef)
+      futures += datastore.flushNotifications()
+      Future.sequence(futures) pipeTo sender
 
     case LoadFileMessage(fileName: String, recovery) =>
       datastore.loadPartitions(fileName, range)
       datastore.processKeys {
         case keys => modifier.loadInput(keys)
       }
+      datastore.flushNotifications()
 
       if (recovery) {
         sender ! "done"
@@ -105,6 +156,7 @@ class ModifierActor
     case PutMessage(table: String, key: Any, value: Any, taskRef) =>
       val futures = mutable.Buffer[Future[Any]]()
       futures += modifier.put(key, value)
+      futures += datastore.flushNotifications()
       Future.sequence(futures) pipeTo sender
 
     case PutAllMessage(values: Iterable[(Any, Any)]) =>
@@ -112,11 +164,13 @@ class ModifierActor
       for ((key, value) <- values) {
         futures += modifier.put(key, value)
       }
+      futures += datastore.flushNotifications()
       Future.sequence(futures) pipeTo sender
 
     case RemoveMessage(key: Any, value: Any) =>
       val futures = mutable.Buffer[Future[Any]]()
       futures += modifier.remove(key, value)
+      futures += datastore.flushNotifications()
       Future.sequence(futures) pipeTo sender
 
     case RemoveAllMessage(values: Iterable[(Any, Any)]) =>
@@ -124,8 +178,20 @@ class ModifierActor
       for ((key, value) <- values) {
         futures += modifier.remove(key, value)
       }
+      futures += datastore.flushNotifications()
       Future.sequence(futures) pipeTo sender
 
+    case UpdateEdgesMessage(added, removed) =>
+      val futures = mutable.Buffer[Future[Any]]()
+      futures ++= modifier.updateEdges(added, removed)
+      futures += datastore.flushNotifications()
+      Future.sequence(futures) pipeTo sender
+
+    case SnapshotDatastoreMessage =>
+      Datastore.unregisterLocal(datastoreId, datastore)
+      sender ! datastore.snapshot()
+      context.become(migrating)
+
     case "ping" =>
       sender ! "done"
 
@@ -135,6 +201,7 @@ class ModifierActor
   }
 
   override def postStop() {
+    Datastore.unregisterLocal(datastoreId, datastore)
     datastore.close()
   }
 }
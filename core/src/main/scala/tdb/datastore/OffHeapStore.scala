@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.datastore
+
+import scala.collection.mutable.Map
+import scala.concurrent.{ExecutionContext, Future}
+
+import tdb.stats.Metrics
+import tdb.util.HashRange
+
+// A MemoryStore that keeps tables with ModId keys, i.e. the mods and the
+// inputs of each datastore, in OffHeapTables. Other tables stay on the heap.
+class OffHeapStore(cacheEntries: Int)(implicit ec: ExecutionContext)
+    extends MemoryStore {
+  private val offHeapTables = Map[Int, OffHeapTable]()
+
+  override def createTable
+      (name: String,
+       keyType: String,
+       valueType: String,
+       range: HashRange,
+       dropIfExists: Boolean): Int = {
+    val id = super.createTable(name, keyType, valueType, range, dropIfExists)
+
+    if (keyType == "ModId") {
+      offHeapTables(id) = new OffHeapTable(range, cacheEntries)
+    }
+
+    id
+  }
+
+  override def put(id: Int, key: Any, value: Any) =
+    offHeapTables.get(id) match {
+      case Some(table) =>
+        val start = Metrics.start()
+        table.put(key, value)
+        Metrics.storePuts.record(start)
+
+        Future.successful("done")
+      case None => super.put(id, key, value)
+    }
+
+  override def putAll(id: Int, values: Iterable[(Any, Any)]) =
+    offHeapTables.get(id) match {
+      case Some(table) =>
+        val start = Metrics.start()
+        for ((key, value) <- values) {
+          table.put(key, value)
+        }
+        Metrics.storePuts.record(start)
+
+        Future.successful("done")
+      case None => super.putAll(id, values)
+    }
+
+  override def get(id: Int, key: Any) =
+    offHeapTables.get(id) match {
+      case Some(table) =>
+        val start = Metrics.start()
+        val value = table.get(key)
+        Metrics.storeGets.record(start)
+
+        Future.successful(value)
+      case None => super.get(id, key)
+    }
+
+  override def getAll(id: Int, keys: Iterable[Any]) =
+    offHeapTables.get(id) match {
+      case Some(table) =>
+        val start = Metrics.start()
+        val values = table.getAll(keys)
+        Metrics.storeGets.record(start)
+
+        Future.successful(values)
+      case None => super.getAll(id, keys)
+    }
+
+  override def delete(id: Int, key: Any) {
+    offHeapTables.get(id) match {
+      case Some(table) => table.delete(key)
+      case None => super.delete(id, key)
+    }
+  }
+
+  override def contains(id: Int, key: Any): Boolean =
+    offHeapTables.get(id) match {
+      case Some(table) => table.contains(key)
+      case None => super.contains(id, key)
+    }
+
+  override def count(id: Int) =
+    offHeapTables.get(id) match {
+      case Some(table) => table.count()
+      case None => super.count(id)
+    }
+
+  override def close() {
+    for ((id, table) <- offHeapTables) {
+      table.close()
+    }
+    offHeapTables.clear()
+  }
+
+  override def processKeys(id: Int, process: Iterable[Any] => Unit) {
+    offHeapTables.get(id) match {
+      case Some(table) => table.processKeys(process)
+      case None => super.processKeys(id, process)
+    }
+  }
+
+  override def foreach(id: Int)(process: (Any, Any) => Unit) {
+    offHeapTables.get(id) match {
+      case Some(table) => table.foreach(process)
+      case None => super.foreach(id)(process)
+    }
+  }
+}
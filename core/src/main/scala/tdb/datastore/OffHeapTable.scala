@@ -0,0 +1,229 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.datastore
+
+import java.nio.ByteBuffer
+import java.util.{Collections, WeakHashMap}
+import scala.collection.JavaConversions._
+import scala.collection.mutable.Buffer
+
+import tdb.util.{HashRange, LongLongMap, Util}
+
+object OffHeapTable {
+  val defaultSlabSize = 64 * 1024 * 1024
+
+  // Each table starts with a slab of this size, and doubles it for every new
+  // slab up to its slab size, so that small partitions don't hold on to a
+  // full slab.
+  val initialSlabSize = 1024 * 1024
+
+  // The tables on this JVM, which are dropped either when they're closed or
+  // when they're garbage collected, along with their slabs.
+  private val live = Collections.synchronizedSet(
+    Collections.newSetFromMap(
+      new WeakHashMap[OffHeapTable, java.lang.Boolean]()))
+
+  // The direct memory held by all live tables. This is computed when the
+  // offHeapBytes gauge is read, so that it is correct whether or not metrics
+  // were enabled while the tables were filled.
+  def totalFootprint(): Long =
+    live.synchronized {
+      live.foldLeft(0L)(_ + _.footprint)
+    }
+}
+
+// A Table with ModId keys that keeps its values serialized in direct
+// ByteBuffers, so that millions of small chunk and node mods don't have to
+// be traced by the garbage collector. Each value is appended, prefixed with
+// its length, to the current slab, and found through a primitive map from
+// keys to slab indices and offsets. The cacheEntries most recently used
+// values are also kept decoded on the heap.
+//
+// Overwritten and deleted values are left in place until they take up more
+// space than the live ones, at which point the live values are copied into
+// new slabs.
+class OffHeapTable
+    (val hashRange: HashRange,
+     cacheEntries: Int,
+     slabSize: Int = OffHeapTable.defaultSlabSize) extends Table {
+  OffHeapTable.live.add(this)
+
+  private var slabs = Buffer[ByteBuffer]()
+
+  private var current: ByteBuffer = null
+
+  // Maps keys to their location, the slab index in the high 32 bits and the
+  // offset within the slab in the low 32 bits.
+  private val index = new LongLongMap()
+
+  private val cache =
+    new java.util.LinkedHashMap[Long, Any](16, 0.75f, true) {
+      override def removeEldestEntry
+          (eldest: java.util.Map.Entry[Long, Any]): Boolean =
+        size() > cacheEntries
+    }
+
+  private var liveBytes = 0L
+
+  private var garbageBytes = 0L
+
+  @volatile private var allocatedBytes = 0L
+
+  // The number of bytes of direct memory held by this table. This doesn't
+  // lock the table, since the gauge reads it while holding the live set.
+  def footprint: Long = allocatedBytes
+
+  def put(key: Any, value: Any) = synchronized {
+    val modId = key.asInstanceOf[Long]
+    val bytes = Util.serialize(value)
+
+    free(modId)
+    index.put(modId, append(bytes))
+    liveBytes += bytes.length + 4
+
+    cache.put(modId, value)
+
+    if (garbageBytes > slabSize && garbageBytes > liveBytes) {
+      compact()
+    }
+  }
+
+  def get(key: Any): Any = synchronized {
+    val modId = key.asInstanceOf[Long]
+    if (cache.containsKey(modId)) {
+      cache.get(modId)
+    } else {
+      val location = index.getOrElse(modId, -1)
+      if (location == -1) {
+        throw new NoSuchElementException("key not found: " + key)
+      }
+
+      val value = Util.deserialize(read(slabs, location))
+      cache.put(modId, value)
+      value
+    }
+  }
+
+  def delete(key: Any) = synchronized {
+    val modId = key.asInstanceOf[Long]
+    free(modId)
+    index.remove(modId)
+    cache.remove(modId)
+  }
+
+  def contains(key: Any): Boolean = synchronized {
+    index.contains(key.asInstanceOf[Long])
+  }
+
+  def count(): Int = synchronized {
+    index.size
+  }
+
+  def processKeys(process: Iterable[Any] => Unit) {
+    val keys = Buffer[Any]()
+    synchronized {
+      index.foreach {
+        case (key, location) => keys += key
+      }
+    }
+    process(keys)
+  }
+
+  def foreach(process: (Any, Any) => Unit) {
+    val keys = Buffer[Long]()
+    synchronized {
+      index.foreach {
+        case (key, location) => keys += key
+      }
+    }
+
+    for (key <- keys) {
+      process(key, get(key))
+    }
+  }
+
+  def close() = synchronized {
+    OffHeapTable.live.remove(this)
+
+    slabs.clear()
+    current = null
+    index.clear()
+    cache.clear()
+    liveBytes = 0
+    garbageBytes = 0
+    allocatedBytes = 0
+  }
+
+  // Marks the current value of modId, if any, as garbage.
+  private def free(modId: Long) {
+    val location = index.getOrElse(modId, -1)
+    if (location != -1) {
+      val size = slabs((location >>> 32).toInt)
+        .getInt((location & 0xFFFFFFFFL).toInt) + 4
+      liveBytes -= size
+      garbageBytes += size
+    }
+  }
+
+  // Writes bytes to the current slab, starting a new one if they don't fit,
+  // and returns their location.
+  private def append(bytes: Array[Byte]): Long = {
+    if (current == null || current.remaining() < bytes.length + 4) {
+      val size =
+        if (current == null) {
+          math.min(slabSize, OffHeapTable.initialSlabSize)
+        } else {
+          math.min(slabSize, current.capacity * 2L).toInt
+        }
+      current = ByteBuffer.allocateDirect(math.max(size, bytes.length + 4))
+      slabs += current
+      allocatedBytes += current.capacity
+    }
+
+    val location = ((slabs.size - 1).toLong << 32) | current.position()
+    current.putInt(bytes.length)
+    current.put(bytes)
+
+    location
+  }
+
+  private def read(slabs: Buffer[ByteBuffer], location: Long): Array[Byte] = {
+    val slab = slabs((location >>> 32).toInt).duplicate()
+    slab.position((location & 0xFFFFFFFFL).toInt)
+
+    val bytes = new Array[Byte](slab.getInt())
+    slab.get(bytes)
+    bytes
+  }
+
+  // Copies the live values into new slabs, so that the old ones, and the
+  // direct memory backing them, can be collected.
+  private def compact() {
+    val oldSlabs = slabs
+
+    slabs = Buffer[ByteBuffer]()
+    current = null
+    allocatedBytes = 0
+    garbageBytes = 0
+
+    // Only the values are replaced, so the index can be updated while it's
+    // being iterated over.
+    index.foreach {
+      case (key, location) =>
+        index.put(key, append(read(oldSlabs, location)))
+    }
+  }
+}
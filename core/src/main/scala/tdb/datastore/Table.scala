@@ -20,8 +20,26 @@ import tdb.util.HashRange
 trait Table {
   def put(key: Any, value: Any)
 
+  // Writes a batch of values. Tables that support batched writes should
+  // override this.
+  def putAll(values: Iterable[(Any, Any)]) {
+    for ((key, value) <- values) {
+      put(key, value)
+    }
+  }
+
   def get(key: Any): Any
 
+  // Returns the keys paired with their values, in the order given. Tables
+  // that can fetch several values in one round trip should override this.
+  def getAll(keys: Iterable[Any]): Vector[(Any, Any)] = {
+    val builder = Vector.newBuilder[(Any, Any)]
+    for (key <- keys) {
+      builder += ((key, get(key)))
+    }
+    builder.result()
+  }
+
   def delete(key: Any)
 
   def contains(key: Any): Boolean
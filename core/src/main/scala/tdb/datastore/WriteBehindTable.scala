@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.datastore
+
+import java.util.concurrent.{Executors, ScheduledFuture, ThreadFactory, TimeUnit}
+import scala.collection.mutable
+import scala.concurrent.{Await, ExecutionContext, Future}
+
+import tdb.Constants._
+import tdb.stats.Metrics
+import tdb.util.HashRange
+
+object WriteBehindTable {
+  // Marks a key that has been deleted but whose deletion hasn't been flushed.
+  private object Deleted
+
+  private val done = Future.successful("done")
+
+  private val scheduler = Executors.newSingleThreadScheduledExecutor(
+    new ThreadFactory() {
+      def newThread(runnable: Runnable) = {
+        val thread = new Thread(runnable, "write-behind")
+        thread.setDaemon(true)
+        thread
+      }
+    })
+}
+
+// Buffers writes to a Table and sends them to it in batches, either once
+// batchSize distinct keys have been written or delay milliseconds after the
+// first write of a batch. Repeated writes to the same key are coalesced, and
+// reads are served from the buffer until the write reaches the table, so
+// callers see their own writes. If writing a batch fails, the flush fails and
+// the batch is kept, and retried by the next flush.
+class WriteBehindTable
+    (val table: Table,
+     batchSize: Int,
+     delay: Int)
+    (implicit ec: ExecutionContext) extends Table {
+  import WriteBehindTable._
+
+  // Writes that haven't been handed to the table yet.
+  private var pending = mutable.Map[Any, Any]()
+
+  // Batches that have been flushed but aren't in the table yet, newest first.
+  private var flushing = List[mutable.Map[Any, Any]]()
+
+  // Completes once every batch that has been flushed is in the table, or
+  // fails if one of them couldn't be written. Batches are written one at a
+  // time, oldest first, so a later write to a key always wins.
+  private var lastFlush: Future[Any] = done
+
+  private var timer: ScheduledFuture[_] = null
+
+  def hashRange: HashRange = table.hashRange
+
+  def put(key: Any, value: Any) {
+    write(key, value)
+  }
+
+  // Returns a future that completes immediately, unless the buffer is full
+  // in which case it completes when the buffer has been written, so that fast
+  // writers can't get arbitrarily far ahead of the table.
+  def write(key: Any, value: Any): Future[Any] = synchronized {
+    pending(key) = value
+    written()
+  }
+
+  def delete(key: Any) {
+    synchronized {
+      pending(key) = Deleted
+      written()
+    }
+  }
+
+  private def written(): Future[Any] =
+    if (pending.size >= batchSize) {
+      flush()
+    } else {
+      if (timer == null) {
+        timer = scheduler.schedule(new Runnable() {
+          def run() { flush() }
+        }, delay, TimeUnit.MILLISECONDS)
+      }
+      done
+    }
+
+  // Hands everything that has been written so far to the table, along with
+  // any batches that failed to be written earlier. The returned future
+  // completes once it's all there, or fails if it couldn't be written.
+  def flush(): Future[Any] = synchronized {
+    if (timer != null) {
+      timer.cancel(false)
+      timer = null
+    }
+
+    if (pending.size > 0) {
+      flushing = pending :: flushing
+      pending = mutable.Map[Any, Any]()
+    }
+
+    if (flushing.size > 0) {
+      lastFlush = lastFlush.recover { case e => e }.map {
+        case _ => writeBatches()
+      }
+    }
+
+    lastFlush
+  }
+
+  // Writes the batches that aren't in the table yet, oldest first. If one of
+  // them fails, it and the ones after it are left for the next flush.
+  private def writeBatches() {
+    for (batch <- synchronized { flushing.reverse }) {
+      writeBatch(batch)
+      synchronized {
+        flushing = flushing.filter(_ ne batch)
+      }
+    }
+  }
+
+  private def writeBatch(batch: mutable.Map[Any, Any]) {
+    val start = Metrics.start()
+    try {
+      val puts = batch.filter { case (key, value) => value != Deleted }
+      if (puts.size > 0) {
+        table.putAll(puts)
+      }
+
+      for ((key, value) <- batch if value == Deleted) {
+        table.delete(key)
+      }
+    } finally {
+      Metrics.storeFlushes.record(start)
+    }
+  }
+
+  // Returns the latest buffered value for key, Deleted if it was deleted, or
+  // None if it isn't buffered.
+  private def buffered(key: Any): Option[Any] = synchronized {
+    if (pending.contains(key)) {
+      Some(pending(key))
+    } else {
+      flushing.find(_.contains(key)).map(_(key))
+    }
+  }
+
+  def get(key: Any): Any =
+    buffered(key) match {
+      case Some(Deleted) =>
+        throw new NoSuchElementException("key not found: " + key)
+      case Some(value) => value
+      case None => table.get(key)
+    }
+
+  // Returns the value key has now. If it isn't buffered, the table is read
+  // once the batches that have already been flushed are in it, and later
+  // flushes wait for the read, so it can't see a write made after this call.
+  def getCurrent(key: Any): Future[Any] = synchronized {
+    buffered(key) match {
+      case Some(Deleted) =>
+        Future.failed(new NoSuchElementException("key not found: " + key))
+      case Some(value) => Future.successful(value)
+      case None =>
+        val flushed = lastFlush
+        val read = flushed.recover { case e => e }.map {
+          case _ => table.get(key)
+        }
+        lastFlush = read.recover { case e => e }.flatMap(_ => flushed)
+        read
+    }
+  }
+
+  override def getAll(keys: Iterable[Any]): Vector[(Any, Any)] = {
+    val found = mutable.Map[Any, Any]()
+    val misses = mutable.Buffer[Any]()
+    for (key <- keys) {
+      buffered(key) match {
+        case Some(Deleted) =>
+          throw new NoSuchElementException("key not found: " + key)
+        case Some(value) => found(key) = value
+        case None => misses += key
+      }
+    }
+
+    if (misses.size == keys.size) {
+      table.getAll(keys)
+    } else {
+      found ++= table.getAll(misses)
+      keys.map(key => (key, found(key))).toVector
+    }
+  }
+
+  def contains(key: Any): Boolean =
+    buffered(key) match {
+      case Some(value) => value != Deleted
+      case None => table.contains(key)
+    }
+
+  def count(): Int = {
+    Await.result(flush(), DURATION)
+    table.count()
+  }
+
+  def processKeys(process: Iterable[Any] => Unit) {
+    Await.result(flush(), DURATION)
+    table.processKeys(process)
+  }
+
+  def foreach(process: (Any, Any) => Unit) {
+    Await.result(flush(), DURATION)
+    table.foreach(process)
+  }
+
+  def close() {
+    Await.result(flush(), DURATION)
+    table.close()
+  }
+}
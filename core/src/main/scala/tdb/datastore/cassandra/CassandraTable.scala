@@ -15,7 +15,7 @@
  */
 package tdb.datastore.cassandra
 
-import com.datastax.driver.core.{BoundStatement, Row, Session}
+import com.datastax.driver.core.{BatchStatement, BoundStatement, Row, Session}
 import com.datastax.driver.core.utils.Bytes
 import java.nio.ByteBuffer
 import java.util.concurrent.locks.ReentrantLock
@@ -26,6 +26,8 @@ import tdb.util._
 
 object Cassandra {
   val lock = new ReentrantLock()
+
+  val batchRows = 100
 }
 
 abstract class CassandraTable
@@ -67,12 +69,41 @@ abstract class CassandraTable
     getValue(results.one())
   }
 
+  // Sends all of the selects before waiting for any of them, so that the
+  // whole batch takes about one round trip.
+  override def getAll(keys: Iterable[Any]): Vector[(Any, Any)] = {
+    val futures = keys.map {
+      case key =>
+        val stmt = new BoundStatement(getStmt)
+        (key, session.executeAsync(stmt.bind(key.asInstanceOf[Object])))
+    }.toVector
+
+    futures.map {
+      case (key, future) => (key, getValue(future.getUninterruptibly().one()))
+    }
+  }
+
   def put(key: Any, value: Any) {
     val stmt = new BoundStatement(putStmt)
     session.execute(stmt.bind(
       key.asInstanceOf[Object], convertValue(value)))
   }
 
+  // Sends the values in batches of batchRows, each in one round trip. The
+  // batches are unlogged since the rows may belong to different partitions
+  // and we don't need atomicity. Cassandra rejects very large batches, so
+  // batchRows should be kept small.
+  override def putAll(values: Iterable[(Any, Any)]) {
+    for (group <- values.grouped(Cassandra.batchRows)) {
+      val batch = new BatchStatement(BatchStatement.Type.UNLOGGED)
+      for ((key, value) <- group) {
+        val stmt = new BoundStatement(putStmt)
+        batch.add(stmt.bind(key.asInstanceOf[Object], convertValue(value)))
+      }
+      session.execute(batch)
+    }
+  }
+
   def delete(key: Any) = {
     val stmt = new BoundStatement(deleteStmt)
     session.execute(stmt.bind(key.asInstanceOf[Object]))
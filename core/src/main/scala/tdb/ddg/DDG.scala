@@ -25,6 +25,9 @@ import tdb.list.ListInput
 import tdb.master.Master
 import tdb.messages._
 
+// Methods that modify the DDG are synchronized, since it may be modified by
+// the Task actor while change propagation is running, and by several regions
+// at once during parallel propagation (see Context.parallelPropagation).
 class DDG(_c: Context) {
   val reads = mutable.Map[ModId, mutable.Buffer[Timestamp]]()
   val keys = mutable.Map[InputId, mutable.Map[Any, mutable.Buffer[Timestamp]]]()
@@ -42,7 +45,7 @@ class DDG(_c: Context) {
       (input: ListInput[Any, Any],
        key: Any,
        value: Any,
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val putNode = new PutNode(input, key, value)
     val timestamp = nextTimestamp(putNode, c)
 
@@ -52,7 +55,7 @@ class DDG(_c: Context) {
   def addPutAll
       (input: ListInput[Any, Any],
        values: Iterable[(Any, Any)],
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val putNode = new PutAllNode(input, values)
     val timestamp = nextTimestamp(putNode, c)
 
@@ -62,7 +65,7 @@ class DDG(_c: Context) {
   def addPutIn
       (traceable: Traceable[Any, Any, Any],
        parameters: Any,
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val putNode = new PutInNode(traceable, parameters)
     val timestamp = nextTimestamp(putNode, c)
 
@@ -73,7 +76,7 @@ class DDG(_c: Context) {
       (input: ListInput[Any, Any],
        key: Any,
        getter: Any => Unit,
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val getNode = new GetNode(input, key, getter)
     val timestamp = nextTimestamp(getNode, c)
 
@@ -94,7 +97,7 @@ class DDG(_c: Context) {
       (mod: Mod[Any],
        value: Any,
        reader: Any => Changeable[Any],
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val readNode = new ReadNode(mod.id, reader)
     val timestamp = nextTimestamp(readNode, c)
 
@@ -113,7 +116,7 @@ class DDG(_c: Context) {
        value1: Any,
        value2: Any,
        reader: (Any, Any) => Changeable[Any],
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val readNode = new Read2Node(mod1.id, mod2.id, reader)
     val timestamp = nextTimestamp(readNode, c)
 
@@ -141,7 +144,7 @@ class DDG(_c: Context) {
        value2: Any,
        value3: Any,
        reader: (Any, Any, Any) => Changeable[Any],
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val readNode = new Read3Node(mod1.id, mod2.id, mod3.id, reader)
     val timestamp = nextTimestamp(readNode, c)
 
@@ -169,7 +172,7 @@ class DDG(_c: Context) {
   def addMod
       (modId1: ModId,
        modId2: ModId,
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val modNode = new ModNode(modId1, modId2)
     val timestamp = nextTimestamp(modNode, c)
 
@@ -179,7 +182,7 @@ class DDG(_c: Context) {
   def addWrite
       (modId: ModId,
        modId2: ModId,
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val writeNode = new WriteNode(modId, modId2)
     val timestamp = nextTimestamp(writeNode, c)
 
@@ -189,8 +192,9 @@ class DDG(_c: Context) {
   def addPar
       (taskId1: TaskId,
        taskId2: TaskId,
-       c: Context): ParNode = {
-    val parNode = new ParNode(taskId1, taskId2)
+       c: Context,
+       clearOnSplice: Boolean = false): ParNode = synchronized {
+    val parNode = new ParNode(taskId1, taskId2, clearOnSplice)
     val timestamp = nextTimestamp(parNode, c)
 
     pars(taskId1) = timestamp
@@ -204,14 +208,77 @@ class DDG(_c: Context) {
   def addMemo
       (signature: Seq[Any],
        memoizer: Memoizer[_],
-       c: Context): Timestamp = {
+       c: Context): Timestamp = synchronized {
     val memoNode = new MemoNode(signature, memoizer)
     val timestamp = nextTimestamp(memoNode, c)
 
     timestamp
   }
 
-  def nextTimestamp(node: Node, c: Context): Timestamp = {
+  def addPure(body: () => Any, c: Context): Timestamp = synchronized {
+    val pureNode = new PureNode(body)
+    val timestamp = nextTimestamp(pureNode, c)
+
+    pureNode.currentModId = c.currentModId
+    pureNode.currentModId2 = c.currentModId2
+
+    timestamp
+  }
+
+  // Registers the pure node at timestamp as a reader of modId.
+  def addPureRead(timestamp: Timestamp, modId: ModId): Unit = synchronized {
+    val pureNode = timestamp.node.asInstanceOf[PureNode]
+
+    if (!pureNode.modIds.contains(modId)) {
+      pureNode.modIds += modId
+
+      if (reads.contains(modId)) {
+        reads(modId) += timestamp
+      } else {
+        reads(modId) = mutable.Buffer(timestamp)
+      }
+    }
+  }
+
+  // Registers the pure node at timestamp as a reader of key in input.
+  def addPureGet
+      (timestamp: Timestamp,
+       input: ListInput[Any, Any],
+       key: Any): Unit = synchronized {
+    val pureNode = timestamp.node.asInstanceOf[PureNode]
+
+    if (!pureNode.keys.contains((input.inputId, key))) {
+      pureNode.keys += ((input.inputId, key))
+
+      if (!keys.contains(input.inputId)) {
+        keys(input.inputId) = mutable.Map[Any, mutable.Buffer[Timestamp]]()
+      }
+
+      if (keys(input.inputId).contains(key)) {
+        keys(input.inputId)(key) += timestamp
+      } else {
+        keys(input.inputId)(key) = mutable.Buffer(timestamp)
+      }
+    }
+  }
+
+  // Unregisters the pure node at timestamp as a reader of the mods and keys
+  // that it read.
+  def removePureInputs(timestamp: Timestamp): Unit = synchronized {
+    val pureNode = timestamp.node.asInstanceOf[PureNode]
+
+    for (modId <- pureNode.modIds) {
+      reads(modId) -= timestamp
+    }
+    pureNode.modIds.clear()
+
+    for ((inputId, key) <- pureNode.keys) {
+      keys(inputId)(key) -= timestamp
+    }
+    pureNode.keys.clear()
+  }
+
+  def nextTimestamp(node: Node, c: Context): Timestamp = synchronized {
     val time =
       if (c.initialRun)
         ordering.append(node)
@@ -223,7 +290,7 @@ class DDG(_c: Context) {
     time
   }
 
-  def modUpdated(modId: ModId) {
+  def modUpdated(modId: ModId): Unit = synchronized {
     for (timestamp <- reads(modId)) {
       if (!timestamp.node.updated) {
         updated += timestamp
@@ -233,7 +300,7 @@ class DDG(_c: Context) {
     }
   }
 
-  def nodeUpdated(nodeId: NodeId) {
+  def nodeUpdated(nodeId: NodeId): Unit = synchronized {
     val timestamp = nodes(nodeId)
     if (!timestamp.node.updated) {
       updated += timestamp
@@ -242,7 +309,7 @@ class DDG(_c: Context) {
     }
   }
 
-  def keyUpdated(inputId: InputId, key: Any) {
+  def keyUpdated(inputId: InputId, key: Any): Unit = synchronized {
     for (timestamp <- keys(inputId)(key)) {
       if (!timestamp.node.updated) {
         updated += timestamp
@@ -252,7 +319,7 @@ class DDG(_c: Context) {
     }
   }
 
-  def modRemoved(modId: ModId) {
+  def modRemoved(modId: ModId): Unit = synchronized {
     if (reads.contains(modId)) {
       for (timestamp <- reads(modId)) {
         timestamp.node.updated = false
@@ -260,7 +327,7 @@ class DDG(_c: Context) {
     }
   }
 
-  def keyRemoved(inputId: InputId, key: Any) {
+  def keyRemoved(inputId: InputId, key: Any): Unit = synchronized {
     if (keys.contains(inputId) && keys(inputId).contains(key)) {
       for (timestamp <- keys(inputId)(key)) {
         timestamp.node.updated = false
@@ -269,7 +336,7 @@ class DDG(_c: Context) {
   }
 
   // Pebbles a par node. Returns true iff the pebble did not already exist.
-  def parUpdated(taskId: TaskId): Boolean = {
+  def parUpdated(taskId: TaskId): Boolean = synchronized {
     val timestamp = pars(taskId)
     val parNode = timestamp.node.asInstanceOf[ParNode]
 
@@ -345,6 +412,10 @@ class DDG(_c: Context) {
           prefix + "RootNode=" + root + "\n"
         case write: WriteNode =>
           prefix + write + " modId=(" + write.modId + ")\n"
+        case pure: PureNode =>
+          prefix + pure + " modIds=(" + pure.modIds.mkString(", ") + ")" +
+          " time=" + time + " to " + time.end + " updated=(" +
+          pure.updated + ")\n"
         case x => "???"
       }
       out.append(thisString)
@@ -50,6 +50,8 @@ class DDGPrinter
         writeShape(name, "triangle", "par")
       case getNode: GetNode =>
         writeShape(name, "square", "get")
+      case pureNode: PureNode =>
+        writeShape(name, "box", "pure")
       case putNod: PutNode =>
         writeShape(name, "circle", "put")
       case putAllNode: PutAllNode =>
@@ -15,8 +15,10 @@
  */
 package tdb.ddg
 
+import scala.collection.mutable
+
 import tdb._
-import tdb.Constants.{ModId, TaskId}
+import tdb.Constants.{InputId, ModId, TaskId}
 import tdb.list.ListInput
 
 object Node {
@@ -51,9 +53,13 @@ class ModNode
 
 class ParNode
     (val taskId1: TaskId,
-     val taskId2: TaskId) extends Node {
+     val taskId2: TaskId,
+     val clearOnSplice: Boolean = false) extends Node {
   var pebble1 = false
   var pebble2 = false
+
+  // Set once the node has been spliced out of the trace.
+  var spliced = false
 }
 
 class PutNode
@@ -95,6 +101,18 @@ class Read3Node
      val modId3: ModId,
      val reader: (Any, Any, Any) => Changeable[Any]) extends ReexecutableNode
 
+// A block marked with TDB.pure. Rather than recording a node for each read,
+// get, and put that the body makes, this node is registered as a reader of
+// every mod and key the body reads and keeps the values it puts, so that it
+// can be reexecuted as a whole when any of them change.
+class PureNode(val body: () => Any) extends ReexecutableNode {
+  val modIds = mutable.Set[ModId]()
+
+  val keys = mutable.Set[(InputId, Any)]()
+
+  var puts = mutable.Buffer[(ListInput[Any, Any], Iterable[(Any, Any)])]()
+}
+
 class RootNode extends Node
 
 class WriteNode(val modId: ModId, val modId2: ModId) extends Node
@@ -15,12 +15,34 @@
  */
 package tdb.ddg
 
+import java.util.{Collections, WeakHashMap}
+import scala.collection.JavaConversions._
 import scala.collection.mutable.Buffer
 
 import tdb.Constants.ModId
 
+object Ordering {
+  // The orderings of the DDGs on this JVM, which are dropped either when
+  // their task is stopped or when they're garbage collected.
+  private val live = Collections.synchronizedSet(
+    Collections.newSetFromMap(new WeakHashMap[Ordering, java.lang.Boolean]()))
+
+  // The number of timestamps in all live orderings. This is computed when the
+  // ddgSize gauge is read, so that it is correct whether or not metrics were
+  // enabled while the orderings were built.
+  def totalSize(): Long =
+    live.synchronized {
+      live.foldLeft(0L)(_ + _.size)
+    }
+}
+
 class Ordering {
+  Ordering.live.add(this)
+
   val maxSize = Int.MaxValue / 2
+
+  // The number of timestamps in this ordering.
+  @volatile var size = 0
   val base = new Sublist(0, null)
   base.next = new Sublist(1, base)
   base.previous = base.next
@@ -36,6 +58,7 @@ class Ordering {
       }
 
     val newTimestamp = previousSublist.after(t, node)
+    size += 1
     if (previousSublist.size > 63) {
       val newSublist = sublistAfter(previousSublist)
       assert(previousSublist.id != newSublist.id)
@@ -46,6 +69,7 @@ class Ordering {
   }
 
   def append(node: Node): Timestamp = {
+    size += 1
     val newTimestamp =
       if (base.previous.size > 31) {
         val newSublist = sublistAppend()
@@ -128,6 +152,7 @@ class Ordering {
   }
 
   def remove(t: Timestamp) {
+    size -= 1
     t.sublist.remove(t)
 
     if (t.sublist.size == 0) {
@@ -136,6 +161,11 @@ class Ordering {
     }
   }
 
+  // Stops counting this ordering's timestamps towards the ddgSize gauge.
+  def release() {
+    Ordering.live.remove(this)
+  }
+
   def getMods(): Iterable[ModId] = {
     val mods = Buffer[ModId]()
 
@@ -162,10 +192,18 @@ class Ordering {
     mods
   }
 
-  def splice(start: Timestamp, end: Timestamp, c: tdb.Context) {
+  // If clearTasks is set, as it is when clearing a task, every child task is
+  // cleared too, rather than only those whose ParNode asks for it.
+  def splice
+      (start: Timestamp,
+       end: Timestamp,
+       c: tdb.Context,
+       clearTasks: Boolean = false) {
     var time = start
     while (time < end) {
       val node = time.node
+      size -= 1
+      c.splicedNodes.incrementAndGet()
 
       if (time.end != null) {
         node match {
@@ -189,6 +227,11 @@ class Ordering {
 
           case parNode: ParNode =>
             parNode.updated = false
+            parNode.spliced = true
+            if (clearTasks || parNode.clearOnSplice) {
+              c.clearTask(parNode.taskId1)
+              c.clearTask(parNode.taskId2)
+            }
           case putNode: PutNode =>
             c.buffers(putNode.input)
               .removeAll(Iterable((putNode.key, putNode.value)))
@@ -199,6 +242,12 @@ class Ordering {
           case getNode: GetNode =>
             getNode.updated = false
             c.ddg.keys(getNode.input.inputId)(getNode.key) -= time
+          case pureNode: PureNode =>
+            pureNode.updated = false
+            c.ddg.removePureInputs(time)
+            for ((input, values) <- pureNode.puts) {
+              c.buffers(input).removeAll(values)
+            }
           case x => println("Tried to splice unknown node type " + x)
         }
 
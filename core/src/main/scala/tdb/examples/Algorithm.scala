@@ -22,6 +22,7 @@ import tdb.{Adjustable, Mutator}
 import tdb.Debug._
 import tdb.list.ListConf
 import tdb.master.{MasterConf, MasterConnector}
+import tdb.stats.Metrics
 import tdb.worker.WorkerConf
 
 abstract class Algorithm[Output](val conf: AlgorithmConf) {
@@ -37,7 +38,8 @@ abstract class Algorithm[Output](val conf: AlgorithmConf) {
       val args = Array("--cacheSize", conf.cacheSize.toString,
         "--envHomePath", conf.envHomePath)
       val masterConf = new MasterConf(
-        Array("--port", Experiment.port.toString, "--log", conf.logLevel))
+        Array("--port", Experiment.port.toString, "--log", conf.logLevel,
+              "--store", conf.storeType))
 
       MasterConnector(
         workerArgs = args,
@@ -162,6 +164,7 @@ abstract class Algorithm[Output](val conf: AlgorithmConf) {
       println("Initial run.")
     }
 
+    val ddgBefore = Metrics.ddgSize.get()
     val gcBefore = getGCTime()
     val before = System.currentTimeMillis()
     output = mutator.run[Output](adjust)
@@ -175,6 +178,15 @@ abstract class Algorithm[Output](val conf: AlgorithmConf) {
     results("initial") = elapsed - gcElapsed
     results("initial-load") = loadElapsed
     results("initial-gc") = gcElapsed
+    results("initial-ddg") = Metrics.ddgSize.get() - ddgBefore
+
+    // The memory retained by the input and the computation, outside of the
+    // timings. Collecting first leaves out the garbage that the peak heap
+    // usage includes.
+    System.gc()
+    results("initial-heap") = ManagementFactory.getMemoryMXBean()
+      .getHeapMemoryUsage().getUsed()
+    results("initial-offheap") = Metrics.offHeapBytes.get()
   }
 
   def update() {
@@ -34,7 +34,8 @@ case class AlgorithmConf(
   updateRepeat: Int,
   listConf: ListConf,
   iters: Int,
-  epsilon: Double) {
+  epsilon: Double,
+  pure: Boolean) {
 
   def apply(param: String): String =
     param match {
@@ -45,5 +46,6 @@ case class AlgorithmConf(
       case "files" => file
       case "iters" => iters.toString
       case "partitions" => listConf.partitions.toString
+      case "pure" => pure.toString
     }
 }
@@ -0,0 +1,249 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.examples
+
+import akka.util.Timeout
+import java.io._
+import java.lang.management.{ManagementFactory, MemoryType}
+import scala.collection.JavaConversions._
+import scala.collection.mutable.{Buffer, LinkedHashMap, Map}
+import scala.concurrent.duration._
+import scala.io.Source
+
+import tdb.Constants
+import tdb.list.ListConf
+import tdb.util.Data
+
+// Runs the examples end to end on generated data and records, for the initial
+// run and each update size, latency percentiles and throughput, along with
+// the time spent in GC, the peak heap usage, and the heap and off-heap memory
+// retained after the initial run, as JSON. Every trial uses the
+// same seed, so trials and runs on different versions see the same input
+// and updates. If a baseline is given, metrics that are worse than in it by
+// more than the threshold are reported and the exit status is non-zero.
+//
+// The number of timestamps in the DDG after the initial run is counted
+// during the warmup trials, so that the instrumentation needed to count it
+// doesn't affect the measured ones.
+object Benchmark {
+  def main(args: Array[String]) {
+    val conf = new BenchmarkConf(args)
+
+    Constants.DURATION = conf.timeout().seconds
+    Constants.TIMEOUT = Timeout(Constants.DURATION)
+
+    // Algorithm reads some of its options from the Experiment.
+    Experiment.conf = new ExperimentConf(Array[String]())
+    Experiment.verbosity = 0
+
+    val metrics = LinkedHashMap[String, Double]()
+    for (algorithm <- conf.algorithms();
+         count <- conf.counts();
+         pure <- conf.pure().map(_.toBoolean)) {
+      val name = algorithm + "-" + count + (if (pure) "-pure" else "")
+
+      var ddgSize = -1.0
+      for (i <- 0 until conf.warmup()) {
+        println(name + ": warmup " + (i + 1) + "/" + conf.warmup())
+        val results = runTrial(conf, algorithm, count.toInt, pure)
+
+        ddgSize = results("initial-ddg")
+      }
+
+      val trials =
+        for (i <- 0 until conf.trials()) yield {
+          println(name + ": trial " + (i + 1) + "/" + conf.trials())
+          runTrial(conf, algorithm, count.toInt, pure)
+        }
+
+      metrics ++= summarize(name, count.toInt, trials)
+      if (ddgSize >= 0) {
+        metrics(name + "/ddg_timestamps") = ddgSize
+      }
+    }
+
+    writeJson(conf, metrics, conf.output())
+    println("Wrote " + metrics.size + " metrics to " + conf.output())
+
+    if (conf.baseline() != "") {
+      val baseline = readBaseline(conf.baseline())
+      val found = regressions(baseline, metrics, conf.threshold())
+
+      for (regression <- found) {
+        println("REGRESSION " + regression)
+      }
+
+      if (found.size > 0) {
+        sys.exit(1)
+      } else {
+        println("No regressions against " + conf.baseline())
+      }
+    }
+  }
+
+  // Returns the results recorded by Algorithm, plus the peak heap usage.
+  private def runTrial
+      (conf: BenchmarkConf, algorithm: String, count: Int, pure: Boolean)
+      : Map[String, Double] = {
+    Data.seed = conf.seed()
+
+    val algConf = AlgorithmConf(
+      algorithm = algorithm,
+      cacheSize = 10000,
+      count = count,
+      envHomePath = "/tmp/tdb_berkeleydb",
+      file = "",
+      logLevel = conf.log(),
+      master = "",
+      mutations = List("insert", "update", "remove"),
+      naive = false,
+      runs = conf.runs(),
+      repeat = 0,
+      storeType = conf.store(),
+      updateFile = "",
+      updateRepeat = conf.updateRepeat(),
+      listConf = ListConf(
+        partitions = conf.partitions(), chunkSize = conf.chunkSize()),
+      iters = conf.iters(),
+      epsilon = 0.001,
+      pure = pure)
+
+    val pools = ManagementFactory.getMemoryPoolMXBeans()
+      .filter(_.getType() == MemoryType.HEAP)
+    for (pool <- pools) {
+      pool.resetPeakUsage()
+    }
+
+    val results = Experiment.createAlgorithm(algConf).run()
+    results("peak-heap") = pools.map(_.getPeakUsage().getUsed()).sum
+
+    results
+  }
+
+  private def summarize
+      (name: String, count: Int, trials: Seq[Map[String, Double]])
+      : Buffer[(String, Double)] = {
+    val metrics = Buffer[(String, Double)]()
+
+    // Clients wait for garbage collection too, so it's included.
+    def latency(results: Map[String, Double], run: String) =
+      results(run) + results(run + "-gc")
+
+    metrics ++= latencies(
+      name + "/initial", count, trials.map(latency(_, "initial")))
+
+    // Algorithm records the first repetition of each update size under the
+    // size itself, and later ones under size-i, with i formatted as a Double.
+    val sizes = trials.head.keys.filter(_.endsWith("-count"))
+      .map(_.stripSuffix("-count")).toBuffer.sortBy((_: String).toInt)
+    for (size <- sizes) {
+      val samples =
+        for (results <- trials;
+             i <- 0 until results(size + "-count").toInt) yield {
+          latency(results, if (i == 0) size else size + "-" + i.toDouble)
+        }
+
+      metrics ++= latencies(name + "/" + size, size.toInt, samples)
+    }
+
+    val gcTimes = trials.map(_.filterKeys(_.endsWith("-gc")).values.sum)
+    metrics += ((name + "/gc_ms", gcTimes.sum / gcTimes.size))
+    metrics += ((name + "/peak_heap_bytes", trials.map(_("peak-heap")).max))
+    metrics += ((name + "/live_heap_bytes", trials.map(_("initial-heap")).max))
+    metrics += ((name + "/offheap_bytes", trials.map(_("initial-offheap")).max))
+
+    metrics
+  }
+
+  private def latencies(prefix: String, elements: Int, samples: Seq[Double])
+      : Buffer[(String, Double)] = {
+    val sorted = samples.sorted
+    def percentile(p: Double) =
+      sorted(math.max(math.ceil(p * sorted.size).toInt - 1, 0))
+
+    val mean = sorted.sum / sorted.size
+
+    Buffer(
+      prefix + "/p50_ms" -> percentile(0.5),
+      prefix + "/p90_ms" -> percentile(0.9),
+      prefix + "/p99_ms" -> percentile(0.99),
+      prefix + "/mean_ms" -> mean,
+      prefix + "/elements_per_s" -> elements / math.max(mean, 1.0) * 1000)
+  }
+
+  private def writeJson
+      (conf: BenchmarkConf, metrics: Map[String, Double], fileName: String) {
+    val output = new BufferedWriter(new OutputStreamWriter(
+      new FileOutputStream(fileName), "utf-8"))
+
+    output.write("{\n")
+    output.write("  \"seed\": " + conf.seed() + ",\n")
+    output.write("  \"warmup\": " + conf.warmup() + ",\n")
+    output.write("  \"trials\": " + conf.trials() + ",\n")
+    output.write("  \"updateRepeat\": " + conf.updateRepeat() + ",\n")
+    output.write("  \"partitions\": " + conf.partitions() + ",\n")
+    output.write("  \"store\": \"" + conf.store() + "\",\n")
+    output.write("  \"metrics\": {\n")
+    output.write(metrics.map {
+      case (key, value) => "    \"" + key + "\": " + value
+    }.mkString(",\n"))
+    output.write("\n  }\n}\n")
+
+    output.close()
+  }
+
+  // Reads the metrics back from a file written by writeJson.
+  private def readBaseline(fileName: String): Map[String, Double] = {
+    val metric = """\s*"(.+/.+)": ([^,]+),?""".r
+
+    val baseline = Map[String, Double]()
+    for (line <- Source.fromFile(fileName).getLines()) {
+      line match {
+        case metric(key, value) => baseline(key) = value.toDouble
+        case _ =>
+      }
+    }
+
+    baseline
+  }
+
+  // Returns a description of each metric that's worse than in the baseline by
+  // more than threshold. Throughputs are worse when they're lower, and
+  // everything else when it's higher. Latency differences under a
+  // millisecond are below the resolution of the timings, so they're ignored.
+  private def regressions
+      (baseline: Map[String, Double],
+       metrics: Map[String, Double],
+       threshold: Double): Buffer[String] = {
+    val found = Buffer[String]()
+
+    for ((key, value) <- metrics if baseline.contains(key)) {
+      val old = baseline(key)
+      val change =
+        if (old == 0) 0.0
+        else if (key.endsWith("_per_s")) (old - value) / old
+        else (value - old) / old
+
+      val significant = !key.endsWith("_ms") || (value - old).abs >= 1
+      if (change > threshold && significant) {
+        found += key + ": " + old + " -> " + value + " (" +
+          Experiment.round(change * 100) + "% worse)"
+      }
+    }
+
+    found
+  }
+}
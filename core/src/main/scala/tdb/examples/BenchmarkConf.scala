@@ -0,0 +1,58 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.examples
+
+import org.rogach.scallop._
+
+class BenchmarkConf(_args: Array[String]) extends ScallopConf(_args) {
+  version("TDB 0.1 (c) 2014 Carnegie Mellon University")
+  banner("Usage: benchmark.sh [options]")
+  val algorithms = opt[List[String]]("algorithms", 'a',
+    default = Some(List("wc", "pgrank")),
+    descr = "Algorithms to benchmark, see Experiment.createAlgorithm.")
+  val baseline = opt[String]("baseline", 'b', default = Some(""),
+    descr = "Results of an earlier run to compare against. If any metric " +
+    "is worse than in the baseline by more than --threshold, the " +
+    "benchmark exits with a non-zero status.")
+  val chunkSize = opt[Int]("chunkSize", 's', default = Some(1))
+  val counts = opt[List[String]]("counts", 'c',
+    default = Some(List("10000")),
+    descr = "Number of elements to generate initially.")
+  val iters = opt[Int]("iters", default = Some(1))
+  val log = opt[String]("log", default = Some("WARNING"))
+  val output = opt[String]("output", 'o', default = Some("benchmark.json"),
+    descr = "The file to write the results to.")
+  val partitions = opt[Int]("partitions", 'p', default = Some(4))
+  val pure = opt[List[String]]("pure", default = Some(List("false")),
+    descr = "Whether to trace the algorithms' per-key work with TDB.pure. " +
+    "Passing 'false true' benchmarks both, for comparison.")
+  val runs = opt[List[String]]("runs", 'r',
+    default = Some(List("1", "10", "100")),
+    descr = "Update sizes to measure after the initial run.")
+  val seed = opt[Long]("seed", default = Some(42L),
+    descr = "Seeds the data generators. Every trial uses the same seed.")
+  val store = opt[String]("store", 'w', default = Some("memory"))
+  val threshold = opt[Double]("threshold", 't', default = Some(0.1),
+    descr = "The fraction by which a metric may be worse than the baseline " +
+    "before it's flagged as a regression.")
+  val timeout = opt[Int]("timeout", default = Some(1000))
+  val trials = opt[Int]("trials", 'n', default = Some(5),
+    descr = "The number of measured trials of each algorithm.")
+  val updateRepeat = opt[Int]("updateRepeat", default = Some(3),
+    descr = "The number of times to repeat each update size within a trial.")
+  val warmup = opt[Int]("warmup", default = Some(2),
+    descr = "The number of trials to run and discard before measuring.")
+}
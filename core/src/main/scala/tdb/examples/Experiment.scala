@@ -149,6 +149,18 @@ object Experiment {
     writer.close()
   }
 
+  def createAlgorithm(algConf: AlgorithmConf): Algorithm[_] =
+    algConf.algorithm match {
+      case "map" => new MapAlgorithm(algConf)
+      case "pgrank" => new PageRankAlgorithm(algConf)
+      case "cpgr" => new ColumnPageRankAlgorithm(algConf)
+      case "rpgr" => new ReversePageRankAlgorithm(algConf)
+      case "wc" => new WCAlgorithm(algConf)
+      case "wch" => new WCHashAlgorithm(algConf)
+      case "cw" => new CWChunkHashAlgorithm(algConf)
+      case "rcw" => new RandomCWAlgorithm(algConf)
+    }
+
   def main(args: Array[String]) {
     conf = new ExperimentConf(args)
 
@@ -165,6 +177,7 @@ object Experiment {
   def run(_conf: ExperimentConf) {
     conf = _conf
     fast = conf.fast()
+    Data.seed = conf.seed()
     confs("algorithms") = conf.algorithms()
     confs("counts") = conf.counts()
     confs("files") = conf.files()
@@ -246,20 +259,10 @@ object Experiment {
           updateRepeat = conf.updateRepeat(),
           listConf = listConf,
           iters = iters,
-          epsilon = epsilon)
-
-        val alg = algorithm match {
-          case "map" => new MapAlgorithm(algConf)
-          case "pgrank" => new PageRankAlgorithm(algConf)
-          case "cpgr" => new ColumnPageRankAlgorithm(algConf)
-          case "rpgr" => new ReversePageRankAlgorithm(algConf)
-          case "wc" => new WCAlgorithm(algConf)
-          case "wch" => new WCHashAlgorithm(algConf)
-          case "cw" => new CWChunkHashAlgorithm(algConf)
-          case "rcw" => new RandomCWAlgorithm(algConf)
-        }
+          epsilon = epsilon,
+          pure = conf.pure())
 
-        val results = alg.run()
+        val results = createAlgorithm(algConf).run()
 
         if (verbosity > 0) {
           println(results)
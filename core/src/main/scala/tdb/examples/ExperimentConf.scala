@@ -74,6 +74,9 @@ class ExperimentConf(_args: Array[String]) extends ScallopConf(_args) {
     descr = "Number of partitions to divide the input into. If 0, this will " +
     "be set to the number of available CPU cores.")
   val prompts = toggle("prompts", default = Some(false))
+  val pure = toggle("pure", default = Some(false),
+    descrYes = "Trace the per-key work of the algorithms that support it " +
+    "(pgrank, wch) with TDB.pure.")
   val repeat = opt[Int]("repeat", 'q', default = Some(3),
     descr = "The number of times to repeat the test.")
   val runs = opt[List[String]]("runs", 'r',
@@ -81,8 +84,11 @@ class ExperimentConf(_args: Array[String]) extends ScallopConf(_args) {
     descr = "What test runs to execute. 'naive' and 'initial' are " +
     "included automatically, so this is a list of update sizes (f >= 1) " +
     "or update percentages (0 < f < 1).")
+  val seed = opt[Long]("seed", default = Some(-1L),
+    descr = "Seeds the random data generators, so that runs are repeatable. " +
+    "If -1, a different seed is used each time.")
   val store = opt[String]("store", 'w', default = Some("memory"),
-    descr = "The data store type to use - memory or berkeleydb.")
+    descr = "The data store type to use - memory, offheap, or berkeleydb.")
   val timeout = opt[Int]("timeout", 't', default = Some(1000))
   val updateFile = opt[String]("updateFile", 'u', default = Some("updates.txt"),
     descr = "The file to read the updates from, if needed.")
@@ -24,60 +24,51 @@ import tdb.TDB._
 import tdb.util._
 
 class PageRankAdjust
-    (links: AdjustableList[Int, Array[Int]], epsilon: Double, iters: Int)
+    (links: AdjustableList[Int, Array[Int]],
+     epsilon: Double,
+     iters: Int,
+     pure: Boolean = false)
   extends Adjustable[AdjustableList[Int, Double]] {
 
+  // Ranks start at 1.0, and each iteration's change is pushed along each
+  // vertex's out edges as a delta, so the sum matches iters rounds of the
+  // power iteration until all of the changes are below epsilon. As before,
+  // contributions of at most epsilon are dropped.
   def run(implicit c: Context) = {
-    val aggregatorConf = AggregatorListConf(
-      valueType = AggregatedDoubleColumn(epsilon))
-
-    def innerPageRank(i: Int): ListInput[Int, Double] = {
-      if (i == 1) {
-        val newRanks = createList[Int, Double](aggregatorConf)
-
-        def mapper(pair: (Int, Array[Int]), c: Context) {
-          val rank = 1.0
-          put(newRanks, pair._1, 0.15)(c)
-          val v = (rank / pair._2.size) * .85
-          putAll(newRanks, for (edge <- pair._2) yield (edge, v))(c)
-        }
-
-        links.foreach(mapper)
-
-        newRanks
-      } else {
-        val ranks = innerPageRank(i - 1)
-        val newRanks = createList[Int, Double](aggregatorConf)
-
-        def mapper(pair: (Int, Array[Int]), c: Context) {
-          put(newRanks, pair._1, 0.15)(c)
-          get(ranks, pair._1) {
-            case rank =>
-              val v = (rank / pair._2.size) * .85
-              putAll(newRanks, for (edge <- pair._2) yield (edge, v))(c)
-          }(c)
-        }
-
-        links.foreach(mapper)
-
-        newRanks
-      }
+    val ranks = iterate(links, epsilon, iters - 1, pure, epsilon) {
+      case (pair, ranks, deltas, c) =>
+        put(ranks, pair._1, 1.0)(c)
+        put(deltas, pair._1, 0.15 - 1.0)(c)
+        putEdges(deltas, pair._2, (1.0 / pair._2.size) * .85)(c)
+    } {
+      case (pair, delta, deltas, c) =>
+        val v = (delta / pair._2.size) * .85
+        putEdges(deltas, pair._2, v)(c)
     }
 
-    innerPageRank(iters).getAdjustableList()
+    ranks.getAdjustableList()
   }
 }
 
 class PageRankAlgorithm(_conf: AlgorithmConf)
     extends Algorithm[AdjustableList[Int, Double]](_conf) {
-  val input = mutator.createList[Int, Array[Int]](conf.listConf.clone(file = ""))
-
-  //val data = new GraphData(input, conf.count, conf.mutations, conf.runs)
-  val data = new GraphFileData(input, conf.file, conf.runs, conf.updateRepeat)
+  // Chunked inputs store their adjacency lists in CSR form.
+  val input = mutator.createList[Int, Array[Int]](conf.listConf match {
+    case listConf: SimpleListConf =>
+      listConf.copy(file = "", chunkEncoding = "csr")
+    case listConf => listConf.clone(file = "")
+  })
+
+  val data =
+    if (conf.file == "") {
+      new GraphData(input, conf.count, conf.mutations, repeatedRuns)
+    } else {
+      new GraphFileData(input, conf.file, conf.runs, conf.updateRepeat)
+    }
   //val data = new LiveJournalData(input)
 
   val adjust = new PageRankAdjust(
-    input.getAdjustableList(), conf.epsilon, conf.iters)
+    input.getAdjustableList(), conf.epsilon, conf.iters, conf.pure)
 
   var naiveTable: Map[Int, Array[Int]] = _
   def generateNaive() {
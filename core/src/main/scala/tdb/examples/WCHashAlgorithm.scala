@@ -53,7 +53,7 @@ object WCHash {
 }
 
 class WCHashAdjust
-    (list: AdjustableList[String, String], conf: ListConf)
+    (list: AdjustableList[String, String], conf: ListConf, pure: Boolean)
       extends Adjustable[AdjustableList[String, Int]] {
 
   def wordcount(pair: (String, String)) = {
@@ -72,6 +72,8 @@ class WCHashAdjust
     val output = createList[String, Int](aggConf)
 
     list.foreach {
+      case (chunk, c) if pure =>
+        TDB.pure { putAll(output, wordcount(chunk))(c) }(c)
       case (chunk, c) =>
         putAll(output, wordcount(chunk))(c)
     }
@@ -81,7 +83,7 @@ class WCHashAdjust
 
 
 class WCChunkHashAdjust
-    (list: AdjustableList[String, String], conf: ListConf)
+    (list: AdjustableList[String, String], conf: ListConf, pure: Boolean)
       extends Adjustable[AdjustableList[String, Int]] {
 
   def wordcount(chunk: Iterable[(String, String)]) = {
@@ -101,6 +103,9 @@ class WCChunkHashAdjust
 
     val output = createList[String, Int](aggConf)
     list.foreachChunk {
+      case (chunk, c) if pure =>
+        output.touch()
+        TDB.pure { putAll(output, wordcount(chunk))(c) }(c)
       case (chunk, c) =>
         output.touch()
         putAll(output, wordcount(chunk))(c)
@@ -117,9 +122,10 @@ class WCHashAlgorithm(_conf: AlgorithmConf)
 
   val adjust =
     if (conf.listConf.chunkSize > 1)
-      new WCChunkHashAdjust(input.getAdjustableList(), conf.listConf)
+      new WCChunkHashAdjust(
+        input.getAdjustableList(), conf.listConf, conf.pure)
     else
-      new WCHashAdjust(input.getAdjustableList(), conf.listConf)
+      new WCHashAdjust(input.getAdjustableList(), conf.listConf, conf.pure)
 
   val data =
     if (conf.file == "") {
@@ -121,4 +121,11 @@ trait AdjustableList[T, U] {
 
   /* Meta functions */
   def toBuffer(mutator: Mutator): Buffer[(T, U)]
+
+  /**
+   * Returns an iterator over the contents of this list. Lists that support it
+   * are read by the datastores in batches of batchSize, see ExportIterator.
+   */
+  def export(mutator: Mutator, batchSize: Int): Iterator[(T, U)] =
+    toBuffer(mutator).iterator
 }
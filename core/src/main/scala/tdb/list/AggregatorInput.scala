@@ -23,7 +23,7 @@ import scala.concurrent.{Await, Future}
 import tdb.Resolver
 import tdb.Constants._
 import tdb.messages._
-import tdb.util.ObjHasher
+import tdb.util.{IntDoubleMap, ObjHasher}
 
 class AggregatorInput[T, U]
     (val inputId: InputId,
@@ -68,28 +68,54 @@ class AggregatorBuffer[T, U]
 
   private val toPut = Map[T, U]()
 
+  // Contributions from putEdges, summed per target in a primitive map for each
+  // partition. Only used if the list aggregates Doubles by adding them.
+  private val edgeSums = Map[Int, IntDoubleMap]()
+
+  private val sumsDoubles = conf.valueType.columnType == "Double"
+
+  private def addEdges(edges: EdgeContributions, value: Double) {
+    val targets = edges.targets
+    var i = 0
+    while (i < targets.length) {
+      val hash = input.hasher.hashInt(targets(i))
+      edgeSums.getOrElseUpdate(hash, new IntDoubleMap()).add(targets(i), value)
+      i += 1
+    }
+  }
+
   def putAll(values: Iterable[(T, U)]) {
-    for ((key, value) <- values) {
-      if (toPut.contains(key)) {
-        toPut(key) = conf.valueType.aggregator(toPut(key), value)
-          .asInstanceOf[U]
-      } else {
-        toPut(key) = value
-      }
+    values match {
+      case edges: EdgeContributions if sumsDoubles =>
+        addEdges(edges, edges.value)
+      case _ =>
+        for ((key, value) <- values) {
+          if (toPut.contains(key)) {
+            toPut(key) = conf.valueType.aggregator(toPut(key), value)
+              .asInstanceOf[U]
+          } else {
+            toPut(key) = value
+          }
+        }
     }
   }
 
   def putAllIn(column: String, values: Iterable[(T, Any)]) = ???
 
   def removeAll(values: Iterable[(T, U)]) {
-    for ((key, value) <- values) {
-      if (toPut.contains(key)) {
-        toPut(key) = conf.valueType.deaggregator(toPut(key), value)
-          .asInstanceOf[U]
-      } else {
-        toPut(key) = conf.valueType.deaggregator(
-          conf.valueType.initialValue, value).asInstanceOf[U]
-      }
+    values match {
+      case edges: EdgeContributions if sumsDoubles =>
+        addEdges(edges, -edges.value)
+      case _ =>
+        for ((key, value) <- values) {
+          if (toPut.contains(key)) {
+            toPut(key) = conf.valueType.deaggregator(toPut(key), value)
+              .asInstanceOf[U]
+          } else {
+            toPut(key) = conf.valueType.deaggregator(
+              conf.valueType.initialValue, value).asInstanceOf[U]
+          }
+        }
     }
   }
 
@@ -111,11 +137,20 @@ class AggregatorBuffer[T, U]
   def flush(resolver: Resolver, recovery: Boolean) {
     if (recovery) {
       toPut.clear()
+      edgeSums.clear()
     } else {
       val futures = Buffer[Future[Any]]()
 
       futures += asyncPutAll(toPut, resolver)
 
+      for ((hash, sums) <- edgeSums if !sums.isEmpty) {
+        val (keys, values) = sums.toArrays()
+
+        val datastoreId = input.hasher.objs(hash)
+        futures += resolver.send(datastoreId, PutDoublesMessage(keys, values))
+        sums.clear()
+      }
+
       toPut.clear()
 
       Await.result(Future.sequence(futures), DURATION)
@@ -45,6 +45,7 @@ class AggregatorList[T, U](datastoreId: TaskId)
 
   /* Meta functions */
   def toBuffer(mutator: Mutator): Buffer[(T, U)] = {
+    mutator.demand()
     val future = mutator.masterRef ? MutatorToBufferMessage(datastoreId)
     Await.result(future.mapTo[Buffer[(T, U)]], DURATION)
   }
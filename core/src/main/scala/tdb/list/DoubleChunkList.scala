@@ -137,6 +137,9 @@ class DoubleChunkList[T, U]
     buf
   }
 
+  override def export(mutator: Mutator, batchSize: Int): Iterator[(T, U)] =
+    new ExportIterator(mutator, Buffer(head.id), batchSize)
+
   override def equals(that: Any): Boolean = {
     that match {
       case thatList: DoubleChunkList[T, U] => head == thatList.head
@@ -201,6 +201,9 @@ class DoubleList[T, U]
     buf
   }
 
+  override def export(mutator: Mutator, batchSize: Int): Iterator[(T, U)] =
+    new ExportIterator(mutator, Buffer(head.id), batchSize)
+
   override def equals(that: Any): Boolean = {
     that match {
       case thatList: DoubleList[T, U] => head == thatList.head
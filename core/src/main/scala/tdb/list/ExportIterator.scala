@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.list
+
+import akka.pattern.ask
+import scala.collection.mutable.Buffer
+import scala.concurrent.{Await, Future}
+
+import tdb.{Mod, Mutator}
+import tdb.Constants._
+import tdb.messages._
+
+// Iterates over the lists with the given head nodes, in order, by having
+// the datastores walk them and send back batches of about batchSize
+// elements. The first batch of every list is requested up front so that the
+// partitions of a list are read in parallel, and the next batch of each list
+// is requested as soon as the previous one arrives.
+class ExportIterator[T, U]
+    (mutator: Mutator, heads: Iterable[ModId], batchSize: Int)
+  extends Iterator[(T, U)] {
+
+  private val batches = Buffer[Future[Any]]()
+  for (head <- heads) {
+    batches += request(head)
+  }
+
+  private var current: Iterator[(Any, Any)] = Iterator.empty
+
+  private def request(nodeId: ModId): Future[Any] = {
+    val message = ExportListMessage(nodeId, batchSize, mutator.pinned)
+    mutator.masterRef ? message
+  }
+
+  def hasNext: Boolean = {
+    while (!current.hasNext && batches.size > 0) {
+      val (values, next) = Await.result(batches(0), DURATION)
+        .asInstanceOf[(Buffer[(Any, Any)], ModId)]
+
+      if (next == -1) {
+        batches.remove(0)
+        current = values.iterator
+      } else if (values.size == 0) {
+        // The datastore couldn't read this node's values because they're in
+        // another JVM, so fall back to reading it through the master.
+        val (nodeValues, nodeNext) = readNode(next)
+        if (nodeNext == -1) {
+          batches.remove(0)
+        } else {
+          batches(0) = request(nodeNext)
+        }
+        current = nodeValues.iterator
+      } else {
+        batches(0) = request(next)
+        current = values.iterator
+      }
+    }
+
+    current.hasNext
+  }
+
+  def next(): (T, U) = {
+    if (!hasNext) {
+      throw new NoSuchElementException()
+    }
+
+    current.next().asInstanceOf[(T, U)]
+  }
+
+  private def readNode(nodeId: ModId): (Iterable[(Any, Any)], ModId) =
+    mutator.read(new Mod[Any](nodeId)) match {
+      case node: DoubleListNode[_, _] =>
+        (Buffer(mutator.read(node.valueMod)), node.nextMod.id)
+      case node: DoubleChunkListNode[_, _] =>
+        (mutator.read(node.chunkMod), node.nextMod.id)
+      case null =>
+        (Buffer(), -1)
+    }
+}
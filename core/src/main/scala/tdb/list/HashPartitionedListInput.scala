@@ -65,10 +65,27 @@ abstract class HashPartitionedListInput[T, U](masterRef: ActorRef)
     resolver.send(datastoreId, PutMessage("keys", key, value, null))
   }
 
+  def putAll(values: Iterable[(T, U)]) {
+    val futures = Buffer[Future[Any]]()
+    val hashedPut = hasher.hashAll(values)
+
+    for ((hash, buf) <- hashedPut) {
+      if (buf.size > 0) {
+        val datastoreId = hasher.objs(hash)
+        futures += resolver.send(datastoreId, PutAllMessage(buf))
+      }
+    }
+
+    Await.result(Future.sequence(futures), DURATION)
+  }
+
   def get(key: T, taskRef: ActorRef): U = {
     val datastoreId = hasher.getObj(key)
     val f = resolver.send(datastoreId, GetMessage(key, taskRef))
-    Await.result(f, DURATION).asInstanceOf[U]
+    Await.result(f, DURATION) match {
+      case NullMessage => null.asInstanceOf[U]
+      case value => value.asInstanceOf[U]
+    }
   }
 
   def remove(key: T, value: U) = {
@@ -89,6 +106,25 @@ abstract class HashPartitionedListInput[T, U](masterRef: ActorRef)
     Await.result(Future.sequence(futures), DURATION)
   }
 
+  // For inputs holding a graph as Int vertices with Array[Int] adjacency
+  // lists. Adds and removes (source, target) edges by sending only the
+  // changes to the partitions that contain the sources.
+  def updateEdges
+      (added: Iterable[(Int, Int)], removed: Iterable[(Int, Int)]) {
+    val hashedAdded = hasher.hashAll(added)
+    val hashedRemoved = hasher.hashAll(removed)
+
+    val futures = Buffer[Future[Any]]()
+    for ((hash, datastoreId) <- hasher.objs) {
+      if (hashedAdded(hash).size > 0 || hashedRemoved(hash).size > 0) {
+        futures += resolver.send(datastoreId,
+          UpdateEdgesMessage(hashedAdded(hash), hashedRemoved(hash)))
+      }
+    }
+
+    Await.result(Future.sequence(futures), DURATION)
+  }
+
   def asyncRemove(key: T, value: U): Future[_] = {
     val datastoreId = hasher.getObj(key)
     resolver.send(datastoreId, RemoveMessage(key, value))
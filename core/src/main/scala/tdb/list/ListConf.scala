@@ -25,7 +25,8 @@ object ListConf {
      chunkSizer: Any => Int = _ => 1,
      sorted: Boolean = false,
      hash: Boolean = false,
-     inputId: InputId = -1): ListConf = {
+     inputId: InputId = -1,
+     chunkEncoding: String = "none"): ListConf = {
     new SimpleListConf(
       file,
       partitions,
@@ -33,7 +34,8 @@ object ListConf {
       chunkSizer,
       sorted,
       hash,
-      inputId)
+      inputId,
+      chunkEncoding)
   }
 }
 
@@ -45,6 +47,9 @@ sealed trait ListConf {
   def sorted: Boolean
   def hash: Boolean
   def inputId: InputId
+  // How chunks are stored, one of "none", "compact", or "deflate". See
+  // tdb.datastore.ChunkEncoding.
+  def chunkEncoding: String
 
   def clone
     (file: String = file,
@@ -59,7 +64,8 @@ case class SimpleListConf
      chunkSizer: Any => Int = _ => 1,
      sorted: Boolean = false,
      hash: Boolean = false,
-     inputId: InputId = -1) extends ListConf {
+     inputId: InputId = -1,
+     chunkEncoding: String = "none") extends ListConf {
 
   def clone(_file: String, _partitions: Int, _inputId: InputId) =
     copy(file = _file, partitions = _partitions, inputId = _inputId)
@@ -73,7 +79,8 @@ case class AggregatorListConf
      sorted: Boolean = false,
      hash: Boolean = false,
      inputId: InputId = -1,
-     valueType: AggregatedColumn = AggregatedIntColumn()) extends ListConf {
+     valueType: AggregatedColumn = AggregatedIntColumn(),
+     chunkEncoding: String = "none") extends ListConf {
   def clone(_file: String, _partitions: Int, _inputId: InputId) =
     copy(file = _file, partitions = _partitions, inputId = _inputId)
 }
@@ -86,7 +93,8 @@ case class ColumnListConf
      sorted: Boolean = false,
      hash: Boolean = false,
      inputId: InputId = -1,
-     columns: Map[String, (ColumnType, Any)]) extends ListConf {
+     columns: Map[String, (ColumnType, Any)],
+     chunkEncoding: String = "none") extends ListConf {
 
   assert(columns.contains("key"))
 
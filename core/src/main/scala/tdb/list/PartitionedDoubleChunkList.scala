@@ -211,6 +211,9 @@ class PartitionedDoubleChunkList[T, U]
     buf
   }
 
+  override def export(mutator: Mutator, batchSize: Int): Iterator[(T, U)] =
+    new ExportIterator(mutator, partitions.map(_.head.id), batchSize)
+
   def toString(mutator: Mutator): String = {
     val buf = new StringBuffer()
     for (partition <- partitions) {
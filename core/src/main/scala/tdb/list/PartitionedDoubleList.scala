@@ -177,6 +177,9 @@ class PartitionedDoubleList[T, U]
     buf
   }
 
+  override def export(mutator: Mutator, batchSize: Int): Iterator[(T, U)] =
+    new ExportIterator(mutator, partitions.map(_.head.id), batchSize)
+
   def toString(mutator: Mutator): String = {
     val buf = new StringBuffer()
     for (partition <- partitions) {
@@ -0,0 +1,80 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.list
+
+import scala.collection.mutable.Map
+
+// Feeds an aggregated list with a sliding window over timestamped values.
+// Values are pre-aggregated into panes that are slide wide, so advancing the
+// window retracts an expired pane with one deaggregated put per key in it,
+// instead of one remove per value, and each flush sends at most one put per
+// changed key. A tumbling window is one where slide == size.
+class WindowedInput[T, U]
+    (val input: AggregatorInput[T, U], val size: Long, val slide: Long) {
+  assert(slide > 0 && size % slide == 0,
+         "Window size must be a multiple of the slide.")
+
+  private val valueType = input.conf.valueType
+
+  private val panes = Map[Long, Map[T, U]]()
+
+  // The aggregated change to each key since the last flush.
+  private val pending = Map[T, U]()
+
+  // Values for panes before this one have already expired, so they're dropped.
+  private var firstPane = Long.MinValue
+
+  def put(key: T, value: U, time: Long) {
+    val pane = Math.floorDiv(time, slide)
+
+    if (pane >= firstPane) {
+      aggregate(panes.getOrElseUpdate(pane, Map[T, U]()), key, value)
+      aggregate(pending, key, value)
+    }
+  }
+
+  // Moves the window to end at time, rounded down to a pane boundary, and
+  // flushes the changes.
+  def advance(time: Long) {
+    val newFirstPane = Math.floorDiv(time - size, slide)
+
+    for (pane <- panes.keys.toBuffer if pane < newFirstPane) {
+      for ((key, value) <- panes(pane)) {
+        pending(key) = valueType.deaggregator(
+          pending.getOrElse(key, valueType.initialValue), value).asInstanceOf[U]
+      }
+
+      panes -= pane
+    }
+
+    firstPane = math.max(firstPane, newFirstPane)
+
+    flush()
+  }
+
+  def flush() {
+    input.putAll(pending.filter(_._2 != valueType.initialValue))
+    pending.clear()
+  }
+
+  private def aggregate(values: Map[T, U], key: T, value: U) {
+    if (values.contains(key)) {
+      values(key) = valueType.aggregator(values(key), value).asInstanceOf[U]
+    } else {
+      values(key) = value
+    }
+  }
+}
@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.master
+
+// The REEF driver's autoscaling decisions, based on the master's ClusterLoad.
+// At most one worker is added or removed at a time, so that the effect of a
+// change can be observed before the next one.
+object AutoscalePolicy {
+  // Returns true if another worker should be requested, i.e. the last
+  // propagation took longer than targetLatency or more runs are in progress
+  // than there are workers, and there are fewer than maxWorkers.
+  def shouldGrow
+      (load: ClusterLoad,
+       numWorkers: Int,
+       maxWorkers: Int,
+       targetLatency: Long): Boolean = {
+    val slow = load.lastPropagationMillis > targetLatency
+    val queued = load.running > load.workers.size
+    (slow || queued) && numWorkers < maxWorkers
+  }
+
+  // Returns the workers that may be decommissioned, if propagations are well
+  // under targetLatency, nothing is running and there are more than
+  // minWorkers. Only workers that aren't hosting any tasks are returned, since
+  // the master won't move a task. The master may still refuse one of them,
+  // see Master.decommission.
+  def releasable
+      (load: ClusterLoad,
+       numWorkers: Int,
+       minWorkers: Int,
+       targetLatency: Long): Array[WorkerLoad] = {
+    if (load.lastPropagationMillis < targetLatency / 2 &&
+        load.running == 0 &&
+        numWorkers > minWorkers) {
+      load.workers.filter(worker =>
+        worker.tasks == 0 && worker.hostedTasks == 0)
+    } else {
+      Array()
+    }
+  }
+}
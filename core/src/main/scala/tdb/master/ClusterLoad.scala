@@ -0,0 +1,37 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.master
+
+import tdb.Constants.TaskId
+
+// How busy a single worker is. tasks is the number of tasks whose run is in
+// progress on it, and hostedTasks the number of tasks it holds for open
+// sessions, which keep it from being decommissioned even while they're idle.
+case class WorkerLoad
+    (workerId: TaskId,
+     ip: String,
+     port: Int,
+     tasks: Int,
+     hostedTasks: Int)
+
+// A snapshot of the master's load signals, for deciding when to add or
+// remove workers. running is the number of initial runs and propagations in
+// progress, and lastPropagationMillis is how long the most recently
+// completed propagation took, or -1 if none have completed.
+case class ClusterLoad
+    (workers: Array[WorkerLoad],
+     running: Int,
+     lastPropagationMillis: Long)
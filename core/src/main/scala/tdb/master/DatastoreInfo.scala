@@ -27,6 +27,7 @@ class DatastoreInfo
    val listConf: ListConf,
    var workerId: TaskId,
    val range: HashRange,
+   val mutatorId: Int = -1,
    var fileName: String = "") {
 
   override def toString = "DatastoreInfo(" + datastoreRef + ")"
@@ -20,7 +20,7 @@ import java.net.InetAddress
 import scala.concurrent.duration._
 
 import tdb.Constants
-import tdb.stats.Stats
+import tdb.stats.{Metrics, Stats}
 
 object Main {
   def main(args: Array[String]) {
@@ -28,6 +28,7 @@ object Main {
 
     Constants.DURATION = conf.timeout().seconds
     Constants.TIMEOUT = Timeout(Constants.DURATION)
+    Metrics.enabled = conf.metrics()
 
     val connector = MasterConnector(masterConf = conf, singleNode = false)
     println("New master started at: akka.tcp://" + connector.system.name +
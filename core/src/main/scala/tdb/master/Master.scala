@@ -15,20 +15,21 @@
  */
 package tdb.master
 
-import akka.actor.{Actor, ActorLogging, ActorRef, Props, Terminated}
+import akka.actor.{Actor, ActorLogging, ActorRef, Props, Status, Terminated}
 import akka.pattern.{ask, pipe}
 import java.io.File
 import scala.collection.mutable
 import scala.collection.mutable.{Buffer, Map}
 import scala.concurrent.{Await, Future, Promise}
+import scala.concurrent.duration._
 import scala.util.{Failure, Success, Try}
 
 import tdb.{Adjustable, TDB}
 import tdb.Constants._
-import tdb.datastore.{Datastore, ModifierActor}
+import tdb.datastore.{Datastore, DatastoreSnapshot, ModifierActor}
 import tdb.messages._
 import tdb.list._
-import tdb.stats.Stats
+import tdb.stats.{Stats, TraceEvent, Tracer}
 import tdb.util._
 import tdb.worker.{Task, Worker, WorkerInfo}
 
@@ -45,9 +46,16 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
 
   private val scheduler = new Scheduler()
 
+  // Assigns list partitions to workers, weighted by their number of cores.
+  private val ring = new ConsistentHash[TaskId]()
+
   private val workers = Map[TaskId, ActorRef]()
   private val workerInfos = Map[TaskId, WorkerInfo]()
 
+  // Workers that have registered but haven't created their main datastores
+  // yet, and so can't be given any work.
+  private val registering = Map[TaskId, WorkerInfo]()
+
   private val tasks = mutable.Map[TaskId, TaskInfo]()
 
   private val datastores = Map[TaskId, DatastoreInfo]()
@@ -59,6 +67,10 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
 
   private var nextMutatorId = 0
 
+  // Mutators that have registered and haven't been shut down. Each one is a
+  // session with its own tasks and lists, sharing the workers with the others.
+  private val sessions = mutable.Set[Int]()
+
   private var nextTaskId: TaskId = 1
 
   // The total number of cores reported by all registered Workers.
@@ -66,68 +78,327 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
 
   private var nextInputId: InputId = 0
 
+  // The epoch that writes currently belong to. It's advanced each time no
+  // initial runs or propagations are in progress, so every epoch before it
+  // is a consistent state of all of the computations.
+  private var epoch = 0
+
+  // Completes once the workers have moved to the current epoch. Runs and
+  // propagations don't start until then, so that all of their writes belong
+  // to it, and their results aren't returned until then, so that a pin taken
+  // after one is visible to the datastores.
+  private var epochAdvanced: Future[Any] = Future.successful("done")
+
+  // The number of initial runs and propagations that haven't completed.
+  private var running = 0
+
+  // Maps epochs that mutators have pinned to the number of pins on them.
+  private val pins = Map[Int, Int]()
+
+  // How long the most recently completed propagation took, or -1.
+  private var lastPropagationMillis = -1L
+
+  // Mutators whose DDGs have been pebbled by lazy propagations that haven't
+  // been started yet.
+  private val dirtyMutators = mutable.Set[Int]()
+
+  // Maps mutators with a lazy propagation in progress to the senders waiting
+  // for it to complete.
+  private val lazyWaiters = Map[Int, Buffer[ActorRef]]()
+
+  // Senders waiting for the lazy propagation that will follow the one in
+  // progress, since they demanded it after further updates were made.
+  private val nextLazyWaiters = Map[Int, Buffer[ActorRef]]()
+
+  // Dirty mutators whose catch-up delay has passed, and which will be caught
+  // up as soon as the propagation in progress completes.
+  private val catchUpDue = mutable.Set[Int]()
+
+  // Maps dirty mutators to the tasks that have been propagated toward since
+  // the last updates, and whose mods are therefore up to date.
+  private val upToDate = Map[Int, mutable.Set[TaskId]]()
+
+  // Senders waiting for dirty mutators to be caught up.
+  private val catchUpWaiters = Map[Int, Buffer[ActorRef]]()
+
+  // Workers whose main datastores hold mods created by mutators, which
+  // can't be decommissioned until all sessions have ended.
+  private val mutatorModWorkers = mutable.Set[TaskId]()
+
+  // Datastores that are being moved to another worker.
+  private val migrating = mutable.Set[TaskId]()
+
+  // Workers that will be removed once their partitions have been moved.
+  private val decommissioning = mutable.Set[TaskId]()
+
   if (conf.storeType() == "cassandra") {
     tdb.datastore.cassandra.CassandraStore.setup(conf.ip())
   }
 
-  private def createPartitions
-      (workerId: TaskId,
-       workerRef: ActorRef,
-       listConf: ListConf,
-       workerIndex: Int) = {
-    val numWorkers = workers.size
-
-    val partitionsPerWorker = listConf.partitions / numWorkers
-    val partitions =
-      if (workerIndex == numWorkers - 1 &&
-          listConf.partitions % numWorkers != 0) {
-        numWorkers % partitionsPerWorker
-      } else {
-        partitionsPerWorker
-      }
-
-    val newDatastores = Map[TaskId, ActorRef]()
-    var hasher: ObjHasher[TaskId] = null
-    for (i <- 0 until partitions) {
-      val start = workerIndex * partitionsPerWorker + i
-      val thisRange = new HashRange(start, start + 1, listConf.partitions)
+  private def partitionKey(inputId: InputId, partition: Int) =
+    inputId + "-" + partition
+
+  // Creates a datastore for each partition of the list on the worker that the
+  // partition hashes to. The datastores are created in parallel, and the
+  // returned future completes with their DatastoreInfos, which should be
+  // added to datastores from within the actor, see PartitionsCreatedMessage.
+  // The hasher mapping keys to the datastores is returned immediately.
+  private def createPartitions(listConf: ListConf, mutatorId: Int)
+      : (ObjHasher[TaskId], Future[Iterable[DatastoreInfo]]) = {
+    val datastoreIds = Buffer[TaskId]()
+    val futures = Buffer[Future[DatastoreInfo]]()
+
+    for (i <- 0 until listConf.partitions) {
+      val thisRange = new HashRange(i, i + 1, listConf.partitions)
       val datastoreId = nextTaskId
       nextTaskId += 1
+      datastoreIds += datastoreId
 
-      val modifierRef = Await.result(
-        (workerRef ? CreateDatastoreMessage(
-          listConf, datastoreId, thisRange, false)).mapTo[ActorRef],
-        DURATION)
+      val workerId = ring.owner(partitionKey(listConf.inputId, i))
+      val workerRef = workers(workerId)
 
-      val thisHasher = ObjHasher.makeHasher(thisRange, datastoreId)
-      if (hasher == null) {
-        hasher = thisHasher
-      } else {
-        hasher = ObjHasher.combineHashers(thisHasher, hasher)
+      val message = CreateDatastoreMessage(
+        listConf, datastoreId, thisRange, false)
+      futures += (workerRef ? message).mapTo[ActorRef].map {
+        case modifierRef =>
+          new DatastoreInfo(
+            datastoreId, modifierRef, listConf, workerId, thisRange, mutatorId)
       }
+    }
+
+    val range = new HashRange(0, listConf.partitions, listConf.partitions)
+    (ObjHasher.makeHasher(range, datastoreIds), Future.sequence(futures))
+  }
 
-      val datastoreInfo = new DatastoreInfo(
-        datastoreId, modifierRef, listConf, workerId, thisRange)
-      datastores(datastoreId) = datastoreInfo
+  // Starts a new epoch and lets the workers drop versions of mods that are no
+  // longer visible to any pinned epoch.
+  private def advanceEpoch() {
+    epoch += 1
+
+    val message = AdvanceEpochMessage(epoch, pins.keys.toBuffer)
+    epochAdvanced = Future.sequence(workers.values.map(_ ? message)).recover {
+      case e => e.printStackTrace()
     }
-    hasher
   }
 
-  private def launchMainDatastore(workerId: TaskId) {
-    val datastoreId = workerInfos(workerId).mainDatastoreId
-    val workerRef = workers(workerId)
+  // Starts propagating a mutator's pebbled DDG, unless it's already being
+  // propagated, in which case the propagation will be started again when
+  // the current one completes.
+  private def startLazyPropagation(mutatorId: Int) {
+    if (dirtyMutators.contains(mutatorId) &&
+        !lazyWaiters.contains(mutatorId)) {
+      log.info("Catching up change propagation for mutator " + mutatorId)
+      dirtyMutators -= mutatorId
+      catchUpDue -= mutatorId
+      upToDate -= mutatorId
+      lazyWaiters(mutatorId) = nextLazyWaiters.remove(mutatorId)
+        .getOrElse(Buffer[ActorRef]())
+
+      running += 1
+      val start = System.currentTimeMillis()
+      val rootTask = rootTasks(mutatorId)
+      epochAdvanced.flatMap(_ => rootTask ? PropagateTaskMessage).onComplete {
+        case Success(output) =>
+          val elapsed = System.currentTimeMillis() - start
+          self ! LazyPropagationCompletedMessage(mutatorId, elapsed)
+        case Failure(e) => e.printStackTrace()
+      }
+    }
+  }
 
-    val message = CreateDatastoreMessage(null, datastoreId, null, false)
+  // Propagates only the part of a mutator's pebbled DDG that the mods created
+  // by owner depend on (see Context.propagateToward), leaving the rest to be
+  // caught up.
+  private def propagateToward
+      (mutatorId: Int,
+       owner: TaskInfo,
+       path: Iterable[TaskId],
+       respondTo: ActorRef) {
+    log.info("Propagating mutator " + mutatorId + " toward task " + owner.id)
+    lazyWaiters(mutatorId) = Buffer(respondTo)
+    upToDate.getOrElseUpdate(mutatorId, mutable.Set[TaskId]()) += owner.id
+
+    running += 1
+    val start = System.currentTimeMillis()
+    val rootTask = rootTasks(mutatorId)
+    val message = PropagateTowardMessage(Iterable(owner.id), path)
+    epochAdvanced.flatMap(_ => rootTask ? message).onComplete {
+      case Success(output) =>
+        val elapsed = System.currentTimeMillis() - start
+        self ! LazyPropagationCompletedMessage(mutatorId, elapsed, owner.id)
+      case Failure(e) => e.printStackTrace()
+    }
+  }
+
+  // The task in a mutator's computation that created modId with TDB.mod,
+  // along with its ancestors. Such mods carry the task's id and its worker's
+  // main datastore (see createModId). Mods created by datastores, e.g. for
+  // lists, belong to no task. Mods created by mutators may be mistaken for a
+  // task's, but since propagation doesn't write them that's harmless.
+  private def modOwner
+      (mutatorId: Int,
+       modId: ModId): Option[(TaskInfo, Buffer[TaskId])] = {
+    val taskId = ((modId >> 16) & 0xFFFF).toInt
+    val owner = tasks.get(taskId).filter {
+      case info =>
+        info.mutatorId == mutatorId &&
+        workerInfos.get(info.workerId).exists(
+          _.mainDatastoreId == getDatastoreId(modId))
+    }
 
-    val datastoreRef =
-      Await.result((workerRef ? message).mapTo[ActorRef], DURATION)
+    owner.flatMap {
+      case info =>
+        val path = Buffer[TaskId]()
+        var parentId = info.parentId
+        while (parentId != -1 && tasks.contains(parentId)) {
+          path += parentId
+          parentId = tasks(parentId).parentId
+        }
 
+        if (parentId == -1) Some((info, path)) else None
+    }
+  }
+
+  // Records the main datastore that a worker created for itself.
+  private def registerMainDatastore(workerId: TaskId, datastoreRef: ActorRef) {
+    val datastoreId = workerInfos(workerId).mainDatastoreId
     val datastoreInfo = new DatastoreInfo(
       datastoreId, datastoreRef, null, workerId, null)
 
     datastores(datastoreId) = datastoreInfo
   }
 
+  // Moves a list partition's datastore to another worker. The old datastore
+  // stops processing messages once it's been snapshotted and forwards them,
+  // along with anything sent to it later using a stale ref, to the new one.
+  // The returned future completes with the new datastore's ref once the old
+  // one is forwarding, and the DatastoreInfo should then be updated from
+  // within the actor, see DatastoresMigratedMessage.
+  private def migrate(info: DatastoreInfo, workerId: TaskId)
+      : Future[ActorRef] = {
+    log.info("Migrating datastore " + info.id + " from worker " +
+             info.workerId + " to " + workerId)
+
+    val oldRef = info.datastoreRef
+    val workerRef = workers(workerId)
+    (oldRef ? SnapshotDatastoreMessage).mapTo[DatastoreSnapshot].flatMap {
+      case snapshot =>
+        val message = MigrateDatastoreMessage(
+          info.listConf, info.id, info.range, snapshot)
+        (workerRef ? message).mapTo[ActorRef]
+    }.flatMap {
+      case newRef =>
+        (oldRef ? DatastoreMigratedMessage(newRef)).map(_ => newRef)
+    }
+  }
+
+  // Starts migrating every list partition that isn't on the worker the ring
+  // assigns it to, other than those already being migrated. Only partitions
+  // of simple lists are migrated. When they've all been moved, or failed to
+  // move, a DatastoresMigratedMessage is sent to this actor with the given
+  // respondTo and decommissioned worker, which may be -1.
+  private def rebalance(respondTo: ActorRef, decommissioned: TaskId) {
+    val futures = Buffer[Future[(TaskId, TaskId, ActorRef)]]()
+    for ((datastoreId, info) <- datastores
+         if !migrating.contains(datastoreId)) {
+      info.listConf match {
+        case listConf: SimpleListConf =>
+          val owner = ring.owner(partitionKey(listConf.inputId, info.range.min))
+          if (owner != info.workerId) {
+            migrating += datastoreId
+            futures += migrate(info, owner).map((datastoreId, owner, _))
+              .recover {
+                case e =>
+                  log.warning("Failed to migrate datastore " + datastoreId +
+                              ": " + e)
+                  (datastoreId, owner, null)
+              }
+          }
+        case _ =>
+      }
+    }
+
+    Future.sequence(futures).onComplete {
+      case Success(migrations) =>
+        self ! DatastoresMigratedMessage(migrations, respondTo, decommissioned)
+      case Failure(e) =>
+        e.printStackTrace()
+    }
+  }
+
+  // Removes an idle worker from the cluster so that it can be shut down,
+  // after moving its list partitions to the remaining workers. Returns false,
+  // without changing anything, if the worker still holds state that can't be
+  // moved, i.e. tasks, mods created by mutators or partitions of lists other
+  // than simple lists. Otherwise, the worker is removed, and true is sent to
+  // respondTo, once its partitions have been moved.
+  private def decommission(workerId: TaskId, respondTo: ActorRef): Boolean = {
+    val movable = datastores.values.forall {
+      case info =>
+        info.workerId != workerId ||
+        info.listConf == null ||
+        info.listConf.isInstanceOf[SimpleListConf]
+    }
+
+    if (!workers.contains(workerId) ||
+        decommissioning.contains(workerId) ||
+        workers.size - decommissioning.size == 1 ||
+        !movable ||
+        mutatorModWorkers.contains(workerId) ||
+        tasks.values.exists(_.workerId == workerId)) {
+      false
+    } else {
+      log.info("Decommissioning worker " + workerId)
+
+      decommissioning += workerId
+      scheduler.removeWorker(workerId)
+      ring.remove(workerId)
+      rebalance(respondTo, workerId)
+
+      true
+    }
+  }
+
+  // Forgets a decommissioned worker once its partitions have been moved.
+  private def removeWorker(workerId: TaskId) {
+    decommissioning -= workerId
+
+    val workerRef = workers(workerId)
+    val workerInfo = workerInfos(workerId)
+    context.unwatch(workerRef)
+
+    workers -= workerId
+    workerInfos -= workerId
+    datastores -= workerInfo.mainDatastoreId
+    totalCores -= workerInfo.numCores
+    Stats.registeredWorkers -= workerInfo
+  }
+
+  // Messages received while the workers are being reset, which are handled
+  // once their new main datastores have been registered.
+  private val resetBuffer = Buffer[(Any, ActorRef)]()
+
+  private def resetting: Receive = {
+    case WorkersClearedMessage(mainDatastores, respondTo) =>
+      for ((workerId, datastoreRef) <- mainDatastores) {
+        registerMainDatastore(workerId, datastoreRef)
+      }
+      mutatorModWorkers.clear()
+
+      Stats.clear()
+
+      context.become(receive)
+      for ((message, from) <- resetBuffer) {
+        self.tell(message, from)
+      }
+      resetBuffer.clear()
+
+      respondTo ! "done"
+
+    case x =>
+      resetBuffer += ((x, sender))
+  }
+
   def receive = {
     // Worker
     case RegisterWorkerMessage(_workerInfo: WorkerInfo) =>
@@ -140,28 +411,47 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
         workerId = workerId,
         mainDatastoreId = datastoreId,
         storeType = conf.storeType())
+      registering(workerId) = workerInfo
       sender ! workerInfo
 
-      totalCores += workerInfo.numCores
-
-      val workerRef = AkkaUtil.getActorFromURL(
-        workerInfo.workerAddress, context.system)
+    case WorkerReadyMessage(workerId, workerRef, datastoreRef) =>
+      val workerInfo = registering.remove(workerId).get
       log.info("Registering Worker at " + workerRef)
 
+      totalCores += workerInfo.numCores
+
       context.watch(workerRef)
       scheduler.addWorker(workerId)
+      ring.add(workerId, workerInfo.numCores)
 
       workers(workerId) = workerRef
       workerInfos(workerId) = workerInfo
+      registerMainDatastore(workerId, datastoreRef)
 
-      launchMainDatastore(workerId)
+      // The worker waits for this reply before it can process messages, such
+      // as those sent by rebalance.
+      sender ! AdvanceEpochMessage(epoch, pins.keys.toBuffer)
 
       Stats.registeredWorkers += workerInfo
 
+      if (conf.rebalance()) {
+        rebalance(self, -1)
+      }
+
     case ScheduleTaskMessage
         (name: String, parentId: TaskId, datastoreId, adjust) =>
-      val thisTask = tasks.find(_._2.name == name)
-      if (name != "" && !thisTask.isEmpty) {
+      val parent = tasks.get(parentId)
+      val mutatorId = parent.map(_.mutatorId).getOrElse(-1)
+      val thisTask = tasks.find {
+        case (id, info) => info.name == name && info.mutatorId == mutatorId
+      }
+      if (parent.isEmpty) {
+        // The parent's session was shut down while it was running.
+        log.error("Can't schedule task " + name + " for unknown parent " +
+          parentId)
+        sender ! Status.Failure(new IllegalArgumentException(
+          "Unknown parent task " + parentId))
+      } else if (name != "" && !thisTask.isEmpty) {
         val taskInfo = thisTask.get._2
         sender ! ((taskInfo.id, taskInfo.output))
       } else {
@@ -170,10 +460,11 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
 
         val workerId =
           if (datastoreId == -1) {
-            scheduler.nextWorker()
+            scheduler.nextTaskWorker()
           } else {
             datastores(datastoreId).workerId
           }
+        scheduler.taskStarted(workerId)
 
         val workerRef = workers(workerId)
 
@@ -183,19 +474,36 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
         f.onComplete {
           case Success(taskRef) =>
             val taskInfo = new TaskInfo(
-              taskId, name, taskRef, adjust, parentId, workerId)
-            tasks(taskId) = taskInfo
-            val outputFuture = taskRef ? RunTaskMessage(adjust, false)
-
-            outputFuture.onComplete {
-              case Success(output) =>
-                taskInfo.output = output
-                respondTo ! (taskId, output)
-              case Failure(e) =>
-                e.printStackTrace()
-            }
+              taskId, name, taskRef, adjust, parentId, workerId, mutatorId)
+            self ! TaskCreatedMessage(taskInfo, respondTo)
           case Failure(e) =>
             e.printStackTrace()
+            self ! TaskCompletedMessage(workerId)
+            respondTo ! Status.Failure(e)
+        }
+      }
+
+    case TaskCreatedMessage(taskInfo, respondTo) =>
+      val workerId = taskInfo.workerId
+      if (!sessions.contains(taskInfo.mutatorId)) {
+        // The session was shut down while the task was being created.
+        context.stop(taskInfo.taskRef)
+        scheduler.taskStopped(workerId)
+        respondTo ! Status.Failure(new IllegalStateException(
+          "Mutator " + taskInfo.mutatorId + " was shut down"))
+      } else {
+        tasks(taskInfo.id) = taskInfo
+        val outputFuture =
+          taskInfo.taskRef ? RunTaskMessage(taskInfo.adjust, false)
+
+        outputFuture.onComplete {
+          case Success(output) =>
+            taskInfo.output = output
+            self ! TaskCompletedMessage(workerId)
+            respondTo ! (taskInfo.id, output)
+          case Failure(e) =>
+            self ! TaskCompletedMessage(workerId)
+            e.printStackTrace()
         }
       }
 
@@ -203,6 +511,7 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
     case RegisterMutatorMessage =>
       log.info("Registering mutator " + nextMutatorId)
       sender ! nextMutatorId
+      sessions += nextMutatorId
       nextMutatorId += 1
 
     case RunMutatorMessage(adjust: Adjustable[_], mutatorId: Int) =>
@@ -211,29 +520,171 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
       val taskId = nextTaskId
       nextTaskId += 1
 
-      val workerId = scheduler.nextWorker()
+      val workerId = scheduler.nextTaskWorker()
+      scheduler.taskStarted(workerId)
       val workerRef = workers(workerId)
+      running += 1
+
+      val respondTo = sender
       val taskRefFuture = workerRef ? CreateTaskMessage(taskId, workerId)
-      val taskRef = Await.result(taskRefFuture.mapTo[ActorRef], DURATION)
+      taskRefFuture.mapTo[ActorRef].onComplete {
+        case Success(taskRef) =>
+          val taskInfo = new TaskInfo(
+            taskId, "rootTask-" + mutatorId, taskRef, adjust, -1, workerId,
+            mutatorId)
+          self ! RootTaskCreatedMessage(taskInfo, respondTo)
+        case Failure(e) =>
+          e.printStackTrace()
+          self ! TaskCompletedMessage(workerId)
+          self ! RunCompletedMessage(respondTo, Status.Failure(e))
+      }
 
-      val taskInfo = new TaskInfo(
-        taskId, "rootTask-" + mutatorId, taskRef, adjust, -1, workerId)
-      tasks(taskId) = taskInfo
+    case RootTaskCreatedMessage(taskInfo, respondTo) =>
+      val taskRef = taskInfo.taskRef
+      val workerId = taskInfo.workerId
+      val adjust = taskInfo.adjust
+      tasks(taskInfo.id) = taskInfo
+      rootTasks(taskInfo.mutatorId) = taskRef
 
-      val respondTo = sender
-      (taskRef ? RunTaskMessage(adjust, false)).onComplete {
+      val outputFuture =
+        epochAdvanced.flatMap(_ => taskRef ? RunTaskMessage(adjust, false))
+      outputFuture.onComplete {
         case Success(output) =>
           taskInfo.output = output
-          respondTo ! output
-        case Failure(e) => e.printStackTrace()
+          self ! TaskCompletedMessage(workerId)
+          self ! RunCompletedMessage(respondTo, output)
+        case Failure(e) =>
+          e.printStackTrace()
+          self ! TaskCompletedMessage(workerId)
+          self ! RunCompletedMessage(respondTo, Status.Failure(e))
       }
 
-      rootTasks(mutatorId) = taskRef
-
     case PropagateMutatorMessage(mutatorId: Int) =>
       log.info("Initiating change propagation for mutator " + mutatorId)
 
-      (rootTasks(mutatorId) ? PropagateTaskMessage) pipeTo sender
+      running += 1
+      val respondTo = sender
+      val start = System.currentTimeMillis()
+      val rootTask = rootTasks(mutatorId)
+      epochAdvanced.flatMap(_ => rootTask ? PropagateTaskMessage).onComplete {
+        case Success(output) =>
+          val elapsed = System.currentTimeMillis() - start
+          self ! RunCompletedMessage(respondTo, output, elapsed)
+        case Failure(e) =>
+          e.printStackTrace()
+          self ! RunCompletedMessage(respondTo, Status.Failure(e))
+      }
+
+    case PropagateLazilyMessage(mutatorId: Int, catchUpMillis: Long) =>
+      // The updates have already pebbled the DDG, so reexecuting it is
+      // deferred until the mutator reads from it or catchUpMillis passes.
+      // Demanding some of it may leave the mutator dirty across several of
+      // these, so each schedules its own catch-up.
+      if (rootTasks.contains(mutatorId)) {
+        dirtyMutators += mutatorId
+        upToDate -= mutatorId
+        context.system.scheduler.scheduleOnce(
+          catchUpMillis.milliseconds, self, CatchUpMessage(mutatorId))
+      }
+      sender ! "done"
+
+    // Replies with whether the mutator has been caught up.
+    case DemandPropagationMessage(mutatorId: Int, modId: ModId) =>
+      if (lazyWaiters.contains(mutatorId)) {
+        // A catch-up in progress covers everything pebbled before it began.
+        if (dirtyMutators.contains(mutatorId)) {
+          nextLazyWaiters.getOrElseUpdate(mutatorId, Buffer[ActorRef]()) +=
+            sender
+        } else {
+          lazyWaiters(mutatorId) += sender
+        }
+      } else if (!dirtyMutators.contains(mutatorId)) {
+        sender ! true
+      } else {
+        val owner = if (modId == -1) None else modOwner(mutatorId, modId)
+
+        owner match {
+          case Some((info, path)) if upToDate.get(mutatorId).exists(
+              _.contains(info.id)) =>
+            sender ! false
+          case Some((info, path)) if info.parentId != -1 =>
+            propagateToward(mutatorId, info, path, sender)
+          case _ =>
+            nextLazyWaiters.getOrElseUpdate(mutatorId, Buffer[ActorRef]()) +=
+              sender
+            startLazyPropagation(mutatorId)
+        }
+      }
+
+    case AwaitCatchUpMessage(mutatorId: Int) =>
+      if (dirtyMutators.contains(mutatorId) ||
+          lazyWaiters.contains(mutatorId)) {
+        catchUpWaiters.getOrElseUpdate(mutatorId, Buffer[ActorRef]()) += sender
+      } else {
+        sender ! "done"
+      }
+
+    case CatchUpMessage(mutatorId: Int) =>
+      if (dirtyMutators.contains(mutatorId)) {
+        catchUpDue += mutatorId
+        startLazyPropagation(mutatorId)
+      }
+
+    case LazyPropagationCompletedMessage(
+        mutatorId, propagationMillis, ownerId) =>
+      running -= 1
+      if (running == 0) {
+        advanceEpoch()
+      }
+      lastPropagationMillis = propagationMillis
+
+      val caughtUp = !dirtyMutators.contains(mutatorId)
+      for (waiter <- lazyWaiters.remove(mutatorId).get) {
+        epochAdvanced.map(_ => caughtUp) pipeTo waiter
+      }
+
+      // Anything pebbled while this propagation was running, or left by
+      // propagating toward a task, once it's demanded or due.
+      if (nextLazyWaiters.contains(mutatorId) ||
+          catchUpDue.contains(mutatorId)) {
+        startLazyPropagation(mutatorId)
+      } else if (caughtUp) {
+        for (waiter <- catchUpWaiters.remove(mutatorId).getOrElse(Buffer())) {
+          epochAdvanced.map(_ => "done") pipeTo waiter
+        }
+      }
+
+    // Sent whether or not the run succeeded, so that the epoch still advances.
+    // If it failed, output is a Status.Failure, which fails the mutator's ask.
+    case RunCompletedMessage(respondTo, output, propagationMillis) =>
+      running -= 1
+      if (running == 0) {
+        advanceEpoch()
+      }
+
+      if (propagationMillis != -1) {
+        lastPropagationMillis = propagationMillis
+      }
+
+      epochAdvanced.map(_ => output) pipeTo respondTo
+
+    case TaskCompletedMessage(workerId) =>
+      scheduler.taskStopped(workerId)
+
+    case PinEpochMessage =>
+      // Pins the most recently completed epoch, which is -1 if no runs have
+      // finished yet.
+      val pinned = epoch - 1
+      pins(pinned) = pins.getOrElse(pinned, 0) + 1
+      sender ! pinned
+
+    case UnpinEpochMessage(pinned) =>
+      if (pins(pinned) == 1) {
+        pins -= pinned
+      } else {
+        pins(pinned) -= 1
+      }
+      sender ! "done"
 
     case GetMutatorDDGMessage(mutatorId: Int) =>
       (rootTasks(mutatorId) ? GetTaskDDGMessage) pipeTo sender
@@ -244,31 +695,122 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
     case MutatorToBufferMessage(datastoreId) =>
       (datastores(datastoreId).datastoreRef ? ToBufferMessage()) pipeTo sender
 
-    case ShutdownMutatorMessage(mutatorId: Int) =>
-      log.info("Shutting down mutator " + mutatorId)
+    case SetTracingMessage(enabled: Boolean) =>
+      Tracer.enabled = enabled
+
+      val futures = workers.values.map(_ ? SetTracingMessage(enabled))
+      Future.sequence(futures).map(_ => "done") pipeTo sender
+
+    case GetTraceMessage() =>
+      val futures = tasks.values.map {
+        case taskInfo =>
+          (taskInfo.taskRef ? GetTraceMessage()).mapTo[Buffer[TraceEvent]]
+      }
 
-      datastores.clear()
+      Future.sequence(futures).map {
+        case traces => traces.flatten.toBuffer.sortBy((_: TraceEvent).start)
+      } pipeTo sender
 
-      Await.result(Future.sequence(workers.map {
-        case (workerId, workerRef) =>
-          workerRef ? ClearMessage
-      }), DURATION)
+    case RebalanceMessage =>
+      rebalance(sender, -1)
 
-      workers.map {
-        case (workerId, workerRef) =>
-          launchMainDatastore(workerId)
+    case DatastoresMigratedMessage(migrations, respondTo, decommissioned) =>
+      val moved = migrations.filter(_._3 != null)
+      for ((datastoreId, workerId, newRef) <- migrations) {
+        migrating -= datastoreId
       }
 
-      Stats.clear()
+      for ((datastoreId, workerId, newRef) <- moved) {
+        datastores.get(datastoreId) match {
+          case Some(info) =>
+            info.datastoreRef = newRef
+            info.workerId = workerId
+          case None =>
+            // The session that created the list ended during the migration.
+            context.stop(newRef)
+        }
+      }
 
-      tasks.map {
+      log.info("Moved " + moved.size + " partitions")
+      if (decommissioned == -1) {
+        if (respondTo != self) {
+          respondTo ! moved.size
+        }
+      } else if (moved.size == migrations.size) {
+        removeWorker(decommissioned)
+        respondTo ! true
+      } else {
+        // Some partitions are still on the worker, so it's put back.
+        decommissioning -= decommissioned
+        scheduler.addWorker(decommissioned)
+        ring.add(decommissioned, workerInfos(decommissioned).numCores)
+        respondTo ! false
+      }
+
+    case GetClusterLoadMessage =>
+      val workerLoads = workerInfos.values.map {
+        case info =>
+          val hosted = tasks.values.count(_.workerId == info.workerId)
+          WorkerLoad(
+            info.workerId, info.ip, info.port, scheduler.getLoad(info.workerId),
+            hosted)
+      }
+
+      sender ! ClusterLoad(
+        workerLoads.toArray, running, lastPropagationMillis)
+
+    case DecommissionWorkerMessage(workerId) =>
+      if (!decommission(workerId, sender)) {
+        sender ! false
+      }
+
+    case ShutdownMutatorMessage(mutatorId: Int) =>
+      log.info("Shutting down mutator " + mutatorId)
+
+      sessions -= mutatorId
+      dirtyMutators -= mutatorId
+      nextLazyWaiters -= mutatorId
+      catchUpDue -= mutatorId
+      upToDate -= mutatorId
+      catchUpWaiters -= mutatorId
+
+      val sessionTasks = tasks.filter(_._2.mutatorId == mutatorId)
+      sessionTasks.map {
         case (taskId, taskInfo) =>
           context.stop(taskInfo.taskRef)
       }
-      tasks.clear()
-      rootTasks.clear()
+      tasks --= sessionTasks.keys
+      lists --= sessionTasks.keys
+      rootTasks -= mutatorId
 
-      sender ! "done"
+      val respondTo = sender
+      if (sessions.isEmpty) {
+        // The last session resets the workers, which also frees any mods
+        // sessions left in the main datastores.
+        datastores.clear()
+
+        // Workers replace their main datastores when they're cleared.
+        Future.sequence(workers.map {
+          case (workerId, workerRef) =>
+            (workerRef ? ClearMessage).mapTo[ActorRef].map((workerId, _))
+        }).onComplete {
+          case Success(mainDatastores) =>
+            self ! WorkersClearedMessage(mainDatastores, respondTo)
+          case Failure(e) =>
+            e.printStackTrace()
+            self ! WorkersClearedMessage(Iterable(), respondTo)
+        }
+        context.become(resetting)
+      } else {
+        val sessionDatastores = datastores.filter(_._2.mutatorId == mutatorId)
+        datastores --= sessionDatastores.keys
+
+        Future.sequence(workers.map {
+          case (workerId, workerRef) =>
+            val ids = sessionDatastores.values.filter(_.workerId == workerId)
+            workerRef ? RemoveDatastoresMessage(ids.map(_.id).toBuffer)
+        }).map(_ => "done") pipeTo respondTo
+      }
 
     case ResolveMessage(taskId) =>
       if (datastores.contains(taskId)) {
@@ -286,12 +828,22 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
 
     // Datastore
     case CreateModMessage(value) =>
-      (workers(scheduler.nextWorker()) ? CreateModMessage(value)) pipeTo sender
+      val workerId = scheduler.nextWorker()
+      mutatorModWorkers += workerId
+      (workers(workerId) ? CreateModMessage(value)) pipeTo sender
 
     case GetModMessage(modId: ModId, null) =>
       val datastoreRef = datastores(getDatastoreId(modId)).datastoreRef
       (datastoreRef ? GetModMessage(modId, null)) pipeTo sender
 
+    case ExportListMessage(nodeId: ModId, batchSize: Int, pinned: Int) =>
+      val datastoreRef = datastores(getDatastoreId(nodeId)).datastoreRef
+      (datastoreRef ? ExportListMessage(nodeId, batchSize, pinned)) pipeTo sender
+
+    case GetModVersionMessage(modId: ModId, pinned: Int) =>
+      val datastoreRef = datastores(getDatastoreId(modId)).datastoreRef
+      (datastoreRef ? GetModVersionMessage(modId, pinned)) pipeTo sender
+
     case UpdateModMessage(modId: ModId, value: Any, null) =>
       val datastoreRef = datastores(getDatastoreId(modId)).datastoreRef
       (datastoreRef ? PutMessage("mods", modId, value, null)) pipeTo sender
@@ -300,7 +852,7 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
       val datastoreRef = datastores(getDatastoreId(modId)).datastoreRef
       (datastoreRef ? PutMessage("mods", modId, null, null)) pipeTo sender
 
-    case CreateListMessage(_conf: ListConf, taskId: TaskId) =>
+    case CreateListMessage(_conf: ListConf, taskId: TaskId, _mutatorId: Int) =>
       if (taskId != -1 && tasks(taskId).recovering) {
         sender ! lists(taskId)
       } else {
@@ -314,31 +866,24 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
             _conf.clone(inputId = inputId)
           }
 
-        var index = 0
-        var hasher: ObjHasher[TaskId] = null
-        for ((workerId, workerRef) <- workers) {
-          val thisHasher = createPartitions(workerId, workerRef, conf, index)
-
-          if (hasher == null) {
-            hasher = thisHasher
+        val mutatorId =
+          if (taskId == -1) {
+            _mutatorId
           } else {
-            hasher = ObjHasher.combineHashers(hasher, thisHasher)
+            tasks(taskId).mutatorId
           }
 
-          index += 1
-        }
-
-        assert(hasher.isComplete())
+        val (hasher, infosFuture) = createPartitions(conf, mutatorId)
 
         val input = conf match {
           case aggregatorConf: AggregatorListConf =>
             new AggregatorInput(inputId, hasher, aggregatorConf, workers.values, self)
 
-          case SimpleListConf(_, _, 1, _, false, _, _) =>
+          case SimpleListConf(_, _, 1, _, false, _, _, _) =>
             new HashPartitionedDoubleListInput(
               inputId, hasher, conf, workers.values, self)
 
-          case SimpleListConf(_, _, _, _, false, _, _) =>
+          case SimpleListConf(_, _, _, _, false, _, _, _) =>
             new HashPartitionedDoubleChunkListInput(
               inputId, hasher, conf, workers.values, self)
           case columnConf: ColumnListConf =>
@@ -350,8 +895,20 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
         }
 
         lists(taskId) = input.asInstanceOf[ListInput[Any, Any]]
-        sender ! input
+
+        val respondTo = sender
+        infosFuture.onComplete {
+          case Success(infos) =>
+            self ! PartitionsCreatedMessage(infos, respondTo, input)
+          case Failure(e) => e.printStackTrace()
+        }
+      }
+
+    case PartitionsCreatedMessage(infos, respondTo, input) =>
+      for (info <- infos) {
+        datastores(info.id) = info
       }
+      respondTo ! input
 
     case FileLoadedMessage(datastoreId: TaskId, fileName: String) =>
       datastores(datastoreId).fileName = fileName
@@ -369,6 +926,7 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
       workerInfos -= deadWorkerId
 
       scheduler.removeWorker(deadWorkerId)
+      ring.remove(deadWorkerId)
 
       tasks.map {
         case (id, info) =>
@@ -382,7 +940,12 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
         case (id, info) =>
           if (info.workerId == deadWorkerId) {
             log.warning("Relaunching " + info)
-            val workerId = scheduler.nextWorker()
+            val workerId =
+              if (info.listConf == null) {
+                scheduler.nextWorker()
+              } else {
+                ring.owner(partitionKey(info.listConf.inputId, info.range.min))
+              }
             val workerRef = workers(workerId)
             context.stop(info.datastoreRef)
 
@@ -426,10 +989,8 @@ class Master(conf: MasterConf) extends Actor with ActorLogging {
             info.taskRef = taskRef
             info.workerId = info.workerId
 
-            if (info.name.startsWith("rootTask")) {
-              val mutatorId = info.name.substring(
-                info.name.indexOf("-")).toInt
-              rootTasks(mutatorId) = taskRef
+            if (info.parentId == -1) {
+              rootTasks(info.mutatorId) = taskRef
             }
 
             taskRef ? RunTaskMessage(info.adjust, true)
@@ -38,12 +38,22 @@ class MasterConf(args: Array[String]) extends ScallopConf(args) {
 
   val storeType = opt[String](
     "store", 's', default = Some("memory"),
-    descr = "The type of datastore to use, may be either 'memory' or " +
-    "'cassandra'")
+    descr = "The type of datastore to use, may be 'memory', 'offheap', " +
+    "which keeps mods outside of the Java heap, or 'cassandra'")
 
   val timeout = opt[Int](
     "timeout", 't', default = Some(100),
     descr = "How long Akka waits on message responses before timing out")
 
   val webui_port = opt[Int]("webui_port", 'w', default = Some(8888))
+
+  val metrics = opt[Boolean](
+    "metrics", default = Some(false),
+    descr = "Record latency and propagation metrics, available from the " +
+    "webui at /metrics and /metrics.json")
+
+  val rebalance = opt[Boolean](
+    "rebalance", default = Some(false),
+    descr = "Migrate list partitions onto workers that register after the " +
+    "lists were created")
 }
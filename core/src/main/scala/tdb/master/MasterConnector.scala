@@ -23,6 +23,8 @@ import scala.concurrent.Await
 
 import tdb.Constants._
 import tdb.Log
+import tdb.messages._
+import tdb.stats.Metrics
 import tdb.worker.{Worker, WorkerInfo}
 import tdb.util.Util
 import tdb.worker.WorkerConf
@@ -30,11 +32,15 @@ import tdb.worker.WorkerConf
 object MasterConnector {
   private var id = 0
 
-  def apply(masterURL: String) = {
+  def apply(masterURL: String): MasterConnector = apply(masterURL, 2554)
+
+  // Connects to a running master. Port 0 binds to any free port, for
+  // processes other than the mutator, such as the REEF driver.
+  def apply(masterURL: String, port: Int): MasterConnector = {
     val ip = Util.getIP()
     val conf = akkaConf + s"""
       akka.remote.netty.tcp.hostname = $ip
-      akka.remote.netty.tcp.port = 2554
+      akka.remote.netty.tcp.port = $port
     """
 
     val mutatorAkkaConf = ConfigFactory.parseString(conf)
@@ -56,6 +62,10 @@ object MasterConnector {
        workerArgs: Array[String] = Array[String](),
        masterConf: MasterConf = new MasterConf(Array[String]()))
       : MasterConnector = {
+    if (masterConf.metrics()) {
+      Metrics.enabled = true
+    }
+
     val logging = masterConf.logLevel()
     val ip = masterConf.ip()
     val port = masterConf.port()
@@ -90,7 +100,9 @@ object MasterConnector {
         workerConf.webui_port(),
         masterConf.storeType(),
         workerConf.envHomePath(),
-        workerConf.cacheSize())
+        workerConf.cacheSize(),
+        writeBatchSize = workerConf.writeBatchSize(),
+        writeDelay = workerConf.writeDelay())
       val workerRef = system.actorOf(
         Worker.props(workerInfo, masterRef), "worker")
 
@@ -105,6 +117,18 @@ class MasterConnector
     (val masterRef: ActorRef,
      val system: ActorSystem) {
 
+  def getLoad(): ClusterLoad = {
+    val future = masterRef ? GetClusterLoadMessage
+    Await.result(future.mapTo[ClusterLoad], DURATION)
+  }
+
+  // Asks the master to stop using the given worker. Returns false if the
+  // worker is still needed, see Master.decommission.
+  def decommission(workerId: TaskId): Boolean = {
+    val future = masterRef ? DecommissionWorkerMessage(workerId)
+    Await.result(future.mapTo[Boolean], DURATION)
+  }
+
   def shutdown() {
     system.shutdown()
     system.awaitTermination()
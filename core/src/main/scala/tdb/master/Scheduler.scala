@@ -23,12 +23,19 @@ class Scheduler {
 
   private val workers = mutable.Buffer[TaskId]()
 
+  // The number of tasks on each worker whose run hasn't completed yet. Tasks
+  // stay on their worker for the rest of their session, but are idle between
+  // propagations.
+  private val load = mutable.Map[TaskId, Int]()
+
   def addWorker(workerId: TaskId) {
     workers += workerId
+    load(workerId) = 0
   }
 
   def removeWorker(workerId: TaskId) {
     workers -= workerId
+    load -= workerId
   }
 
   def nextWorker(): TaskId = {
@@ -37,4 +44,29 @@ class Scheduler {
     workers += w
     w
   }
+
+  // Returns the worker running the fewest tasks, breaking ties in round robin
+  // order, so that concurrent sessions share the workers' dispatchers evenly
+  // instead of each one walking the same rotation.
+  def nextTaskWorker(): TaskId = {
+    val w = workers.minBy(load)
+    workers -= w
+    workers += w
+    w
+  }
+
+  // Returns the number of running tasks on the worker.
+  def getLoad(workerId: TaskId): Int = load.getOrElse(workerId, 0)
+
+  def taskStarted(workerId: TaskId) {
+    if (load.contains(workerId)) {
+      load(workerId) += 1
+    }
+  }
+
+  def taskStopped(workerId: TaskId) {
+    if (load.contains(workerId)) {
+      load(workerId) -= 1
+    }
+  }
 }
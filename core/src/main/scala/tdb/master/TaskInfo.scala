@@ -27,6 +27,7 @@ class TaskInfo
      val adjust: Adjustable[_],
      val parentId: TaskId,
      var workerId: TaskId,
+     val mutatorId: Int,
      var output: Any = null,
      var recovering: Boolean = false) {
 
@@ -22,60 +22,104 @@ import scala.language.existentials
 
 import tdb.{Adjustable, Changeable, TDB}
 import tdb.Constants._
+import tdb.datastore.DatastoreSnapshot
 import tdb.ddg.Node
 import tdb.list.ListConf
+import tdb.master.{DatastoreInfo, TaskInfo}
 import tdb.util.HashRange
 import tdb.worker.WorkerInfo
 
 // Datastore
 case class CreateModMessage(value: Any)
 case class GetModMessage(modId: ModId, task: ActorRef)
+case class GetModVersionMessage(modId: ModId, epoch: Int)
+case class ExportListMessage(nodeId: ModId, batchSize: Int, epoch: Int)
 case class UpdateModMessage(modId: ModId, value: Any, task: ActorRef)
 case class RemoveModsMessage(mods: Iterable[ModId], taskRef: ActorRef)
 case class NullMessage()
 case class ClearMessage()
+case class RemoveDatastoresMessage(datastoreIds: Iterable[TaskId])
 case class LoadFileMessage(fileName: String, recovery: Boolean = false)
 
 // Master
 case class RegisterMutatorMessage()
 case class RunMutatorMessage(adjust: Adjustable[_], mutatorId: Int)
 case class PropagateMutatorMessage(mutatorId: Int)
+case class PropagateLazilyMessage(mutatorId: Int, catchUpMillis: Long)
+case class DemandPropagationMessage(mutatorId: Int, modId: ModId = -1)
+case class AwaitCatchUpMessage(mutatorId: Int)
+case class CatchUpMessage(mutatorId: Int)
+case class LazyPropagationCompletedMessage(
+  mutatorId: Int, propagationMillis: Long, ownerId: TaskId = -1)
 case class GetMutatorDDGMessage(mutatorId: Int)
 case class PrintMutatorDDGDotsMessage(mutatorId: Int, nextName: Int, output: BufferedWriter)
 case class MutatorToBufferMessage(datastoreId: TaskId)
 case class ScheduleTaskMessage(
   name: String, parentId: TaskId, datastoreId: TaskId, adjust: Adjustable[_])
 case class ShutdownMutatorMessage(mutatorId: Int)
+case class SetTracingMessage(enabled: Boolean)
+case class GetTraceMessage()
+case class RebalanceMessage()
 case class ResolveMessage(datastoreId: TaskId)
+case class PinEpochMessage()
+case class UnpinEpochMessage(epoch: Int)
+case class RunCompletedMessage(
+  respondTo: ActorRef, output: Any, propagationMillis: Long = -1)
+case class TaskCompletedMessage(workerId: TaskId)
+case class RootTaskCreatedMessage(taskInfo: TaskInfo, respondTo: ActorRef)
+case class TaskCreatedMessage(taskInfo: TaskInfo, respondTo: ActorRef)
+case class WorkersClearedMessage(
+  mainDatastores: Iterable[(TaskId, ActorRef)], respondTo: ActorRef)
+case class GetClusterLoadMessage()
+case class DecommissionWorkerMessage(workerId: TaskId)
+case class DatastoresMigratedMessage(
+  migrations: Iterable[(TaskId, TaskId, ActorRef)], respondTo: ActorRef,
+  decommissioned: TaskId)
 
-case class CreateListMessage(conf: ListConf, taskId: TaskId)
+case class CreateListMessage(conf: ListConf, taskId: TaskId, mutatorId: Int = -1)
+case class PartitionsCreatedMessage(
+  infos: Iterable[DatastoreInfo], respondTo: ActorRef, input: Any)
 case class FileLoadedMessage(datastoreId: TaskId, fileName: String)
 case class GetAdjustableListMessage()
 case class ToBufferMessage()
 case class PutMessage(table: String, key: Any, value: Any, taskRef: ActorRef)
 case class PutInMessage(column: String, key: Any, value: Any)
 case class PutAllMessage(values: Iterable[(Any, Any)])
+case class PutDoublesMessage(keys: Array[Int], values: Array[Double])
 case class PutAllInMessage(column: String, values: Iterable[(Any, Any)])
 case class GetMessage(key: Any, taskRef: ActorRef)
 case class RemoveMessage(key: Any, value: Any)
 case class RemoveAllMessage(values: Iterable[(Any, Any)])
+case class UpdateEdgesMessage
+  (added: Iterable[(Int, Int)], removed: Iterable[(Int, Int)])
 
 // Worker
 case class RegisterWorkerMessage(workerInfo: WorkerInfo)
+case class WorkerReadyMessage(
+  workerId: TaskId, workerRef: ActorRef, datastoreRef: ActorRef)
 case class CreateTaskMessage(taskId: TaskId, parentId: TaskId)
 case class GetDatastoreMessage()
 case class SplitFileMessage(dir: String, fileName: String, partitions: Int)
 case class CreateDatastoreMessage(
   listConf: ListConf, datastoreId: TaskId, thisRange: HashRange, recovery: Boolean)
+case class MigrateDatastoreMessage(
+  listConf: ListConf, datastoreId: TaskId, range: HashRange,
+  snapshot: DatastoreSnapshot)
+case class SnapshotDatastoreMessage()
+case class DatastoreMigratedMessage(newRef: ActorRef)
+case class AdvanceEpochMessage(epoch: Int, pinned: Iterable[Int])
 
 // Task
-case class ModUpdatedMessage(modId: ModId)
-case class NodeUpdatedMessage(nodeId: NodeId)
-case class ModRemovedMessage(modId: ModId)
-case class KeyUpdatedMessage(inputId: InputId, key: Any)
+case class ModsUpdatedMessage(modIds: Iterable[ModId])
+case class NodesUpdatedMessage(nodeIds: Iterable[NodeId])
+case class ModsRemovedMessage(modIds: Iterable[ModId])
+case class KeysUpdatedMessage(inputId: InputId, keys: Iterable[Any])
 case class KeyRemovedMessage(inputId: InputId, key: Any)
 case class PebbleMessage(taskId: TaskId, modId: ModId)
 case class PropagateTaskMessage()
+case class PropagateTowardMessage(
+  owners: Iterable[TaskId], path: Iterable[TaskId])
+case class ClearTaskMessage()
 case class RunTaskMessage(adjust: Adjustable[_], recovery: Boolean)
 case class GetTaskDDGMessage()
 case class PrintDDGDotsMessage(nextName: Int, output: BufferedWriter)
@@ -0,0 +1,371 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.stats
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.{AtomicLong, AtomicLongArray}
+import scala.collection.JavaConversions._
+
+// A thread-safe registry of counters and latency histograms for the hot paths
+// of the system. Nothing is recorded unless enabled is set, so that the cost
+// of the instrumentation when metrics are off is a single volatile read.
+object Metrics {
+  @volatile var enabled = false
+
+  private val counters = new ConcurrentHashMap[String, Counter]()
+
+  private val histograms = new ConcurrentHashMap[String, Histogram]()
+
+  // Datastore
+  val modReads = histogram(
+    "tdb_mod_read_seconds", "Latency of reading a mod from a task.")
+
+  val storeGets = histogram(
+    "tdb_store_get_seconds", "Latency of KVStore gets.")
+
+  val storePuts = histogram(
+    "tdb_store_put_seconds", "Latency of KVStore puts.")
+
+  val storeFlushes = histogram(
+    "tdb_store_flush_seconds", "Latency of writing a batch of buffered puts.")
+
+  val cacheHits = counter(
+    "tdb_cache_hits_total", "Gets served from the CachedStore LRU cache.")
+
+  val cacheMisses = counter(
+    "tdb_cache_misses_total", "Gets that had to go to the underlying table.")
+
+  val offHeapBytes = computedGauge(
+    "tdb_offheap_bytes", "Direct memory allocated for OffHeapTable slabs.") {
+    () => tdb.datastore.OffHeapTable.totalFootprint()
+  }
+
+  // Messaging
+  val remoteAsks = histogram(
+    "tdb_remote_ask_seconds", "Round trip time of asks sent by a Resolver.")
+
+  // Change propagation
+  val propagations = histogram(
+    "tdb_propagate_seconds", "Time spent in Context.propagate.")
+
+  val taskPropagations = counter(
+    "tdb_task_propagations_total",
+    "PropagateTaskMessages received by tasks, i.e. tasks visited.")
+
+  val memoHits = counter(
+    "tdb_memo_hits_total", "Memoizer calls that matched an existing entry.")
+
+  val memoMisses = counter(
+    "tdb_memo_misses_total", "Memoizer calls that had to run the function.")
+
+  val writeCutoffs = counter(
+    "tdb_write_cutoffs_total",
+    "Writes that didn't change a mod's value, so its readers weren't updated.")
+
+  val ddgSize = computedGauge(
+    "tdb_ddg_timestamps", "Number of timestamps in all DDGs on this JVM.") {
+    () => tdb.ddg.Ordering.totalSize()
+  }
+
+  private val nodeTypes = new ConcurrentHashMap[Class[_], Histogram]()
+
+  // Returns the histogram tracking reexecutions of nodes of the given class.
+  def reexecutions(nodeClass: Class[_]): Histogram = {
+    val histogram = nodeTypes.get(nodeClass)
+    if (histogram != null) {
+      histogram
+    } else {
+      val newHistogram = this.histogram(
+        "tdb_reexecution_seconds",
+        "Time spent reexecuting nodes during change propagation.",
+        "type" -> nodeClass.getSimpleName)
+      nodeTypes.putIfAbsent(nodeClass, newHistogram)
+      nodeTypes.get(nodeClass)
+    }
+  }
+
+  def counter
+      (name: String,
+       help: String,
+       labels: (String, String)*): Counter =
+    register(name, help, "counter", labels)
+
+  // A counter that may also be decremented.
+  def gauge
+      (name: String,
+       help: String,
+       labels: (String, String)*): Counter =
+    register(name, help, "gauge", labels)
+
+  // A gauge whose value is computed from the system's state whenever it is
+  // read, so it is correct regardless of when metrics were enabled. It can't
+  // be incremented or cleared.
+  def computedGauge
+      (name: String,
+       help: String,
+       labels: (String, String)*)
+      (compute: () => Long): Counter = {
+    val key = name + labelString(labels)
+    counters.putIfAbsent(key, new ComputedGauge(name, help, labels, compute))
+    counters.get(key)
+  }
+
+  private def register
+      (name: String,
+       help: String,
+       metricType: String,
+       labels: Seq[(String, String)]): Counter = {
+    val key = name + labelString(labels)
+    counters.putIfAbsent(key, new Counter(name, help, metricType, labels))
+    counters.get(key)
+  }
+
+  def histogram
+      (name: String,
+       help: String,
+       labels: (String, String)*): Histogram = {
+    val key = name + labelString(labels)
+    histograms.putIfAbsent(key, new Histogram(name, help, labels))
+    histograms.get(key)
+  }
+
+  // Returns the current time if metrics are enabled, for passing to
+  // Histogram.record.
+  @inline def start(): Long =
+    if (enabled) System.nanoTime() else 0
+
+  def time[T](histogram: Histogram)(f: => T): T = {
+    if (enabled) {
+      val start = System.nanoTime()
+      val ret = f
+      histogram.record(start)
+      ret
+    } else {
+      f
+    }
+  }
+
+  def clear() {
+    for (counter <- counters.values()) {
+      counter.clear()
+    }
+
+    for (histogram <- histograms.values()) {
+      histogram.clear()
+    }
+  }
+
+  private[stats] def labelString(labels: Seq[(String, String)]): String =
+    if (labels.isEmpty) {
+      ""
+    } else {
+      labels.map {
+        case (key, value) => key + "=\"" + value + "\""
+      }.mkString("{", ",", "}")
+    }
+
+  // Renders all metrics in the Prometheus text exposition format.
+  def toPrometheus(): String = {
+    val out = new StringBuilder()
+    val seen = scala.collection.mutable.Set[String]()
+
+    for (counter <- counters.values().toBuffer.sortBy((_: Counter).name)) {
+      if (!seen.contains(counter.name)) {
+        seen += counter.name
+        out.append("# HELP " + counter.name + " " + counter.help + "\n")
+        out.append("# TYPE " + counter.name + " " + counter.metricType + "\n")
+      }
+      out.append(counter.name + labelString(counter.labels) + " " +
+                 counter.get() + "\n")
+    }
+
+    for (histogram <- histograms.values().toBuffer.sortBy((_: Histogram).name)) {
+      if (!seen.contains(histogram.name)) {
+        seen += histogram.name
+        out.append("# HELP " + histogram.name + " " + histogram.help + "\n")
+        out.append("# TYPE " + histogram.name + " histogram\n")
+      }
+      histogram.appendPrometheus(out)
+    }
+
+    out.toString
+  }
+
+  def toJson(): String = {
+    val counterJson = counters.values().toBuffer.sortBy((_: Counter).name).map {
+      case counter =>
+        "\"" + counter.name + escape(labelString(counter.labels)) + "\": " +
+        counter.get()
+    }
+
+    val histogramJson =
+      histograms.values().toBuffer.sortBy((_: Histogram).name).map {
+        case histogram =>
+          "\"" + histogram.name + escape(labelString(histogram.labels)) +
+          "\": " + histogram.toJson()
+      }
+
+    val hitRatio = (hits: Long, misses: Long) =>
+      if (hits + misses == 0) 0.0 else hits.toDouble / (hits + misses)
+
+    "{\"enabled\": " + enabled + ",\n" +
+    " \"counters\": {" + counterJson.mkString(",\n  ") + "},\n" +
+    " \"histograms\": {" + histogramJson.mkString(",\n  ") + "},\n" +
+    " \"ratios\": {" +
+    "\"memo_hit_ratio\": " + hitRatio(memoHits.get(), memoMisses.get()) +
+    ", \"cache_hit_ratio\": " + hitRatio(cacheHits.get(), cacheMisses.get()) +
+    "}}\n"
+  }
+
+  private def escape(s: String) = s.replace("\"", "\\\"")
+}
+
+class Counter
+    (val name: String,
+     val help: String,
+     val metricType: String,
+     val labels: Seq[(String, String)]) {
+  private val value = new AtomicLong()
+
+  def increment() {
+    if (Metrics.enabled) {
+      value.incrementAndGet()
+    }
+  }
+
+  def add(n: Long) {
+    if (Metrics.enabled) {
+      value.addAndGet(n)
+    }
+  }
+
+  def get(): Long = value.get()
+
+  def clear() {
+    value.set(0)
+  }
+}
+
+class ComputedGauge
+    (name: String,
+     help: String,
+     labels: Seq[(String, String)],
+     compute: () => Long)
+  extends Counter(name, help, "gauge", labels) {
+  override def increment() {}
+
+  override def add(n: Long) {}
+
+  override def get(): Long = compute()
+
+  override def clear() {}
+}
+
+object Histogram {
+  // Bucket i counts values less than 2^(i + minExponent) nanoseconds, i.e. the
+  // first bucket is ~1 microsecond and the last is ~70 seconds.
+  val minExponent = 10
+
+  val numBuckets = 27
+
+  def bucketFor(nanos: Long): Int = {
+    val exponent = 64 - java.lang.Long.numberOfLeadingZeros(nanos)
+    math.min(math.max(exponent - minExponent, 0), numBuckets - 1)
+  }
+
+  def upperBound(bucket: Int): Double =
+    (1L << (bucket + minExponent)) / 1e9
+}
+
+// A lock-free histogram with exponentially sized buckets. Values are recorded
+// in nanoseconds and reported in seconds.
+class Histogram
+    (val name: String,
+     val help: String,
+     val labels: Seq[(String, String)]) {
+  private val buckets = new AtomicLongArray(Histogram.numBuckets)
+
+  private val count = new AtomicLong()
+
+  private val sum = new AtomicLong()
+
+  // Records the time elapsed since start, which should be the result of an
+  // earlier call to Metrics.start.
+  def record(start: Long) {
+    if (Metrics.enabled && start != 0) {
+      recordNanos(System.nanoTime() - start)
+    }
+  }
+
+  def recordNanos(nanos: Long) {
+    if (Metrics.enabled) {
+      buckets.incrementAndGet(Histogram.bucketFor(nanos))
+      count.incrementAndGet()
+      sum.addAndGet(nanos)
+    }
+  }
+
+  def getCount(): Long = count.get()
+
+  def getSum(): Long = sum.get()
+
+  // Returns an upper bound, in seconds, on the given percentile.
+  def percentile(p: Double): Double = {
+    val total = count.get()
+    if (total == 0) {
+      0.0
+    } else {
+      val target = math.ceil(total * p).toLong
+      var seen = 0L
+      var i = 0
+      while (i < Histogram.numBuckets - 1 && seen + buckets.get(i) < target) {
+        seen += buckets.get(i)
+        i += 1
+      }
+      Histogram.upperBound(i)
+    }
+  }
+
+  def clear() {
+    for (i <- 0 until Histogram.numBuckets) {
+      buckets.set(i, 0)
+    }
+    count.set(0)
+    sum.set(0)
+  }
+
+  def appendPrometheus(out: StringBuilder) {
+    var cumulative = 0L
+    for (i <- 0 until Histogram.numBuckets) {
+      cumulative += buckets.get(i)
+      val bucketLabels = labels :+ ("le" -> Histogram.upperBound(i).toString)
+      out.append(name + "_bucket" + Metrics.labelString(bucketLabels) + " " +
+                 cumulative + "\n")
+    }
+    val infLabels = labels :+ ("le" -> "+Inf")
+    out.append(name + "_bucket" + Metrics.labelString(infLabels) + " " +
+               count.get() + "\n")
+    out.append(name + "_sum" + Metrics.labelString(labels) + " " +
+               (sum.get() / 1e9) + "\n")
+    out.append(name + "_count" + Metrics.labelString(labels) + " " +
+               count.get() + "\n")
+  }
+
+  def toJson(): String =
+    "{\"count\": " + count.get() + ", \"sum\": " + (sum.get() / 1e9) +
+    ", \"p50\": " + percentile(0.5) + ", \"p90\": " + percentile(0.9) +
+    ", \"p99\": " + percentile(0.99) + "}"
+}
@@ -51,6 +51,12 @@ object Stats {
 
     val routes = Routes({
       case HttpRequest(request) => request match {
+        case GET(Path("/metrics")) =>
+          request.response.write(
+            Metrics.toPrometheus(), "text/plain; version=0.0.4")
+        case GET(Path("/metrics.json")) =>
+          request.response.write(
+            Metrics.toJson(), "application/json; charset=UTF-8")
         case GET(request) =>
           statsActor ! request
       }
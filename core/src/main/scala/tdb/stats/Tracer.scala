@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.stats
+
+import java.io._
+import scala.collection.mutable.{Buffer, Map}
+
+import tdb.Constants._
+
+// A single reexecuted node (or a whole propagate call) recorded while tracing.
+// Times are in microseconds since the epoch, so that events from different
+// workers can be merged onto a single timeline.
+case class TraceEvent
+    (name: String,
+     category: String,
+     taskId: TaskId,
+     workerId: TaskId,
+     start: Long,
+     duration: Long,
+     remoteWait: Long,
+     memoMatches: Int,
+     spliced: Int) extends Serializable
+
+object Tracer {
+  // Change propagation is only traced on this JVM when this is set. Use
+  // Mutator.setTracing to set it on every worker.
+  @volatile var enabled = false
+
+  private val offset =
+    System.currentTimeMillis() * 1000 - System.nanoTime() / 1000
+
+  // The current time, in microseconds since the epoch.
+  def now(): Long = offset + System.nanoTime() / 1000
+
+  // Returns a human readable name for the closure executed by a node, which
+  // for Scala closures includes the class and method it was defined in.
+  def closureName(closure: AnyRef): String = {
+    val name = closure.getClass.getName
+    val anonfun = name.indexOf("$$anonfun$")
+    if (anonfun == -1) {
+      name
+    } else {
+      val method = name.substring(anonfun + 10).takeWhile(_ != '$')
+      name.substring(0, anonfun) + "." + method
+    }
+  }
+
+  // Writes the events in the Chrome trace event format, which can be loaded
+  // with chrome://tracing. Each task appears as a thread within its worker.
+  def writeChromeTrace(events: Iterable[TraceEvent], output: Writer) {
+    output.write("{\"traceEvents\": [\n")
+
+    var first = true
+    for (event <- events) {
+      if (!first) {
+        output.write(",\n")
+      }
+      first = false
+
+      output.write(
+        "{\"name\": \"" + escape(event.name) + "\", \"cat\": \"" +
+        escape(event.category) +
+        "\", \"ph\": \"X\", \"ts\": " + event.start + ", \"dur\": " +
+        event.duration + ", \"pid\": " + event.workerId + ", \"tid\": " +
+        event.taskId + ", \"args\": {\"remoteWait\": " + event.remoteWait +
+        ", \"memoMatches\": " + event.memoMatches + ", \"spliced\": " +
+        event.spliced + "}}")
+    }
+
+    output.write("\n], \"displayTimeUnit\": \"ms\"}\n")
+  }
+
+  // Escapes a string for use in a JSON string literal. Closure names can
+  // contain arbitrary characters, e.g. from backquoted identifiers.
+  private def escape(s: String): String = {
+    val out = new StringBuilder()
+    for (c <- s) {
+      c match {
+        case '"' => out.append("\\\"")
+        case '\\' => out.append("\\\\")
+        case '\n' => out.append("\\n")
+        case '\r' => out.append("\\r")
+        case '\t' => out.append("\\t")
+        case c if c < ' ' => out.append("\\u%04x".format(c.toInt))
+        case c => out.append(c)
+      }
+    }
+    out.toString
+  }
+
+  // Returns a table of the n closures with the most total reexecution time.
+  // Note that the time for a node includes any nested reexecutions.
+  def summary(events: Iterable[TraceEvent], n: Int = 20): String = {
+    val totals = Map[(String, String), Array[Long]]()
+    for (event <- events if event.category != "propagate") {
+      val total = totals.getOrElseUpdate(
+        (event.category, event.name), Array(0L, 0L, 0L, 0L))
+      total(0) += 1
+      total(1) += event.duration
+      total(2) += event.remoteWait
+      total(3) += event.spliced
+    }
+
+    val out = new StringBuilder()
+    out.append("count\ttime(us)\tremote(us)\tspliced\ttype\treader\n")
+    val sorted = totals.toBuffer.sortBy {
+      (pair: ((String, String), Array[Long])) => -pair._2(1)
+    }
+    for (((category, name), total) <- sorted.take(n)) {
+      out.append(total.mkString("\t") + "\t" + category + "\t" + name + "\n")
+    }
+
+    out.toString
+  }
+}
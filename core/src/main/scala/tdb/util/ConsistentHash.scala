@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.util
+
+import scala.collection.immutable.TreeMap
+import scala.util.hashing.MurmurHash3
+
+// A consistent hash ring, used to assign list partitions to workers. Each
+// member is placed on the ring at a number of points proportional to its
+// weight, and a key belongs to the first member at or after its hash, so
+// adding or removing a member only moves the keys in the arcs that it gains
+// or loses.
+class ConsistentHash[T](pointsPerWeight: Int = 64) {
+  private var ring = TreeMap[Int, T]()
+
+  private val weights = scala.collection.mutable.Map[T, Int]()
+
+  def add(member: T, weight: Int = 1) {
+    assert(!weights.contains(member), "ConsistentHash.add duplicate " + member)
+    weights(member) = weight
+
+    for (i <- 0 until weight * pointsPerWeight) {
+      ring += ((pointHash(member, i), member))
+    }
+  }
+
+  def remove(member: T) {
+    for (i <- 0 until weights(member) * pointsPerWeight) {
+      val point = pointHash(member, i)
+      if (ring.get(point) == Some(member)) {
+        ring -= point
+      }
+    }
+
+    weights -= member
+  }
+
+  def members: Iterable[T] = weights.keys
+
+  def size = weights.size
+
+  def owner(key: Any): T = {
+    assert(!ring.isEmpty, "ConsistentHash.owner called on an empty ring")
+
+    val hash = MurmurHash3.stringHash(key.toString)
+    val after = ring.from(hash)
+    if (after.isEmpty) {
+      ring.head._2
+    } else {
+      after.head._2
+    }
+  }
+
+  private def pointHash(member: T, i: Int) =
+    MurmurHash3.stringHash(member + "-" + i)
+}
@@ -19,6 +19,19 @@ import java.io._
 import scala.collection.GenIterable
 import scala.collection.mutable.Map
 
+object Data {
+  // If set, the generators are seeded with it so that the data and updates
+  // they produce are the same from run to run.
+  @volatile var seed = -1L
+
+  def newRandom(): scala.util.Random =
+    if (seed == -1) {
+      new scala.util.Random()
+    } else {
+      new scala.util.Random(seed)
+    }
+}
+
 trait Data[T, U] {
   val table = Map[T, U]()
 
@@ -29,7 +29,7 @@ class GraphData
 
   val averageDegree = 14
 
-  val rand = new scala.util.Random()
+  val rand = Data.newRandom()
 
   var remainingRuns = runs
 
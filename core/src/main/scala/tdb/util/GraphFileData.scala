@@ -16,8 +16,9 @@
 package tdb.util
 
 import java.io._
+import scala.collection.mutable.Buffer
 
-import tdb.list.ListInput
+import tdb.list.{HashPartitionedListInput, ListInput}
 
 class GraphFileData
     (input: ListInput[Int, Array[Int]],
@@ -58,6 +59,20 @@ class GraphFileData
     input.put(key, value)
   }
 
+  // Only hash partitioned lists support edge deltas. For other inputs, the
+  // whole adjacency list of each changed vertex is put instead.
+  private def updateEdges
+      (added: Iterable[(Int, Int)], removed: Iterable[(Int, Int)]) {
+    input match {
+      case hashed: HashPartitionedListInput[_, _] =>
+        hashed.updateEdges(added, removed)
+      case _ =>
+        for (key <- (added ++ removed).map(_._1).toSet[Int]) {
+          put(key, table(key))
+        }
+    }
+  }
+
   def load() = {
     for ((key, value) <- table) {
       put(key, value)
@@ -74,6 +89,10 @@ class GraphFileData
 
     remainingRuns = remainingRuns.tail
 
+    // Only the changed edges are sent to the input, rather than the whole
+    // adjacency list of each vertex that changed.
+    val added = Buffer[(Int, Int)]()
+    val removed = Buffer[(Int, Int)]()
     for (i <- 0 until updateCount) {
       val line = in.readLine()
       val split = line.split("\t")
@@ -84,13 +103,18 @@ class GraphFileData
       split(0) match {
         case "add" =>
           table(key) :+= value
+          added += ((key, value))
         case "remove" =>
           table(key) = table(key).filter(_ != value)
+          // Removals are applied before additions, so an edge that was added
+          // earlier in this update must not be added at all.
+          added --= added.filter(_ == (key, value))
+          removed += ((key, value))
       }
-
-      put(key, table(key))
     }
 
+    updateEdges(added, removed)
+
     updateCount
   }
 
@@ -25,7 +25,7 @@ class IntData
      _file: String = "data.txt") extends Data[Int, Int] {
   val maxKey = count * 1000
 
-  val rand = new scala.util.Random()
+  val rand = Data.newRandom()
 
   val file = _file
 
@@ -0,0 +1,105 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.util
+
+// An open addressing hash map from Ints to Doubles that sums the values added
+// for each key, without boxing either.
+class IntDoubleMap(initialCapacity: Int = 16) extends Serializable {
+  private var capacity = Integer.highestOneBit(math.max(initialCapacity, 2) * 2)
+
+  private var keys = new Array[Int](capacity)
+
+  private var values = new Array[Double](capacity)
+
+  private var used = new Array[Boolean](capacity)
+
+  private var _size = 0
+
+  def size = _size
+
+  def isEmpty = _size == 0
+
+  // Adds value to the sum for key.
+  def add(key: Int, value: Double) {
+    var i = slot(key)
+    while (used(i) && keys(i) != key) {
+      i = (i + 1) & (capacity - 1)
+    }
+
+    if (used(i)) {
+      values(i) += value
+    } else {
+      used(i) = true
+      keys(i) = key
+      values(i) = value
+      _size += 1
+
+      if (_size * 2 > capacity) {
+        grow()
+      }
+    }
+  }
+
+  def foreach(f: (Int, Double) => Unit) {
+    var i = 0
+    while (i < capacity) {
+      if (used(i)) {
+        f(keys(i), values(i))
+      }
+      i += 1
+    }
+  }
+
+  // Returns the keys and their sums as parallel arrays.
+  def toArrays(): (Array[Int], Array[Double]) = {
+    val outKeys = new Array[Int](_size)
+    val outValues = new Array[Double](_size)
+    var j = 0
+    foreach((key, value) => {
+      outKeys(j) = key
+      outValues(j) = value
+      j += 1
+    })
+    (outKeys, outValues)
+  }
+
+  def clear() {
+    java.util.Arrays.fill(used, false)
+    _size = 0
+  }
+
+  private def slot(key: Int): Int = {
+    // Spread the bits, since graph vertex ids are often sequential.
+    val h = key * 0x9E3779B9
+    (h ^ (h >>> 16)) & (capacity - 1)
+  }
+
+  private def grow() {
+    val oldKeys = keys
+    val oldValues = values
+    val oldUsed = used
+
+    capacity *= 2
+    keys = new Array[Int](capacity)
+    values = new Array[Double](capacity)
+    used = new Array[Boolean](capacity)
+    _size = 0
+
+    for (i <- 0 until oldKeys.length if oldUsed(i)) {
+      add(oldKeys(i), oldValues(i))
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.util
+
+// An open addressing hash map from Longs to Longs, without boxing either.
+// Removals shift later entries back instead of leaving tombstones.
+class LongLongMap(initialCapacity: Int = 16) {
+  private var capacity = Integer.highestOneBit(math.max(initialCapacity, 2) * 2)
+
+  private var keys = new Array[Long](capacity)
+
+  private var values = new Array[Long](capacity)
+
+  private var used = new Array[Boolean](capacity)
+
+  private var _size = 0
+
+  def size = _size
+
+  def isEmpty = _size == 0
+
+  def contains(key: Long): Boolean = used(find(key))
+
+  // Returns the value for key, or default if it isn't present.
+  def getOrElse(key: Long, default: Long): Long = {
+    val i = find(key)
+    if (used(i)) values(i) else default
+  }
+
+  def put(key: Long, value: Long) {
+    val i = find(key)
+    if (used(i)) {
+      values(i) = value
+    } else {
+      used(i) = true
+      keys(i) = key
+      values(i) = value
+      _size += 1
+
+      if (_size * 2 > capacity) {
+        grow()
+      }
+    }
+  }
+
+  def remove(key: Long) {
+    var i = find(key)
+    if (used(i)) {
+      used(i) = false
+      _size -= 1
+
+      // Move back any entries in the same run that can no longer be found
+      // now that there's a gap before them.
+      var j = (i + 1) & (capacity - 1)
+      while (used(j)) {
+        val home = slot(keys(j))
+        if (((j - home) & (capacity - 1)) >= ((j - i) & (capacity - 1))) {
+          keys(i) = keys(j)
+          values(i) = values(j)
+          used(i) = true
+          used(j) = false
+          i = j
+        }
+        j = (j + 1) & (capacity - 1)
+      }
+    }
+  }
+
+  def foreach(f: (Long, Long) => Unit) {
+    var i = 0
+    while (i < capacity) {
+      if (used(i)) {
+        f(keys(i), values(i))
+      }
+      i += 1
+    }
+  }
+
+  def clear() {
+    java.util.Arrays.fill(used, false)
+    _size = 0
+  }
+
+  // Returns the slot holding key, or the empty slot it would be put in.
+  private def find(key: Long): Int = {
+    var i = slot(key)
+    while (used(i) && keys(i) != key) {
+      i = (i + 1) & (capacity - 1)
+    }
+    i
+  }
+
+  private def slot(key: Long): Int = {
+    // Mod ids are sequential within each datastore.
+    val h = (key ^ (key >>> 32)).toInt * 0x9E3779B9
+    (h ^ (h >>> 16)) & (capacity - 1)
+  }
+
+  private def grow() {
+    val oldKeys = keys
+    val oldValues = values
+    val oldUsed = used
+
+    capacity *= 2
+    keys = new Array[Long](capacity)
+    values = new Array[Long](capacity)
+    used = new Array[Boolean](capacity)
+    _size = 0
+
+    for (i <- 0 until oldKeys.length if oldUsed(i)) {
+      put(oldKeys(i), oldValues(i))
+    }
+  }
+}
@@ -68,6 +68,9 @@ class ObjHasher[T](val objs: Map[Int, T], val total: Int)
   extends Serializable {
   def hash(a: Any): Int = a.hashCode().abs % total
 
+  // Equivalent to hash(key), without boxing key.
+  def hashInt(key: Int): Int = key.abs % total
+
   def getObj(a: Any): T = {
     val hashValue = hash(a)
     objs(hashValue)
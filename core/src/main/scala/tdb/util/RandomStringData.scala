@@ -29,7 +29,7 @@ class RandomStringData
 
   val maxKey = count * 100
 
-  val rand = new scala.util.Random()
+  val rand = Data.newRandom()
 
   val file = "data.txt"
 
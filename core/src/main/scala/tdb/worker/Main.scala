@@ -25,7 +25,7 @@ import scala.concurrent.duration._
 import tdb.{Constants, Log}
 import tdb.Constants._
 import tdb.messages._
-import tdb.stats.Stats
+import tdb.stats.{Metrics, Stats}
 import tdb.util._
 
 object Main {
@@ -34,6 +34,7 @@ object Main {
 
     Constants.DURATION = conf.timeout().seconds
     Constants.TIMEOUT = Timeout(Constants.DURATION)
+    Metrics.enabled = conf.metrics()
 
     val ip = conf.ip()
     val port = conf.port()
@@ -67,7 +68,9 @@ object Main {
       webui_port,
       "",
       conf.envHomePath(),
-      conf.cacheSize())
+      conf.cacheSize(),
+      writeBatchSize = conf.writeBatchSize(),
+      writeDelay = conf.writeDelay())
 
     system.actorOf(Worker.props(info, masterRef), "worker")
 
@@ -26,7 +26,7 @@ import tdb.Constants._
 import tdb.{Adjustable, Context}
 import tdb.ddg._
 import tdb.messages._
-import tdb.stats.WorkerStats
+import tdb.stats.{Metrics, WorkerStats}
 
 object Task {
   def props
@@ -50,46 +50,84 @@ class Task
   private val c = new Context(
     taskId, mainDatastoreId, self, masterRef, log)
 
-  def receive = {
-    case ModUpdatedMessage(modId: ModId) =>
-      c.ddg.modUpdated(modId)
-      c.updatedMods += modId
+  override def postStop() {
+    c.ddg.ordering.release()
+  }
 
-      if (parentId == -1) {
-        sender ! "done"
-      } else {
-        val respondTo = sender
-        c.resolver.sendToTask(parentId, PebbleMessage(taskId, modId)) {
-          respondTo ! "done"
-        }
+  // Informs the parent that this task has been updated. Each batch of update
+  // notifications results in at most one PebbleMessage.
+  private def pebbleParent(respondTo: ActorRef) {
+    if (parentId == -1) {
+      respondTo ! "done"
+    } else {
+      c.resolver.sendToTask(parentId, PebbleMessage(taskId, -1)) {
+        respondTo ! "done"
       }
+    }
+  }
 
-    case NodeUpdatedMessage(nodeId: NodeId) =>
-      c.ddg.nodeUpdated(nodeId)
+  // If only part of the trace is being propagated, the mods updated since
+  // the last propagation are kept, so that memo calls in the rest of it
+  // still don't match on them.
+  private def propagate
+      (respondTo: ActorRef,
+       future: => Future[Boolean] = c.propagate(),
+       whole: Boolean = true) {
+    future onComplete {
+      case Success(t) =>
+        if (whole) {
+          c.updatedMods.clear()
+        }
 
-      if (parentId == -1) {
-        sender ! "done"
-      } else {
-        val respondTo = sender
-        c.resolver.sendToTask(parentId, PebbleMessage(taskId, -1)) {
-          respondTo ! "done"
+        Await.result(Future.sequence(c.pending), DURATION)
+        c.pending.clear()
+
+        for ((input, buf) <- c.buffers) {
+          buf.flush(c.resolver, false)
+        }
+        for ((input, buf) <- c.bufs) {
+          buf.flush()
         }
+
+        respondTo ! "done"
+      case Failure(e) =>
+        e.printStackTrace()
+    }
+  }
+
+  def receive = {
+    case ModsUpdatedMessage(modIds: Iterable[ModId]) =>
+      for (modId <- modIds) {
+        c.ddg.modUpdated(modId)
+        c.updatedMods += modId
+      }
+
+      pebbleParent(sender)
+
+    case NodesUpdatedMessage(nodeIds: Iterable[NodeId]) =>
+      for (nodeId <- nodeIds) {
+        c.ddg.nodeUpdated(nodeId)
       }
 
-    case ModRemovedMessage(modId: ModId) =>
-      c.ddg.modRemoved(modId)
+      pebbleParent(sender)
+
+    case ModsRemovedMessage(modIds: Iterable[ModId]) =>
+      for (modId <- modIds) {
+        c.ddg.modRemoved(modId)
+      }
       sender ! "done"
 
-    case KeyUpdatedMessage(inputId: InputId, key: Any) =>
+    case KeysUpdatedMessage(inputId: InputId, keys: Iterable[Any]) =>
       val newPebble = c.ddg.updated.size == 0
 
-      c.ddg.keyUpdated(inputId, key)
+      for (key <- keys) {
+        c.ddg.keyUpdated(inputId, key)
+      }
 
-      if (newPebble && parentId != -1) {
-        val respondTo = sender
-        c.resolver.sendToTask(parentId, PebbleMessage(taskId, -1)) {
-          respondTo ! "done"
-        }
+      // Keys that are no longer read, e.g. after the task was cleared, don't
+      // need a pebble.
+      if (newPebble && c.ddg.updated.size > 0) {
+        pebbleParent(sender)
       } else {
         sender ! "done"
       }
@@ -128,18 +166,51 @@ class Task
 
     case PropagateTaskMessage =>
       log.debug("Running change propagation.")
+      Metrics.taskPropagations.increment()
       c.initialRun = false
       c.epoch += 1
 
-      val respondTo = sender
-      val future = c.propagate()
-      future onComplete {
-        case Success(t) =>
-          c.updatedMods.clear()
+      // Root tasks are propagated whether or not anything was pebbled, so
+      // this avoids scheduling a propagation with nothing to reexecute.
+      if (c.ddg.synchronized { c.ddg.updated.isEmpty }) {
+        c.updatedMods.clear()
+        sender ! "done"
+      } else {
+        propagate(sender)
+      }
 
-          Await.result(Future.sequence(c.pending), DURATION)
-          c.pending.clear()
+    case PropagateTowardMessage(owners, path) =>
+      if (owners.exists(_ == taskId)) {
+        self forward PropagateTaskMessage
+      } else {
+        log.debug("Running change propagation toward " + owners)
+        Metrics.taskPropagations.increment()
+        c.initialRun = false
+        c.epoch += 1
+
+        if (c.ddg.synchronized { c.ddg.updated.isEmpty }) {
+          sender ! "done"
+        } else {
+          propagate(sender, c.propagateToward(owners, path), false)
+        }
+      }
 
+    case ClearTaskMessage =>
+      // Clearing a task clears its children, so we don't block a thread
+      // while waiting for them.
+      Future {
+        c.ddg.synchronized {
+          val start = c.ddg.root.getNext()
+          if (start < c.ddg.root.end) {
+            c.ddg.ordering.splice(start, c.ddg.root.end, c, true)
+          }
+
+          val children = Future.sequence(c.pending)
+          c.pending.clear()
+          children
+        }
+      }.flatMap(children => children).map {
+        case _ =>
           for ((input, buf) <- c.buffers) {
             buf.flush(c.resolver, false)
           }
@@ -147,10 +218,8 @@ class Task
             buf.flush()
           }
 
-          respondTo ! "done"
-        case Failure(e) =>
-          e.printStackTrace()
-      }
+          "done"
+      } pipeTo sender
 
     case GetTaskDDGMessage =>
       sender ! c.ddg
@@ -158,6 +227,12 @@ class Task
     case PrintDDGDotsMessage(nextName: Int, output: BufferedWriter) =>
       sender ! (new DDGPrinter(c, nextName, output)).print()
 
+    case GetTraceMessage() =>
+      c.traceEvents.synchronized {
+        sender ! c.traceEvents.clone()
+        c.traceEvents.clear()
+      }
+
     case "ping" =>
       sender ! "done"
 
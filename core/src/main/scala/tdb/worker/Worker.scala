@@ -29,7 +29,7 @@ import tdb.Constants._
 import tdb.datastore._
 import tdb.list._
 import tdb.messages._
-import tdb.stats.Stats
+import tdb.stats.{Stats, Tracer}
 import tdb.util._
 
 object Worker {
@@ -68,6 +68,24 @@ class Worker(_info: WorkerInfo, masterRef: ActorRef)
   }
   private val datastores = Map[TaskId, ActorRef]()
 
+  // Creates the datastore for mods created by tasks on this worker. This is
+  // done here rather than by the master so that the master doesn't have to
+  // wait on this worker while it registers.
+  private def launchMainDatastore(): ActorRef = {
+    val datastoreRef = context.actorOf(
+      DatastoreActor.props(info, info.mainDatastoreId))
+    datastores(info.mainDatastoreId) = datastoreRef
+    datastoreRef
+  }
+
+  {
+    val message = WorkerReadyMessage(info.workerId, self, launchMainDatastore())
+    Await.result(masterRef ? message, DURATION) match {
+      case AdvanceEpochMessage(epoch, pinned) =>
+        Datastore.advanceEpoch(epoch, pinned)
+    }
+  }
+
   def receive = {
     case PebbleMessage(taskId: TaskId, modId: ModId) =>
       sender ! "done"
@@ -100,6 +118,13 @@ class Worker(_info: WorkerInfo, masterRef: ActorRef)
       datastores(datastoreId) = modifierRef
       sender ! modifierRef
 
+    case MigrateDatastoreMessage(listConf, datastoreId, range, snapshot) =>
+      val modifierRef = context.actorOf(ModifierActor.props(
+        listConf, info, datastoreId, range, masterRef, true, snapshot))
+
+      datastores(datastoreId) = modifierRef
+      sender ! modifierRef
+
     case SplitFileMessage(dir: String, fileName: String, partitions: Int) =>
       if (tdb.examples.Experiment.fast) {
         if (!OS.exists(dir)) {
@@ -136,6 +161,22 @@ class Worker(_info: WorkerInfo, masterRef: ActorRef)
 
       Stats.clear()
 
+      sender ! launchMainDatastore()
+
+    case RemoveDatastoresMessage(datastoreIds: Iterable[TaskId]) =>
+      for (datastoreId <- datastoreIds) {
+        datastores.get(datastoreId).foreach(context.stop)
+        datastores -= datastoreId
+      }
+
+      sender ! "done"
+
+    case SetTracingMessage(enabled: Boolean) =>
+      Tracer.enabled = enabled
+      sender ! "done"
+
+    case AdvanceEpochMessage(epoch, pinned) =>
+      Datastore.advanceEpoch(epoch, pinned)
       sender ! "done"
 
     case "ping" => sender ! "done"
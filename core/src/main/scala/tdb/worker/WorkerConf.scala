@@ -24,7 +24,13 @@ class WorkerConf(args: Array[String]) extends ScallopConf(args) {
   banner("Usage: worker.sh [options] master")
   val cacheSize = opt[Int]("cacheSize", 'c', default = Some(10000),
     descr = "The number of elements to keep in the cache, if the " +
-    "berkeleydb store is being used")
+    "berkeleydb or offheap store is being used")
+  val writeBatchSize = opt[Int]("writeBatchSize", default = Some(1000),
+    descr = "The number of buffered writes to a table that causes them to " +
+    "be sent to the database, if the cassandra store is being used")
+  val writeDelay = opt[Int]("writeDelay", default = Some(10),
+    descr = "The longest time in milliseconds that a write to the database " +
+    "may be buffered for")
   val envHomePath = opt[String]("envHomePath",
     default = Some("/tmp/tdb_berkeleydb"), descr = "If using berkeleydb," +
     "the path to where the database should be stored.")
@@ -38,5 +44,8 @@ class WorkerConf(args: Array[String]) extends ScallopConf(args) {
   val timeout = opt[Int]("timeout", 't', default = Some(100),
     descr = "How long Akka waits on message responses before timing out")
   val webui_port = opt[Int]("webui_port", 'w', default = Some(8889))
+  val metrics = opt[Boolean]("metrics", default = Some(false),
+    descr = "Record latency and propagation metrics, available from the " +
+    "webui at /metrics and /metrics.json")
   val master = trailArg[String](required = true)
 }
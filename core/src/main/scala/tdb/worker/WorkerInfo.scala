@@ -31,7 +31,9 @@ case class WorkerInfo
    cacheSize: Int,
    mainDatastoreId: TaskId = -1,
    numCores: Int = OS.getNumCores(),
-   cluster: Cluster = null) {
+   cluster: Cluster = null,
+   writeBatchSize: Int = 1000,
+   writeDelay: Int = 10) {
   val workerAddress = "akka.tcp://" + systemName + "@" + ip + ":" +
     port + "/user/worker"
 
@@ -15,11 +15,14 @@
  */
 package tdb.test
 
+import java.util.concurrent.{CountDownLatch, TimeUnit}
+import java.util.concurrent.atomic.AtomicBoolean
 import org.scalatest._
 import scala.collection.mutable.ArrayBuffer
 
 import tdb._
 import tdb.list._
+import tdb.stats.Metrics
 import tdb.TDB._
 
 class ChangePropagationTests extends FlatSpec with Matchers {
@@ -138,4 +141,206 @@ class ChangePropagationTests extends FlatSpec with Matchers {
 
     mutator.shutdown()
   }
+
+  class ParallelRegionsTest(inputs: Seq[Mod[Int]])
+      extends Adjustable[Seq[Mod[Int]]] {
+    // When set, each reader waits for another one to reach it, which only
+    // happens if they're running at the same time.
+    @volatile var latch: CountDownLatch = null
+    val overlapped = new AtomicBoolean(false)
+
+    def run(implicit c: Context) = {
+      c.parallelPropagation = true
+
+      inputs.map {
+        case input =>
+          mod {
+            read(input) {
+              case value =>
+                val thisLatch = latch
+                if (thisLatch != null) {
+                  thisLatch.countDown()
+                  if (thisLatch.await(10, TimeUnit.SECONDS)) {
+                    overlapped.set(true)
+                  }
+                }
+
+                mod {
+                  read(input) {
+                    case value2 => write(value2 * 2)
+                  }
+                }
+
+                write(value + 1)
+            }
+          }
+      }
+    }
+  }
+
+  "ParallelRegionsTest" should "reexecute disjoint readers in parallel" in {
+    val mutator = new Mutator()
+    val inputs = (0 until 8).map(mutator.createMod(_))
+    val test = new ParallelRegionsTest(inputs)
+    val outputs = mutator.run(test)
+    outputs.map(mutator.read(_)) should be (1 to 8)
+
+    test.latch = new CountDownLatch(2)
+    for (i <- 0 until 8) {
+      mutator.updateMod(inputs(i), i * 10)
+    }
+    mutator.propagate()
+    test.latch = null
+
+    outputs.map(mutator.read(_)) should be ((0 until 8).map(_ * 10 + 1))
+    test.overlapped.get() should be (true)
+
+    mutator.updateMod(inputs(3), -1)
+    mutator.propagate()
+    mutator.read(outputs(3)) should be (0)
+
+    mutator.shutdown()
+  }
+
+  class CutoffTest(input: Mod[Int]) extends Adjustable[Mod[Int]] {
+    var reexecuted = 0
+
+    def run(implicit c: Context) = {
+      val parity = mod {
+        read(input) {
+          case value => write(value % 2)
+        }
+      }
+
+      mod {
+        read(parity) {
+          case value =>
+            reexecuted += 1
+            write(value * 10)
+        }
+      }
+    }
+  }
+
+  "CutoffTest" should "not reexecute readers of unchanged mods" in {
+    val mutator = new Mutator()
+    val input = mutator.createMod(1)
+    val test = new CutoffTest(input)
+    val output = mutator.run(test)
+    mutator.read(output) should be (10)
+
+    test.reexecuted = 0
+    mutator.updateMod(input, 3)
+    mutator.propagate()
+    mutator.read(output) should be (10)
+    test.reexecuted should be (0)
+
+    mutator.updateMod(input, 4)
+    mutator.propagate()
+    mutator.read(output) should be (0)
+    test.reexecuted should be (1)
+
+    mutator.shutdown()
+  }
+
+  "Pebbled propagation" should "only visit the tasks leading to an update" in {
+    Metrics.enabled = true
+
+    val mutator = new Mutator()
+    val input = mutator.createList[String, Int](ListConf(partitions = 8))
+    for (i <- 0 until 64) {
+      input.put("key" + i, i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    val output = mutator.run(new ListMapTest(f, input))
+
+    // Updating every key dirties every partition of the map.
+    Metrics.clear()
+    for (i <- 0 until 64) {
+      input.put("key" + i, i + 1)
+    }
+    mutator.propagate()
+    val allTasks = Metrics.taskPropagations.get()
+
+    Metrics.clear()
+    input.put("key0", -1)
+    mutator.propagate()
+    val oneKeyTasks = Metrics.taskPropagations.get()
+
+    output.toBuffer(mutator).toMap should be (
+      (1 until 64).map(i => ("key" + i, (i + 1) * 2)).toMap + ("key0" -> -2))
+    oneKeyTasks should be < allTasks
+
+    // Nothing is pebbled, so only the root task is visited.
+    Metrics.clear()
+    mutator.propagate()
+    Metrics.taskPropagations.get() should be (1)
+
+    mutator.shutdown()
+    Metrics.enabled = false
+  }
+
+  class PureTest
+      (one: Mod[Int],
+       two: Mod[Int],
+       output: ListInput[String, Int],
+       pure: Boolean) extends Adjustable[Mod[Int]] {
+    var reexecuted = 0
+
+    def run(implicit c: Context) = {
+      def body() =
+        read(one) {
+          case a =>
+            read(two) {
+              case b =>
+                reexecuted += 1
+                put(output, "sum", a + b)
+                put(output, "one", a)
+                write(a * b)
+            }
+        }
+
+      mod {
+        if (pure) TDB.pure { body() } else body()
+      }
+    }
+  }
+
+  "PureTest" should "reexecute the whole block and trace fewer nodes" in {
+    val sizes =
+      for (pure <- Seq(false, true)) yield {
+        val mutator = new Mutator()
+        val one = mutator.createMod(2)
+        val two = mutator.createMod(3)
+        val output = mutator.createList[String, Int](
+          AggregatorListConf(valueType = AggregatedIntColumn()))
+        val test = new PureTest(one, two, output, pure)
+
+        val before = Metrics.ddgSize.get()
+        val product = mutator.run(test)
+        val size = Metrics.ddgSize.get() - before
+        mutator.read(product) should be (6)
+
+        mutator.updateMod(two, 4)
+        mutator.propagate()
+        mutator.read(product) should be (8)
+        output.getAdjustableList().toBuffer(mutator).toMap should be (
+          Map("sum" -> 6, "one" -> 2))
+
+        // The old puts are removed when the block is reexecuted.
+        test.reexecuted = 0
+        mutator.updateMod(one, 1)
+        mutator.propagate()
+        mutator.read(product) should be (4)
+        output.getAdjustableList().toBuffer(mutator).toMap should be (
+          Map("sum" -> 5, "one" -> 1))
+        test.reexecuted should be (1)
+
+        mutator.shutdown()
+        size
+      }
+
+    sizes(1) should be < sizes(0)
+  }
 }
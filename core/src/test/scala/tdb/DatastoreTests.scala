@@ -0,0 +1,188 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.test
+
+import akka.actor.{Actor, ActorRef, ActorSystem, Props}
+import org.scalatest._
+import scala.collection.mutable.Buffer
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext.Implicits.global
+
+import tdb.Constants._
+import tdb.datastore.{Datastore, ModBatch, ModifierInfo}
+import tdb.messages._
+import tdb.worker.WorkerInfo
+
+// Stands in for a task, recording the notifications it receives.
+class NotificationRecorder(received: Buffer[Any]) extends Actor {
+  def receive = {
+    case message =>
+      received.synchronized {
+        received += message
+      }
+      sender ! "done"
+  }
+}
+
+class DatastoreTests extends FlatSpec with Matchers {
+  val workerInfo = WorkerInfo(1, "test", "127.0.0.1", 0, 0, "memory", "", 10)
+
+  def updateLocal
+      (datastore: Datastore, modId: ModId, value: Any, taskRef: ActorRef) =
+    datastore.updateModLocal(
+      modId, value, taskRef, Datastore.fingerprint(value))
+
+  "ModBatch" should "create mods with fresh ids in bulk" in {
+    val datastore = new Datastore(workerInfo, null, 1, false)
+    val step = datastore.maxModIdStep
+    Await.result(datastore.store.put(
+      datastore.metaTableId, 1, new ModifierInfo(-1, step)), DURATION)
+
+    val single = datastore.createMod("single")
+
+    // Enough mods to cross several steps of the id high water mark.
+    val batch = new ModBatch(datastore, 1000)
+    val mods = for (i <- 0 until 3 * step) yield batch.createMod(i)
+    Await.result(batch.flush(), DURATION)
+
+    val ids = (single +: mods).map(_.id)
+    ids.distinct.size should be (ids.size)
+    for (i <- 0 until 3 * step by 997) {
+      datastore.read(mods(i)) should be (i)
+    }
+    datastore.read(single) should be ("single")
+
+    // Recovery restarts allocation from the recorded maximum, so it must be
+    // past every id that was handed out.
+    val info = Await.result(datastore.store.get(datastore.metaTableId, 1),
+      DURATION).asInstanceOf[ModifierInfo]
+    info.maxModId should be >= datastore.nextModId
+
+    ids should not contain (datastore.getNewModId())
+
+    datastore.close()
+  }
+
+  "Datastore" should "notify readers of local writes and removals" in {
+    val system = ActorSystem("datastoreTests")
+    val received = Buffer[Any]()
+    val reader = system.actorOf(Props(classOf[NotificationRecorder], received))
+    val datastore = new Datastore(workerInfo, null, 1, false)
+
+    val one = datastore.createMod(1)
+    val two = datastore.createMod(2)
+    Await.result(datastore.getModLocal(one.id, reader), DURATION) should be (1)
+    Await.result(datastore.getModLocal(two.id, reader), DURATION) should be (2)
+    Await.result(datastore.getModLocal(two.id, null), DURATION) should be (2)
+
+    Await.result(updateLocal(datastore, one.id, 3, null), DURATION)
+    datastore.read(one) should be (3)
+
+    // Writing the same value again isn't a change.
+    Await.result(updateLocal(datastore, one.id, 3, null), DURATION)
+
+    // The reader doesn't notify itself.
+    Await.result(updateLocal(datastore, two.id, 4, reader), DURATION)
+
+    Await.result(datastore.removeModsLocal(Buffer(two.id), null), DURATION)
+
+    received should be (Buffer(
+      ModsUpdatedMessage(Buffer(one.id)),
+      ModsRemovedMessage(Buffer(two.id))))
+
+    datastore.close()
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  it should "not flush notifications queued by other writers" in {
+    val system = ActorSystem("datastoreTests")
+    val received = Buffer[Any]()
+    val reader = system.actorOf(Props(classOf[NotificationRecorder], received))
+    val datastore = new Datastore(workerInfo, null, 1, false)
+
+    val one = datastore.createMod(1)
+    val two = datastore.createMod(2)
+    datastore.getModLocal(one.id, reader)
+    datastore.getModLocal(two.id, reader)
+
+    // A modifier part way through a message, with a notification queued.
+    Await.result(datastore.updateMod(one.id, 3, null), DURATION)
+
+    Await.result(updateLocal(datastore, two.id, 4, null), DURATION)
+    received should be (Buffer(ModsUpdatedMessage(Buffer(two.id))))
+
+    Await.result(datastore.flushNotifications(), DURATION)
+    received.last should be (ModsUpdatedMessage(Buffer(one.id)))
+
+    datastore.close()
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  it should "refuse local access once it has been snapshotted" in {
+    val datastore = new Datastore(workerInfo, null, 1, false)
+    val one = datastore.createMod(1)
+    datastore.isUnchanged(one.id, 1, Datastore.fingerprint(1)) should be (true)
+
+    val snapshot = datastore.snapshot()
+    snapshot.mods.toMap.get(one.id) should be (Some(1))
+
+    datastore.getModLocal(one.id, null) should be (null)
+    updateLocal(datastore, one.id, 2, null) should be (null)
+    datastore.removeModsLocal(Buffer(one.id), null) should be (null)
+    datastore.isUnchanged(one.id, 1, Datastore.fingerprint(1)) should be (false)
+
+    datastore.close()
+  }
+
+  it should "not cut off writes of values changed in place" in {
+    val system = ActorSystem("datastoreTests")
+    val received = Buffer[Any]()
+    val reader = system.actorOf(Props(classOf[NotificationRecorder], received))
+    val datastore = new Datastore(workerInfo, null, 1, false)
+
+    val array = Array(1, 2)
+    val buffer = Buffer(1, 2)
+    val one = datastore.createMod(array)
+    val two = datastore.createMod(buffer)
+    datastore.getModLocal(one.id, reader)
+    datastore.getModLocal(two.id, reader)
+
+    // The memory store holds these very objects, so the old values can't be
+    // compared with the new ones.
+    array(0) = 3
+    buffer(0) = 3
+    val arrayFingerprint = Datastore.fingerprint(array)
+    datastore.isUnchanged(one.id, array, arrayFingerprint) should be (false)
+    Await.result(updateLocal(datastore, one.id, array, null), DURATION)
+    Await.result(updateLocal(datastore, two.id, buffer, null), DURATION)
+
+    received should be (Buffer(
+      ModsUpdatedMessage(Buffer(one.id)),
+      ModsUpdatedMessage(Buffer(two.id))))
+
+    // Equal immutable values are still cut off.
+    val three = datastore.createMod(("a", Vector(1, 2)))
+    val pair = ("a", Vector(1, 2))
+    val pairFingerprint = Datastore.fingerprint(pair)
+    datastore.isUnchanged(three.id, pair, pairFingerprint) should be (true)
+
+    datastore.close()
+    system.shutdown()
+    system.awaitTermination()
+  }
+}
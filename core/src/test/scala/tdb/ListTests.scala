@@ -15,12 +15,20 @@
  */
 package tdb.test
 
+import akka.actor.ActorSystem
+import akka.pattern.ask
+import com.typesafe.config.ConfigFactory
 import scala.collection.mutable.{ArrayBuffer, Buffer, Map}
+import scala.concurrent.Await
 import org.scalatest._
 
 import tdb.{Adjustable, Context, Mod, Mutator}
+import tdb.Constants._
 import tdb.list._
+import tdb.master.{AutoscalePolicy, ClusterLoad, MasterConnector, WorkerLoad}
 import tdb.TDB._
+import tdb.util.Util
+import tdb.worker.{Worker, WorkerInfo}
 
 class ListMapTest(
     f: ((String, Int)) => (String, Int),
@@ -44,6 +52,44 @@ class ListReduceTest(input: ListInput[Int, Int])
   }
 }
 
+// Sums, for each vertex, the ids of the vertices with edges to it.
+class EdgeSumTest(input: ListInput[Int, Array[Int]])
+    extends Adjustable[AdjustableList[Int, Double]] {
+
+  def run(implicit c: Context) = {
+    val sums = createList[Int, Double](
+      AggregatorListConf(valueType = AggregatedDoubleColumn()))
+
+    input.getAdjustableList().foreach {
+      case ((source, targets), c) =>
+        putEdges(sums, targets, source.toDouble)(c)
+    }
+
+    sums.getAdjustableList()
+  }
+}
+
+// Halves a delta along a chain of vertices, starting with 1.0 at vertex 0.
+class IterateTest(input: ListInput[Int, Int], maxRounds: Int)
+    extends Adjustable[AdjustableList[Int, Double]] {
+
+  def run(implicit c: Context) = {
+    val output = iterate(input.getAdjustableList(), 0.01, maxRounds) {
+      case ((vertex, next), result, deltas, c) =>
+        if (vertex == 0) {
+          put(deltas, vertex, 1.0)(c)
+        }
+    } {
+      case ((vertex, next), delta, deltas, c) =>
+        if (next != -1) {
+          put(deltas, next, delta / 2)(c)
+        }
+    }
+
+    output.getAdjustableList()
+  }
+}
+
 class ListTests extends FlatSpec with Matchers {
   "ListMapTest" should "return the mapped list" in {
     val mutator = new Mutator()
@@ -84,6 +130,154 @@ class ListTests extends FlatSpec with Matchers {
     mutator.shutdown()
   }
 
+  for (encoding <- Seq("compact", "deflate")) {
+    it should "return the mapped list with " + encoding + " chunks" in {
+      val mutator = new Mutator()
+      val conf = ListConf(
+        partitions = 1, chunkSize = 4, chunkEncoding = encoding)
+      val input = mutator.createList[String, Int](conf)
+      for (i <- 0 until 10) {
+        input.put("key" + i, i)
+      }
+      val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+      val output = mutator.run(new ListMapTest(f, input))
+      output.toBuffer(mutator).sortWith(_._2 < _._2) should be (
+        (0 until 10).map(i => ("key" + i, i * 2)))
+
+      input.put("key3", 30)
+      input.remove("key5", 5)
+      input.put("key10", 10)
+      mutator.propagate()
+      output.toBuffer(mutator).map(_._2).sortWith(_ < _) should be (
+        Buffer(0, 2, 4, 8, 12, 14, 16, 18, 20, 60))
+
+      mutator.shutdown()
+    }
+  }
+
+  "EdgeSumTest" should "apply edge deltas to a CSR graph input" in {
+    val mutator = new Mutator()
+    val conf = ListConf(partitions = 2, chunkSize = 3, chunkEncoding = "csr")
+    val input = mutator.createList[Int, Array[Int]](conf)
+
+    val graph = Map[Int, Array[Int]]()
+    for (i <- 0 until 10) {
+      graph(i) = Array((i + 1) % 10, (i + 3) % 10)
+      input.put(i, graph(i))
+    }
+
+    def answer() = {
+      val sums = Map[Int, Double]()
+      for ((source, targets) <- graph; target <- targets) {
+        sums(target) = sums.getOrElse(target, 0.0) + source
+      }
+      sums.toBuffer.sortWith(_._1 < _._1)
+    }
+
+    val output = mutator.run(new EdgeSumTest(input))
+    output.toBuffer(mutator).filter(_._2 != 0).sortWith(_._1 < _._1) should be (
+      answer())
+
+    input.asInstanceOf[HashPartitionedListInput[Int, Array[Int]]].updateEdges(
+      Seq((2, 7), (5, 0)), Seq((4, 5), (9, 2)))
+    graph(2) :+= 7
+    graph(5) :+= 0
+    graph(4) = graph(4).filter(_ != 5)
+    graph(9) = graph(9).filter(_ != 2)
+    mutator.propagate()
+
+    output.toBuffer(mutator).filter(_._2 != 0).sortWith(_._1 < _._1) should be (
+      answer())
+
+    mutator.shutdown()
+  }
+
+  "IterateTest" should "stop once the deltas are below the tolerance" in {
+    val mutator = new Mutator()
+    val input = mutator.createList[Int, Int](ListConf(partitions = 2))
+    for (i <- 0 until 10) {
+      input.put(i, i + 1)
+    }
+
+    // Deltas of 1/128 and below aren't propagated.
+    def answer(n: Int) = (0 to n).map(i => (i, math.pow(0.5, i)))
+
+    val output = mutator.run(new IterateTest(input, 20))
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (answer(7))
+
+    input.put(3, -1)
+    mutator.propagate()
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (answer(3))
+
+    input.put(3, 4)
+    mutator.propagate()
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (answer(7))
+
+    mutator.shutdown()
+  }
+
+  it should "run at most maxRounds steps" in {
+    val mutator = new Mutator()
+    val input = mutator.createList[Int, Int]()
+    for (i <- 0 until 10) {
+      input.put(i, i + 1)
+    }
+
+    val output = mutator.run(new IterateTest(input, 3))
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (
+      (0 to 3).map(i => (i, math.pow(0.5, i))))
+
+    mutator.shutdown()
+  }
+
+  "WindowedInput" should "retract expired panes" in {
+    val mutator = new Mutator()
+    val conf = AggregatorListConf(valueType = AggregatedIntColumn())
+    val window = mutator.createWindowedList[String, Int](conf, 30, 10)
+    val output = window.input.getAdjustableList()
+
+    def contents() = output.toBuffer(mutator).sortWith(_._1 < _._1)
+
+    window.put("a", 1, 0)
+    window.put("b", 1, 5)
+    window.put("a", 1, 12)
+    window.put("a", 1, 25)
+    window.advance(30)
+    contents() should be (Buffer(("a", 3), ("b", 1)))
+
+    // Expires [0, 10).
+    window.put("b", 2, 31)
+    window.advance(40)
+    contents() should be (Buffer(("a", 2), ("b", 2)))
+
+    // Expires [10, 30), and drops a value that's too old.
+    window.put("a", 5, 5)
+    window.advance(60)
+    contents() should be (Buffer(("b", 2)))
+
+    mutator.shutdown()
+  }
+
+  it should "support tumbling windows" in {
+    val mutator = new Mutator()
+    val conf = AggregatorListConf(valueType = AggregatedIntColumn())
+    val window = mutator.createWindowedList[String, Int](conf, 10, 10)
+    val output = window.input.getAdjustableList()
+
+    window.put("a", 1, 1)
+    window.put("a", 2, 9)
+    window.advance(10)
+    output.toBuffer(mutator) should be (Buffer(("a", 3)))
+
+    window.put("a", 4, 10)
+    window.put("b", 1, 15)
+    window.advance(20)
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (
+      Buffer(("a", 4), ("b", 1)))
+
+    mutator.shutdown()
+  }
+
   "ListReduceTest" should "return the reduced list" in {
     val mutator = new Mutator()
     val input = mutator.createList[Int, Int]()
@@ -124,4 +318,180 @@ class ListTests extends FlatSpec with Matchers {
 
     mutator.shutdown()
   }
+
+  "Rebalancing" should "migrate partitions onto a new worker" in {
+    val connector = MasterConnector()
+    val mutator = new Mutator(connector)
+    val input = mutator.createList[String, Int](
+      ListConf(partitions = 8, chunkSize = 2))
+
+    for (i <- 0 until 20) {
+      input.put("key" + i, i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    val output = mutator.run(new ListMapTest(f, input))
+
+    // Start a second worker in its own actor system.
+    val ip = Util.getIP()
+    val system = ActorSystem("rebalanceSystem", ConfigFactory.load(
+      ConfigFactory.parseString(akkaConf + s"""
+        akka.loglevel = WARNING
+        akka.remote.netty.tcp.hostname = $ip
+        akka.remote.netty.tcp.port = 2560
+      """)))
+    val workerInfo = WorkerInfo(
+      -1, system.name, ip, 2560, 8890, "memory", "/tmp/tdb_berkeleydb", 100)
+    val workerRef = system.actorOf(
+      Worker.props(workerInfo, connector.masterRef), "worker")
+    Await.result(workerRef ? "ping", DURATION)
+
+    mutator.rebalance() should be > 0
+    mutator.rebalance() should be (0)
+
+    // Puts to migrated partitions go through the new datastores, and change
+    // propagation is notified of them.
+    for (i <- 0 until 20 by 3) {
+      input.put("key" + i, -i)
+    }
+    input.put("key20", 20)
+    mutator.propagate()
+
+    val expected = (0 to 20).map {
+      case i => if (i % 3 == 0) -2 * i else 2 * i
+    }.sortWith(_ < _).toBuffer
+    output.toBuffer(mutator).map(_._2).sortWith(_ < _) should be (expected)
+
+    mutator.shutdown()
+    connector.shutdown()
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  it should "keep the versions that pinned readers see" in {
+    val connector = MasterConnector()
+    val mutator = new Mutator(connector)
+    val input = mutator.createList[Int, Int](
+      ListConf(partitions = 8, chunkSize = 2))
+
+    for (i <- 0 until 20) {
+      input.put(i, i)
+    }
+
+    val output = mutator.run(new ListTest(input))
+    val before = output.toBuffer(mutator).sortWith(_._1 < _._1)
+
+    mutator.pin()
+
+    // Overwritten before the migration, so the old values must be moved with
+    // the datastores.
+    for (i <- 0 until 20 by 2) {
+      input.put(i, -i)
+    }
+
+    val ip = Util.getIP()
+    val system = ActorSystem("pinnedRebalanceSystem", ConfigFactory.load(
+      ConfigFactory.parseString(akkaConf + s"""
+        akka.loglevel = WARNING
+        akka.remote.netty.tcp.hostname = $ip
+        akka.remote.netty.tcp.port = 2561
+      """)))
+    val workerInfo = WorkerInfo(
+      -1, system.name, ip, 2561, 8891, "memory", "/tmp/tdb_berkeleydb", 100)
+    val workerRef = system.actorOf(
+      Worker.props(workerInfo, connector.masterRef), "worker")
+    Await.result(workerRef ? "ping", DURATION)
+
+    mutator.rebalance() should be > 0
+
+    // Overwritten after the migration, so the new datastores must know which
+    // epoch the current values were written in.
+    for (i <- 1 until 20 by 2) {
+      input.put(i, -i)
+    }
+
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (before)
+
+    mutator.unpin()
+    output.toBuffer(mutator).map(_._2).sortWith(_ < _) should be (
+      (-19 to 0).toBuffer)
+
+    mutator.shutdown()
+    connector.shutdown()
+    system.shutdown()
+    system.awaitTermination()
+  }
+
+  "AutoscalePolicy" should "only grow or shrink within its bounds" in {
+    val load = ClusterLoad(
+      Array(WorkerLoad(1, "", 0, 0, 0), WorkerLoad(2, "", 0, 0, 3)), 0, 10)
+
+    AutoscalePolicy.shouldGrow(load, 2, 3, 100) should be (false)
+    AutoscalePolicy.shouldGrow(
+      load.copy(lastPropagationMillis = 200), 2, 3, 100) should be (true)
+    AutoscalePolicy.shouldGrow(load.copy(running = 3), 2, 3, 100) should be (
+      true)
+    AutoscalePolicy.shouldGrow(load.copy(running = 3), 3, 3, 100) should be (
+      false)
+
+    // Only the worker that isn't hosting any tasks may be released.
+    AutoscalePolicy.releasable(load, 2, 1, 100).map(_.workerId) should be (
+      Array(1))
+    AutoscalePolicy.releasable(load, 1, 1, 100).size should be (0)
+    AutoscalePolicy.releasable(
+      load.copy(running = 1), 2, 1, 100).size should be (0)
+    AutoscalePolicy.releasable(
+      load.copy(lastPropagationMillis = 60), 2, 1, 100).size should be (0)
+  }
+
+  "Decommissioning" should "release a worker once it isn't hosting tasks" in {
+    val connector = MasterConnector()
+
+    val ip = Util.getIP()
+    val system = ActorSystem("decommissionSystem", ConfigFactory.load(
+      ConfigFactory.parseString(akkaConf + s"""
+        akka.loglevel = WARNING
+        akka.remote.netty.tcp.hostname = $ip
+        akka.remote.netty.tcp.port = 2561
+      """)))
+    val workerInfo = WorkerInfo(
+      -1, system.name, ip, 2561, 8891, "memory", "/tmp/tdb_berkeleydb", 100)
+    val workerRef = system.actorOf(
+      Worker.props(workerInfo, connector.masterRef), "worker")
+    Await.result(workerRef ? "ping", DURATION)
+
+    val mutator = new Mutator(connector)
+    val input = mutator.createList[String, Int](ListConf(partitions = 4))
+    for (i <- 0 until 20) {
+      input.put("key" + i, i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    mutator.run(new ListMapTest(f, input))
+
+    // None of the session's tasks are running, but they keep the workers
+    // they're on until it ends.
+    val busy = connector.getLoad()
+    busy.workers.map(_.tasks).sum should be (0)
+    busy.workers.map(_.hostedTasks).sum should be > 0
+    for (worker <- busy.workers if worker.hostedTasks > 0) {
+      connector.decommission(worker.workerId) should be (false)
+    }
+
+    mutator.shutdown()
+
+    val idle = connector.getLoad()
+    AutoscalePolicy.releasable(idle, 2, 1, 1000).size should be (2)
+
+    val second = idle.workers.find(_.port == 2561).get.workerId
+    connector.decommission(second) should be (true)
+
+    // The last worker is never released.
+    val remaining = connector.getLoad().workers
+    remaining.map(_.workerId) should not contain (second)
+    connector.decommission(remaining.head.workerId) should be (false)
+
+    connector.shutdown()
+    system.shutdown()
+  }
 }
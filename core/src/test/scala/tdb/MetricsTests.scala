@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.test
+
+import org.scalatest._
+
+import tdb._
+import tdb.TDB._
+import tdb.stats.{Histogram, Metrics, TraceEvent, Tracer}
+
+class MetricsTests extends FlatSpec with Matchers {
+  class ReadTest(one: Mod[Int]) extends Adjustable[Mod[Int]] {
+    def run(implicit c: Context) = {
+      mod {
+        read(one) {
+          case v => write(v + 1)
+        }
+      }
+    }
+  }
+
+  "Histogram" should "place values in exponential buckets" in {
+    Histogram.bucketFor(0) should be (0)
+    Histogram.bucketFor(1000) should be (0)
+    Histogram.bucketFor(1024) should be (1)
+    Histogram.bucketFor(Long.MaxValue) should be (Histogram.numBuckets - 1)
+  }
+
+  "Metrics" should "record nothing when disabled" in {
+    Metrics.enabled = false
+    Metrics.clear()
+
+    val mutator = new Mutator()
+    val one = mutator.createMod(1)
+    mutator.run(new ReadTest(one))
+    mutator.shutdown()
+
+    Metrics.modReads.getCount() should be (0)
+  }
+
+  it should "count the DDG whether or not it is enabled" in {
+    Metrics.enabled = false
+    val before = Metrics.ddgSize.get()
+
+    val mutator = new Mutator()
+    val one = mutator.createMod(1)
+    mutator.run(new ReadTest(one))
+    Metrics.ddgSize.get() should be > before
+
+    // Clearing the metrics doesn't affect the DDGs they describe.
+    Metrics.clear()
+    Metrics.ddgSize.get() should be > before
+
+    mutator.shutdown()
+    Metrics.ddgSize.get() should be (before)
+  }
+
+  it should "record reads and reexecutions when enabled" in {
+    Metrics.enabled = true
+    Metrics.clear()
+
+    val mutator = new Mutator()
+    val one = mutator.createMod(1)
+    val output = mutator.run(new ReadTest(one))
+    Metrics.ddgSize.get() should be > 0L
+
+    mutator.updateMod(one, 2)
+    mutator.propagate()
+    mutator.read(output) should be (3)
+
+    Metrics.modReads.getCount() should be > 0L
+    Metrics.propagations.getCount() should be (1)
+    Metrics.reexecutions(classOf[tdb.ddg.ReadNode]).getCount() should be (1)
+
+    val text = Metrics.toPrometheus()
+    text should include ("# TYPE tdb_mod_read_seconds histogram")
+    text should include ("tdb_reexecution_seconds_count{type=\"ReadNode\"} 1")
+    Metrics.toJson() should include ("\"memo_hit_ratio\"")
+
+    mutator.shutdown()
+    Metrics.enabled = false
+  }
+
+  "Tracer" should "record an event for each reexecuted read" in {
+    val mutator = new Mutator()
+    val one = mutator.createMod(1)
+    val output = mutator.run(new ReadTest(one))
+
+    mutator.setTracing(true)
+    mutator.updateMod(one, 2)
+    mutator.propagate()
+    mutator.setTracing(false)
+
+    val events = mutator.getTrace()
+    events.map(_.category) should be (Seq("propagate", "ReadNode"))
+
+    val readEvent = events.find(_.category == "ReadNode").get
+    readEvent.name should include ("ReadTest")
+    readEvent.remoteWait should be > 0L
+
+    val writer = new java.io.StringWriter()
+    Tracer.writeChromeTrace(events, writer)
+    writer.toString should include ("\"ph\": \"X\"")
+
+    mutator.getTrace() should be ('empty)
+    mutator.read(output) should be (3)
+
+    mutator.shutdown()
+  }
+
+  it should "escape event names in the Chrome trace" in {
+    val event = TraceEvent(
+      "a\"b\\c\n", "ReadNode", 1, 0, 0, 10, 0, 0, 0)
+
+    val writer = new java.io.StringWriter()
+    Tracer.writeChromeTrace(Seq(event), writer)
+    writer.toString should include ("\"name\": \"a\\\"b\\\\c\\n\"")
+  }
+}
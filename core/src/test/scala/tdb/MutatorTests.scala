@@ -20,7 +20,9 @@ import scala.collection.mutable.Buffer
 import org.scalatest._
 
 import tdb._
+import tdb.TDB._
 import tdb.list._
+import tdb.master.MasterConnector
 import tdb.util._
 
 class ListTest(input: ListInput[Int, Int])
@@ -37,6 +39,35 @@ class FileLoadTest(input: ListInput[String, String])
   }
 }
 
+class LazyParTest(one: Mod[Int], two: Mod[Int])
+  extends Adjustable[(Mod[Int], Mod[Int])] {
+  // Counts the reexecutions of each side of the par.
+  @volatile var count1 = 0
+  @volatile var count2 = 0
+
+  def run(implicit c: Context) = {
+    par {
+      c =>
+      mod {
+        read(one) {
+          case value =>
+            count1 += 1
+            write(value + 1)(c)
+        } (c)
+      } (c)
+    } and {
+      c =>
+      mod {
+        read(two) {
+          case value =>
+            count2 += 1
+            write(value + 1)(c)
+        } (c)
+      } (c)
+    }
+  }
+}
+
 class MutatorTests extends FlatSpec with Matchers {
   val intensity = 10
   def runTest(mutator: Mutator,
@@ -128,6 +159,210 @@ class MutatorTests extends FlatSpec with Matchers {
     }
   }
 
+  "Sessions" should "run independently on the same workers" in {
+    val connector = MasterConnector()
+    val mutator1 = new Mutator(connector)
+    val mutator2 = new Mutator(connector)
+
+    val conf = ListConf(partitions = 2)
+    val input1 = mutator1.createList[String, Int](conf)
+    val input2 = mutator2.createList[String, Int](conf)
+    for (i <- 0 until 10) {
+      input1.put("key" + i, i)
+      input2.put("key" + i, -i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    val output1 = mutator1.run(new ListMapTest(f, input1))
+    val output2 = mutator2.run(new ListMapTest(f, input2))
+
+    output1.toBuffer(mutator1).map(_._2).sortWith(_ < _) should be (
+      (0 until 10).map(_ * 2))
+
+    // Shutting down the first session leaves the second one's tasks and
+    // lists intact.
+    mutator1.shutdown()
+
+    input2.put("key10", -10)
+    mutator2.propagate()
+    output2.toBuffer(mutator2).map(_._2).sortWith(_ < _) should be (
+      (0 to 10).map(_ * -2).reverse)
+
+    mutator2.shutdown()
+    connector.shutdown()
+  }
+
+  it should "only count tasks that are running as load" in {
+    val connector = MasterConnector()
+    def load() = connector.getLoad().workers.map(_.tasks).sum
+
+    // Each session is shut down after the next one has run, so there's
+    // always one that's open but idle.
+    var previous: Mutator = null
+    for (i <- 0 until 4) {
+      val mutator = new Mutator(connector)
+      val input = mutator.createList[String, Int](ListConf(partitions = 2))
+      for (j <- 0 until 10) {
+        input.put("key" + j, j + i)
+      }
+
+      val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+      val output = mutator.run(new ListMapTest(f, input))
+      output.toBuffer(mutator).map(_._2).sortWith(_ < _) should be (
+        (0 until 10).map(j => (j + i) * 2))
+      load() should be (0)
+
+      if (previous != null) {
+        previous.shutdown()
+      }
+      previous = mutator
+    }
+
+    previous.shutdown()
+    load() should be (0)
+    connector.shutdown()
+  }
+
+  "Pinned reads" should "see the output as of the pinned epoch" in {
+    val mutator = new Mutator()
+
+    val input = mutator.createList[String, Int](ListConf(partitions = 2))
+    for (i <- 0 until 10) {
+      input.put("key" + i, i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    val output = mutator.run(new ListMapTest(f, input))
+    val before = output.toBuffer(mutator).sortWith(_._1 < _._1)
+
+    mutator.pin()
+
+    for (i <- 0 until 5) {
+      input.put("key" + i, i + 100)
+    }
+    input.put("key10", 10)
+    input.remove("key9", 9)
+    mutator.propagate()
+
+    // The pinned epoch was completed before the propagation, so none of its
+    // writes are visible.
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (before)
+
+    mutator.unpin()
+
+    val after = output.toBuffer(mutator).sortWith(_._1 < _._1)
+    after.toMap should be (
+      (((0 until 5).map(i => ("key" + i, (i + 100) * 2))) ++
+       ((5 to 10).filter(_ != 9).map(i => ("key" + i, i * 2)))).toMap)
+
+    // Pinning again sees the propagation.
+    mutator.pin()
+    output.toBuffer(mutator).sortWith(_._1 < _._1) should be (after)
+
+    mutator.shutdown()
+  }
+
+  "Lazy propagation" should "bring the output up to date when it's read" in {
+    val mutator = new Mutator()
+
+    val input = mutator.createList[String, Int](ListConf(partitions = 2))
+    for (i <- 0 until 10) {
+      input.put("key" + i, i)
+    }
+
+    val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+    val output = mutator.run(new ListMapTest(f, input))
+
+    // Both rounds of updates are reexecuted by the first read.
+    input.put("key0", 100)
+    input.put("key10", 10)
+    mutator.propagateLazily(catchUpMillis = 60000)
+    input.remove("key1", 1)
+    input.put("key2", 200)
+    mutator.propagateLazily(catchUpMillis = 60000)
+
+    val answer = Map("key0" -> 200, "key2" -> 400, "key10" -> 20) ++
+      (3 until 10).map(i => ("key" + i, i * 2))
+    output.toBuffer(mutator).toMap should be (answer)
+
+    // Without a read, the updates are caught up in the background.
+    input.put("key3", 300)
+    mutator.propagateLazily(catchUpMillis = 0)
+    mutator.awaitCatchUp()
+    mutator.pin()
+    output.toBuffer(mutator).toMap should be (answer + ("key3" -> 600))
+
+    mutator.shutdown()
+  }
+
+  it should "only reexecute the part of the computation that's read" in {
+    val mutator = new Mutator()
+    val one = mutator.createMod(1)
+    val two = mutator.createMod(10)
+
+    val test = new LazyParTest(one, two)
+    val (output1, output2) = mutator.run(test)
+
+    mutator.updateMod(one, 2)
+    mutator.updateMod(two, 20)
+    mutator.propagateLazily(catchUpMillis = 60000)
+
+    // The other side of the par is left pebbled.
+    mutator.read(output1) should be (3)
+    test.count1 should be (2)
+    test.count2 should be (1)
+
+    mutator.read(output2) should be (21)
+    test.count1 should be (2)
+    test.count2 should be (2)
+
+    // Reading again doesn't reexecute anything.
+    mutator.read(output1) should be (3)
+    test.count1 should be (2)
+
+    // Without a read, both sides are caught up in the background.
+    mutator.updateMod(one, 3)
+    mutator.updateMod(two, 30)
+    mutator.propagateLazily(catchUpMillis = 0)
+    mutator.awaitCatchUp()
+    test.count1 should be (3)
+    test.count2 should be (3)
+    mutator.read(output1) should be (4)
+    mutator.read(output2) should be (31)
+
+    mutator.shutdown()
+  }
+
+  "Export" should "stream the same contents as toBuffer" in {
+    for (partitions <- 1 to 2; chunkSize <- 1 to 2) {
+      val mutator = new Mutator()
+
+      val conf = ListConf(partitions = partitions, chunkSize = chunkSize)
+      val input = mutator.createList[String, Int](conf)
+      for (i <- 0 until 20) {
+        input.put("key" + i, i)
+      }
+
+      val f = (pair: (String, Int)) => (pair._1, pair._2 * 2)
+      val output = mutator.run(new ListMapTest(f, input))
+
+      mutator.export(output, 3).toBuffer should be (output.toBuffer(mutator))
+
+      val inputList = input.getAdjustableList()
+      mutator.export(inputList, 3).toBuffer should be (
+        inputList.toBuffer(mutator))
+
+      val file = java.io.File.createTempFile("export", ".txt")
+      mutator.exportToFile(output, file.getPath()) should be (20)
+      val lines = scala.io.Source.fromFile(file).getLines.toBuffer
+      lines.sortWith(_ < _) should be (
+        (0 until 20).map(i => "key" + i + "\t" + i * 2).sortWith(_ < _))
+      file.delete()
+
+      mutator.shutdown()
+    }
+  }
+
   /*"SortedListTests" should "update the sorted AdjustableList correctly" in {
     val mutator = new Mutator()
     val conf = new ListConf(partitions = 1, chunkSize = 1, sorted = true)
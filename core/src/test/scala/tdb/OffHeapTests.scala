@@ -0,0 +1,87 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.test
+
+import org.scalatest._
+
+import tdb.datastore.OffHeapTable
+import tdb.stats.Metrics
+import tdb.util.LongLongMap
+
+class OffHeapTests extends FlatSpec with Matchers {
+  "LongLongMap" should "find every key after removals" in {
+    val map = new LongLongMap()
+    for (i <- 0L until 1000L) {
+      map.put(i << 16, i)
+    }
+    for (i <- 0L until 1000L if i % 3 == 0) {
+      map.remove(i << 16)
+    }
+
+    map.size should be (666)
+    for (i <- 0L until 1000L) {
+      map.getOrElse(i << 16, -1) should be (if (i % 3 == 0) -1 else i)
+    }
+  }
+
+  "OffHeapTable" should "store values outside of the cache" in {
+    val table = new OffHeapTable(null, 10, 4096)
+    for (i <- 0L until 100L) {
+      table.put(i, ("value" + i, Vector(i)))
+    }
+    table.put(5L, null)
+    table.delete(6L)
+
+    table.count() should be (99)
+    table.get(1L) should be (("value1", Vector(1L)))
+    table.get(5L) == null should be (true)
+    table.contains(6L) should be (false)
+    table.getAll(Seq(99L, 2L)) should be (
+      Vector(99L -> ("value99", Vector(99L)), 2L -> ("value2", Vector(2L))))
+
+    table.close()
+  }
+
+  it should "compact slabs once most of their contents are garbage" in {
+    val table = new OffHeapTable(null, 0, 4096)
+    for (round <- 0 until 100; i <- 0L until 10L) {
+      table.put(i, "round" + round)
+    }
+
+    table.footprint should be <= 4096L * 2
+    for (i <- 0L until 10L) {
+      table.get(i) should be ("round99")
+    }
+
+    table.close()
+  }
+
+  it should "count its slabs in the offheap gauge with metrics off" in {
+    Metrics.enabled = false
+    val before = Metrics.offHeapBytes.get()
+
+    val table = new OffHeapTable(null, 0, 4096)
+    for (i <- 0L until 1000L) {
+      table.put(i, "value" + i)
+    }
+
+    table.footprint should be > 4096L
+    Metrics.offHeapBytes.get() should be (before + table.footprint)
+
+    table.close()
+    Metrics.offHeapBytes.get() should be (before)
+  }
+}
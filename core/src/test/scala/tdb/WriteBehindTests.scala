@@ -0,0 +1,176 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.test
+
+import org.scalatest._
+import scala.collection.mutable
+import scala.concurrent.Await
+import scala.concurrent.ExecutionContext.Implicits.global
+import scala.concurrent.duration._
+
+import tdb.datastore.{Table, WriteBehindTable}
+import tdb.util.HashRange
+
+// An in-memory Table where every call takes latency milliseconds, like a
+// round trip to a database.
+class LatencyTable(latency: Int) extends Table {
+  val values = mutable.Map[Any, Any]()
+
+  var calls = 0
+
+  private def call[T](f: => T): T = {
+    Thread.sleep(latency)
+    synchronized {
+      calls += 1
+      f
+    }
+  }
+
+  def put(key: Any, value: Any) = call { values(key) = value }
+
+  override def putAll(batch: Iterable[(Any, Any)]) = call { values ++= batch }
+
+  def get(key: Any): Any = call { values(key) }
+
+  def delete(key: Any) = call { values -= key }
+
+  def contains(key: Any): Boolean = call { values.contains(key) }
+
+  def count(): Int = call { values.size }
+
+  def processKeys(process: Iterable[Any] => Unit) = process(values.keys)
+
+  def foreach(process: (Any, Any) => Unit) =
+    values.foreach { case (key, value) => process(key, value) }
+
+  def hashRange: HashRange = null
+
+  def close() {}
+}
+
+// A LatencyTable whose batched writes fail while failing is set.
+class FailingTable extends LatencyTable(0) {
+  @volatile var failing = true
+
+  override def putAll(batch: Iterable[(Any, Any)]) =
+    if (failing) {
+      throw new java.io.IOException("write failed")
+    } else {
+      super.putAll(batch)
+    }
+}
+
+class WriteBehindTests extends FlatSpec with Matchers {
+  "WriteBehindTable" should "coalesce and batch writes" in {
+    val table = new LatencyTable(5)
+    val buffer = new WriteBehindTable(table, 50, 1000)
+
+    for (i <- 0 until 1000) {
+      Await.result(buffer.write(i % 100, i), 10.seconds)
+    }
+    Await.result(buffer.flush(), 10.seconds)
+
+    table.values.size should be (100)
+    table.values(42) should be (942)
+    table.calls should be < 25
+  }
+
+  it should "serve reads from unflushed writes" in {
+    val table = new LatencyTable(50)
+    val buffer = new WriteBehindTable(table, 1000, 1000)
+
+    buffer.put("a", 1)
+    buffer.put("b", 2)
+    buffer.put("a", 3)
+    buffer.delete("b")
+
+    buffer.get("a") should be (3)
+    buffer.contains("b") should be (false)
+    table.calls should be (0)
+
+    Await.result(buffer.flush(), 10.seconds)
+    table.values should be (Map("a" -> 3))
+  }
+
+  it should "combine buffered and stored values in getAll" in {
+    val table = new LatencyTable(0)
+    table.values ++= Map("a" -> 1, "b" -> 2, "c" -> 3)
+    val buffer = new WriteBehindTable(table, 1000, 1000)
+
+    buffer.put("b", 20)
+    buffer.put("d", 40)
+
+    buffer.getAll(Seq("d", "c", "b", "a")) should be (
+      Vector("d" -> 40, "c" -> 3, "b" -> 20, "a" -> 1))
+  }
+
+  it should "flush after the delay" in {
+    val table = new LatencyTable(0)
+    val buffer = new WriteBehindTable(table, 1000, 10)
+
+    buffer.put("a", 1)
+    Thread.sleep(500)
+
+    table.values should be (Map("a" -> 1))
+  }
+
+  it should "keep and retry batches that failed to be written" in {
+    val table = new FailingTable()
+    val buffer = new WriteBehindTable(table, 1000, 1000)
+
+    buffer.put("a", 1)
+    intercept[java.io.IOException] {
+      Await.result(buffer.flush(), 10.seconds)
+    }
+
+    // The failed batch is still readable, and later flushes fail until it's
+    // been written.
+    buffer.get("a") should be (1)
+    buffer.put("b", 2)
+    buffer.put("a", 3)
+    intercept[java.io.IOException] {
+      Await.result(buffer.flush(), 10.seconds)
+    }
+    buffer.get("a") should be (3)
+    table.values should be ('empty)
+
+    table.failing = false
+    Await.result(buffer.flush(), 10.seconds)
+    table.values should be (Map("a" -> 3, "b" -> 2))
+  }
+
+  it should "read the value from before later writes in getCurrent" in {
+    val table = new LatencyTable(50)
+    table.values("a") = 1
+    val buffer = new WriteBehindTable(table, 1000, 1000)
+
+    val current = buffer.getCurrent("a")
+    buffer.put("a", 2)
+    Await.result(buffer.flush(), 10.seconds)
+
+    Await.result(current, 10.seconds) should be (1)
+    table.values should be (Map("a" -> 2))
+
+    // A read of a missing key doesn't fail the flushes queued after it.
+    val missing = buffer.getCurrent("b")
+    buffer.put("b", 3)
+    Await.result(buffer.flush(), 10.seconds)
+    intercept[NoSuchElementException] {
+      Await.result(missing, 10.seconds)
+    }
+    Await.result(buffer.getCurrent("b"), 10.seconds) should be (3)
+  }
+}
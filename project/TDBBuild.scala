@@ -2,6 +2,7 @@ import sbt._
 import Keys._
 import sbtassembly.Plugin._
 import AssemblyKeys._
+import pl.project13.scala.sbt.SbtJmh._
 
 object TDBBuild extends Build {
   val buildOrganization = "edu.cmu.cs"
@@ -53,7 +54,12 @@ object TDBBuild extends Build {
 
   lazy val root = Project (
     "root",
-    file(".")
+    file("."),
+    settings = buildSettings ++
+      // Runs all of the microbenchmarks with allocation profiling and writes
+      // the results to bench/jmh-<version>.json.
+      addCommandAlias("jmh", "bench/run -prof gc -rf json -rff " +
+        "bench/jmh-" + buildVersion + ".json")
   ) aggregate(core)
 
   lazy val core = Project (
@@ -87,6 +93,12 @@ object TDBBuild extends Build {
         IO.write(experimentOut, experiment)
         experimentOut.setExecutable(true)
 
+        val benchmark = template.format(
+          "-Xmx10g -Xss128m", classpath, "tdb.examples.Benchmark")
+        val benchmarkOut = baseDirectory.value / "../bin/benchmark.sh"
+        IO.write(benchmarkOut, benchmark)
+        benchmarkOut.setExecutable(true)
+
         val runTemplate = """#!/bin/sh
         java -Xmx2g -Xss4m -classpath "%s" $@
         """
@@ -100,6 +112,16 @@ object TDBBuild extends Build {
     )
   )
 
+  lazy val bench = Project (
+    "bench",
+    file("bench"),
+    settings = buildSettings ++ jmhSettings ++ Seq (
+      libraryDependencies ++= commonDeps,
+      resolvers += mavenResolver,
+      javaOptions += "-Xss128M"
+    )
+  ) dependsOn(core)
+
   lazy val reef = Project (
     "reef",
     file("reef"),
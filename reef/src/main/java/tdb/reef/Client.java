@@ -117,7 +117,11 @@ public class Client {
   Client(final REEF reef,
             @Parameter(Main.NumWorkers.class) final Integer numWorkers,
             @Parameter(Main.Timeout.class) final Integer timeout,
-            @Parameter(Memory.class) final Integer memory)
+            @Parameter(Memory.class) final Integer memory,
+            @Parameter(MaxWorkers.class) final Integer maxWorkers,
+            @Parameter(TargetLatency.class) final Integer targetLatency,
+            @Parameter(AutoscaleInterval.class)
+                final Integer autoscaleInterval)
                 throws BindException {
 
     this.reef = reef;
@@ -148,6 +152,8 @@ public class Client {
                 Driver.FailedContextHandler.class)
             .set(DriverConfiguration.ON_TASK_RUNNING,
                 Driver.RunningTaskHandler.class)
+            .set(DriverConfiguration.ON_TASK_COMPLETED,
+                Driver.CompletedTaskHandler.class)
             .set(DriverConfiguration.ON_DRIVER_STARTED,
                 Driver.StartHandler.class)
             .set(DriverConfiguration.ON_DRIVER_STOP,
@@ -161,6 +167,11 @@ public class Client {
     configBuilder.bindNamedParameter(Main.Timeout.class,
         "" + timeout);
     configBuilder.bindNamedParameter(Memory.class, "" + memory);
+    configBuilder.bindNamedParameter(MaxWorkers.class, "" + maxWorkers);
+    configBuilder.bindNamedParameter(TargetLatency.class,
+        "" + targetLatency);
+    configBuilder.bindNamedParameter(AutoscaleInterval.class,
+        "" + autoscaleInterval);
     this.driverConfiguration = configBuilder.build();
   }
 
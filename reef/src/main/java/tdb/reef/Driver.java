@@ -35,17 +35,25 @@ import org.apache.reef.tang.annotations.Parameter;
 import org.apache.reef.tang.annotations.Unit;
 import org.apache.reef.wake.EventHandler;
 import org.apache.reef.wake.remote.impl.ObjectSerializableCodec;
+import org.apache.reef.wake.time.Clock;
+import org.apache.reef.wake.time.event.Alarm;
 import org.apache.reef.wake.time.event.StartTime;
 import org.apache.reef.wake.time.event.StopTime;
 
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
 import java.util.Map.Entry;
+import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.inject.Inject;
 
+import tdb.master.AutoscalePolicy;
+import tdb.master.ClusterLoad;
+import tdb.master.MasterConnector;
+import tdb.master.WorkerLoad;
 import tdb.reef.param.*;
 
 @Unit
@@ -57,9 +65,14 @@ public final class Driver {
 
   private final EvaluatorRequestor requestor;
   private final JobMessageObserver jobMessageObserver;
+  private final Clock clock;
   private final int timeout;
   private final int memory;
+  private final int maxWorkers;
+  private final int targetLatency;
+  private final int autoscaleInterval;
 
+  private final int minWorkers;
   private int numWorkers;
   private int numEvaluators;
 
@@ -75,6 +88,16 @@ public final class Driver {
       new HashMap<String, ActiveContext>();
   private Map<String, String> ctxt2ip = new HashMap<String, String>();
   private Map<String, Integer> ctxt2port = new HashMap<String, Integer>();
+  private Map<String, RunningTask> workerTasks =
+      new HashMap<String, RunningTask>();
+
+  // Used by the autoscaling policy to read the master's load and to remove
+  // workers from the cluster before their evaluators are released.
+  private MasterConnector connector = null;
+  // Workers that have been requested but haven't registered yet.
+  private int pendingWorkers = 0;
+  // Contexts of decommissioned workers, closed once their tasks complete.
+  private Set<String> releasing = new HashSet<String>();
 
   @NamedParameter(doc = "IP address",
       short_name = "ip",
@@ -99,20 +122,30 @@ public final class Driver {
    *
    * @param requestor  evaluator requestor object used to create
    *                   new evaluator containers.
+   * @param clock      used to schedule the autoscaling policy.
    */
   @Inject
   public Driver(
       final EvaluatorRequestor requestor,
       final JobMessageObserver jobMessageObserver,
+      final Clock clock,
       @Parameter(Main.NumWorkers.class) final int numWorkers,
       @Parameter(Main.Timeout.class) final int timeout,
-      @Parameter(Memory.class) final int memory
+      @Parameter(Memory.class) final int memory,
+      @Parameter(MaxWorkers.class) final int maxWorkers,
+      @Parameter(TargetLatency.class) final int targetLatency,
+      @Parameter(AutoscaleInterval.class) final int autoscaleInterval
       ) {
     this.requestor = requestor;
     this.jobMessageObserver = jobMessageObserver;
+    this.clock = clock;
+    this.minWorkers = numWorkers;
     this.numWorkers = numWorkers;
     this.timeout = timeout;
     this.memory = memory;
+    this.maxWorkers = maxWorkers;
+    this.targetLatency = targetLatency;
+    this.autoscaleInterval = autoscaleInterval;
     this.numEvaluators = numWorkers + 1;
     LOG.log(Level.INFO, "Instantiated 'Driver'");
   }
@@ -141,6 +174,9 @@ public final class Driver {
     @Override
     public void onNext(final StopTime time) {
       LOG.log(Level.INFO, "TIME: {0}. Stop Driver.", time);
+      if (connector != null) {
+        connector.shutdown();
+      }
       for (final ActiveContext context : contexts.values()) {
         context.close();
       }
@@ -274,6 +310,16 @@ public final class Driver {
       } else if (workerCtxt) {
         contexts.put(contextId, context);
         LOG.log(Level.INFO, "Context active: {0}", contextId);
+
+        // Workers added by autoscaling register with the running master
+        // right away.
+        synchronized (Driver.this) {
+          if (clusterStarted) {
+            --pendingWorkers;
+            ++numWorkers;
+            submitWorkerTask(contextId, context);
+          }
+        }
       } else {
         LOG.log(Level.INFO, "Close context {0} : {1}",
             new Object[]{contextId.split("_")[1], contextId});
@@ -318,6 +364,9 @@ public final class Driver {
       final String character = contextId.split("_")[1];
 
       if (character.equals("worker")) {
+        synchronized (Driver.this) {
+          workerTasks.put(contextId, task);
+        }
         return;
       } else if (character.equals("master")) {
         waitAndSubmitWorkerTasks();
@@ -331,30 +380,19 @@ public final class Driver {
         String contextId = e.getKey();
         ActiveContext context = e.getValue();
         if (contextId.startsWith("context_worker")) {
-          final String taskId = contextId.replaceFirst("context", "task");
-
-          final JavaConfigurationBuilder cb =
-              Tang.Factory.getTang().newConfigurationBuilder();
-          cb.addConfiguration(
-              TaskConfiguration.CONF
-                  .set(TaskConfiguration.IDENTIFIER, taskId)
-                  .set(TaskConfiguration.TASK, WorkerTask.class)
-                  .build()
-          );
-          cb.bindNamedParameter(Driver.HostIP.class,
-              ctxt2ip.get(contextId));
-          cb.bindNamedParameter(Driver.HostPort.class,
-              ctxt2port.get(contextId).toString());
-          cb.bindNamedParameter(Driver.MasterAkka.class, masterAkka);
-          cb.bindNamedParameter(Main.Timeout.class, "" + timeout);
-
-          context.submitTask(cb.build());
-          LOG.log(Level.INFO, "Submit {0} to context {1}",
-              new Object[]{taskId, contextId});
+          submitWorkerTask(contextId, context);
         }
       }
       sendToClient(masterAkka);
-      clusterStarted = true;
+      synchronized (this) {
+        clusterStarted = true;
+      }
+
+      if (maxWorkers > minWorkers) {
+        LOG.log(Level.INFO, "Autoscaling between {0} and {1} workers",
+            new Object[]{numWorkers, maxWorkers});
+        clock.scheduleAlarm(autoscaleInterval * 1000, new AutoscaleHandler());
+      }
     } else {
       LOG.log(Level.INFO, "Sleep: wait worker contexts");
       try {
@@ -367,11 +405,112 @@ public final class Driver {
     }
   }
 
+  private void submitWorkerTask(String contextId, ActiveContext context) {
+    final String taskId = contextId.replaceFirst("context", "task");
+
+    final JavaConfigurationBuilder cb =
+        Tang.Factory.getTang().newConfigurationBuilder();
+    cb.addConfiguration(
+        TaskConfiguration.CONF
+            .set(TaskConfiguration.IDENTIFIER, taskId)
+            .set(TaskConfiguration.TASK, WorkerTask.class)
+            .set(TaskConfiguration.ON_CLOSE, WorkerTask.CloseHandler.class)
+            .build()
+    );
+    cb.bindNamedParameter(Driver.HostIP.class,
+        ctxt2ip.get(contextId));
+    cb.bindNamedParameter(Driver.HostPort.class,
+        ctxt2port.get(contextId).toString());
+    cb.bindNamedParameter(Driver.MasterAkka.class, masterAkka);
+    cb.bindNamedParameter(Main.Timeout.class, "" + timeout);
+
+    context.submitTask(cb.build());
+    LOG.log(Level.INFO, "Submit {0} to context {1}",
+        new Object[]{taskId, contextId});
+  }
+
+  /**
+   * Runs the autoscaling policy every AutoscaleInterval seconds.
+   */
+  public final class AutoscaleHandler implements EventHandler<Alarm> {
+    @Override
+    public void onNext(final Alarm alarm) {
+      try {
+        autoscale();
+      } catch (final Exception e) {
+        LOG.log(Level.WARNING, "Autoscaling failed", e);
+      }
+      clock.scheduleAlarm(autoscaleInterval * 1000, this);
+    }
+  }
+
+  /**
+   * Adds or removes a worker, as decided by AutoscalePolicy. Workers are only
+   * released once they aren't hosting any tasks, i.e. once the sessions that
+   * placed tasks on them have ended.
+   */
+  private synchronized void autoscale() {
+    if (connector == null) {
+      connector = MasterConnector.apply(masterAkka, 0);
+    }
+
+    final ClusterLoad load = connector.getLoad();
+    LOG.log(Level.INFO, "Load: {0} workers, {1} running, {2} ms",
+        new Object[]{load.workers().length, load.running(),
+                     load.lastPropagationMillis()});
+
+    if (pendingWorkers > 0) {
+      return;
+    }
+
+    if (AutoscalePolicy.shouldGrow(
+            load, numWorkers, maxWorkers, targetLatency)) {
+      LOG.log(Level.INFO, "Requesting another worker");
+      ++pendingWorkers;
+      ++numEvaluators;
+      requestor.submit(EvaluatorRequest.newBuilder()
+          .setNumber(1)
+          .setMemory(memory)
+          .setNumberOfCores(2)
+          .build());
+      return;
+    }
+
+    for (final WorkerLoad worker : AutoscalePolicy.releasable(
+             load, numWorkers, minWorkers, targetLatency)) {
+      final String contextId = workerContext(worker.port());
+      if (contextId != null && workerTasks.containsKey(contextId) &&
+          connector.decommission(worker.workerId())) {
+        LOG.log(Level.INFO, "Releasing worker {0}", contextId);
+        --numWorkers;
+        releasing.add(contextId);
+        workerTasks.remove(contextId).close();
+        return;
+      }
+    }
+  }
+
+  // Returns the id of the worker context listening on port, or null.
+  private String workerContext(final int port) {
+    for (Entry<String, Integer> e : ctxt2port.entrySet()) {
+      if (e.getValue() == port && e.getKey().startsWith("context_worker")) {
+        return e.getKey();
+      }
+    }
+    return null;
+  }
+
   public final class CompletedTaskHandler
       implements EventHandler<CompletedTask> {
     @Override
     public void onNext(final CompletedTask task) {
-
+      final ActiveContext context = task.getActiveContext();
+      synchronized (Driver.this) {
+        if (releasing.remove(context.getId())) {
+          LOG.log(Level.INFO, "Closing context {0}", context.getId());
+          context.close();
+        }
+      }
     }
   }
 
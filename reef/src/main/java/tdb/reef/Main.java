@@ -35,7 +35,10 @@ import java.io.InputStreamReader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import tdb.reef.param.AutoscaleInterval;
+import tdb.reef.param.MaxWorkers;
 import tdb.reef.param.Memory;
+import tdb.reef.param.TargetLatency;
 
 /**
  * TDB REEF application launcher - main class.
@@ -79,6 +82,9 @@ public final class Main {
     cl.registerShortNameOfClass(Main.NumWorkers.class);
     cl.registerShortNameOfClass(Main.Timeout.class);
     cl.registerShortNameOfClass(Memory.class);
+    cl.registerShortNameOfClass(MaxWorkers.class);
+    cl.registerShortNameOfClass(TargetLatency.class);
+    cl.registerShortNameOfClass(AutoscaleInterval.class);
     cl.processCommandLine(args);
     return confBuilder.build();
   }
@@ -97,6 +103,12 @@ public final class Main {
         String.valueOf(injector.getNamedInstance(Main.Timeout.class)));
     cb.bindNamedParameter(Memory.class,
         String.valueOf(injector.getNamedInstance(Memory.class)));
+    cb.bindNamedParameter(MaxWorkers.class,
+        String.valueOf(injector.getNamedInstance(MaxWorkers.class)));
+    cb.bindNamedParameter(TargetLatency.class,
+        String.valueOf(injector.getNamedInstance(TargetLatency.class)));
+    cb.bindNamedParameter(AutoscaleInterval.class,
+        String.valueOf(injector.getNamedInstance(AutoscaleInterval.class)));
     return cb.build();
   }
 
@@ -20,13 +20,18 @@ import java.util.logging.Level;
 import java.util.logging.Logger;
 import javax.inject.Inject;
 import org.apache.reef.tang.annotations.Parameter;
+import org.apache.reef.tang.annotations.Unit;
 import org.apache.reef.task.Task;
+import org.apache.reef.task.events.CloseEvent;
+import org.apache.reef.wake.EventHandler;
 
 import tdb.reef.param.*;
 
 /**
- * A worker node.
+ * A worker node. This is a Unit so that Tang can inject CloseHandler, which
+ * shares the task's instance.
  */
+@Unit
 public final class WorkerTask implements Task {
   private static final Logger LOG =
       Logger.getLogger(WorkerTask.class.getName());
@@ -34,6 +39,7 @@ public final class WorkerTask implements Task {
   private final String hostIP;
   private final String hostPort;
   private final String masterAkka;
+  private Thread thread = null;
 
   @Inject
   WorkerTask(@Parameter(Driver.HostIP.class) final String ip,
@@ -49,6 +55,9 @@ public final class WorkerTask implements Task {
 
   @Override
   public final byte[] call(final byte[] memento) {
+    synchronized (this) {
+      thread = Thread.currentThread();
+    }
     LOG.log(Level.INFO, "start worker");
     LOG.log(Level.INFO, "IP: {0}", hostIP);
     LOG.log(Level.INFO, "port: {0}", hostPort);
@@ -73,4 +82,19 @@ public final class WorkerTask implements Task {
     LOG.log(Level.INFO, "end worker");
     return null;
   }
+
+  /**
+   * Sent by the driver once the master has decommissioned this worker, so
+   * that its evaluator can be released.
+   */
+  public final class CloseHandler implements EventHandler<CloseEvent> {
+    @Override
+    public void onNext(final CloseEvent closeEvent) {
+      synchronized (WorkerTask.this) {
+        if (thread != null) {
+          thread.interrupt();
+        }
+      }
+    }
+  }
 }
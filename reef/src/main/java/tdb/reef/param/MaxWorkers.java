@@ -0,0 +1,31 @@
+/**
+ * Copyright (C) 2013 Carnegie Mellon University
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package tdb.reef.param;
+
+import org.apache.reef.tang.annotations.Name;
+import org.apache.reef.tang.annotations.NamedParameter;
+
+/**
+ * Command line parameter = the most workers autoscaling may grow the cluster
+ * to. Autoscaling is off if this isn't greater than the number of workers.
+ */
+@NamedParameter(
+    doc = "Maximum number of workers when autoscaling, 0 to disable",
+    short_name = "maxWorkers",
+    default_value = "0")
+public final class MaxWorkers implements Name<Integer> {
+
+}